@@ -0,0 +1,387 @@
+package org.esa.beam.snowradiance.operator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Specialised evaluator for feed-forward neural nets given in the .nna format (as read by com.bc.jnn).
+ * <p/>
+ * Supported are layered nets with 'Sum_1' input functions, 'Identity' or 'Sigmoid_1' activations and
+ * 'Linear' output functions, where each layer is connected to the previous layer only. At load time the
+ * net is compiled into a short pipeline of dense stages:
+ * <ul>
+ * <li>identity layers (e.g. the input scaling or the PCA layer) are folded into the weights of the
+ * following layer,</li>
+ * <li>the output scale and bias of a sigmoid layer are folded into the weights of the next stage,</li>
+ * <li>the sigmoid slope is folded into the stage weights, so that a sigmoid stage computes
+ * 1 / (1 + exp(b + W x)),</li>
+ * <li>the last stage is a plain affine transform, which yields the net output.</li>
+ * </ul>
+ * The weights of each stage are stored in one flat row-major array. Instances are immutable and may be
+ * shared between threads; the intermediate results are kept in a caller provided workspace
+ * (see {@link #createWorkspace(int)}).
+ */
+public class CompiledNeuralNet {
+
+    private static final String SUM_1 = "Sum_1";
+    private static final String IDENTITY = "Identity";
+    private static final String SIGMOID_1 = "Sigmoid_1";
+    private static final String LINEAR = "Linear";
+
+    private final int numInputs;
+    private final int numOutputs;
+    private final int maxWidth;
+    // stage k maps stageSizes[k] values to stageSizes[k + 1] values
+    private final int[] stageSizes;
+    private final double[][] stageWeights;
+    private final double[][] stageBiases;
+    private final boolean[] stageSigmoids;
+
+    private CompiledNeuralNet(List<Stage> stages) {
+        final int numStages = stages.size();
+        stageSizes = new int[numStages + 1];
+        stageWeights = new double[numStages][];
+        stageBiases = new double[numStages][];
+        stageSigmoids = new boolean[numStages];
+        stageSizes[0] = stages.get(0).numIn;
+        int width = stageSizes[0];
+        for (int k = 0; k < numStages; k++) {
+            final Stage stage = stages.get(k);
+            stageSizes[k + 1] = stage.numOut;
+            stageWeights[k] = stage.weights;
+            stageBiases[k] = stage.biases;
+            stageSigmoids[k] = stage.sigmoid;
+            width = Math.max(width, stage.numOut);
+        }
+        numInputs = stageSizes[0];
+        numOutputs = stageSizes[numStages];
+        maxWidth = width;
+    }
+
+    /**
+     * This method reads and compiles a neural net in .nna format.
+     *
+     * @param reader - the .nna content
+     * @return CompiledNeuralNet
+     * @throws IOException if the content cannot be read or the net is not supported
+     */
+    public static CompiledNeuralNet read(Reader reader) throws IOException {
+        final NnaFile nnaFile = NnaFile.parse(reader);
+        return compile(nnaFile);
+    }
+
+    public int getNumInputs() {
+        return numInputs;
+    }
+
+    public int getNumOutputs() {
+        return numOutputs;
+    }
+
+    /**
+     * @param capacity - maximum number of samples evaluated in one call
+     * @return a workspace for the evaluation of up to <code>capacity</code> samples
+     */
+    public double[] createWorkspace(int capacity) {
+        return new double[2 * maxWidth * capacity];
+    }
+
+    /**
+     * This method evaluates the net for a single sample.
+     *
+     * @param input     - the net inputs
+     * @param output    - the net outputs
+     * @param workspace - workspace for at least one sample (see {@link #createWorkspace(int)})
+     */
+    public void process(double[] input, double[] output, double[] workspace) {
+        System.arraycopy(input, 0, workspace, 0, numInputs);
+        final int resultOffset = processStages(1, workspace);
+        System.arraycopy(workspace, resultOffset, output, 0, numOutputs);
+    }
+
+    /**
+     * This method evaluates the net for a batch of samples.
+     *
+     * @param inputs    - the net inputs, inputs[i][n] is input i of sample n
+     * @param count     - number of samples
+     * @param outputs   - the net outputs, outputs[o][n] is output o of sample n
+     * @param workspace - workspace for at least <code>count</code> samples (see {@link #createWorkspace(int)})
+     */
+    public void process(double[][] inputs, int count, double[][] outputs, double[] workspace) {
+        if (workspace.length < 2 * maxWidth * count) {
+            throw new IllegalArgumentException("Workspace too small for " + count + " samples");
+        }
+        for (int i = 0; i < numInputs; i++) {
+            System.arraycopy(inputs[i], 0, workspace, i * count, count);
+        }
+        final int resultOffset = processStages(count, workspace);
+        for (int o = 0; o < numOutputs; o++) {
+            System.arraycopy(workspace, resultOffset + o * count, outputs[o], 0, count);
+        }
+    }
+
+    // evaluates all stages, the values of unit j of sample n are at offset + j * count + n
+    // returns the offset of the net outputs
+    private int processStages(int count, double[] workspace) {
+        int srcOffset = 0;
+        int dstOffset = maxWidth * count;
+        for (int k = 0; k < stageWeights.length; k++) {
+            final int numIn = stageSizes[k];
+            final int numOut = stageSizes[k + 1];
+            final double[] weights = stageWeights[k];
+            final double[] biases = stageBiases[k];
+            int w = 0;
+            for (int j = 0; j < numOut; j++) {
+                final int dst = dstOffset + j * count;
+                final double bias = biases[j];
+                for (int n = 0; n < count; n++) {
+                    workspace[dst + n] = bias;
+                }
+                for (int i = 0; i < numIn; i++) {
+                    final double weight = weights[w++];
+                    final int src = srcOffset + i * count;
+                    for (int n = 0; n < count; n++) {
+                        workspace[dst + n] += weight * workspace[src + n];
+                    }
+                }
+                if (stageSigmoids[k]) {
+                    for (int n = 0; n < count; n++) {
+                        workspace[dst + n] = 1.0 / (1.0 + Math.exp(workspace[dst + n]));
+                    }
+                }
+            }
+            final int tmp = srcOffset;
+            srcOffset = dstOffset;
+            dstOffset = tmp;
+        }
+        return srcOffset;
+    }
+
+    private static CompiledNeuralNet compile(NnaFile nnaFile) throws IOException {
+        final int numLayers = nnaFile.getInt("Net", "NumLayers");
+        if (nnaFile.getInt("Net", "InpLayer") != 1 || nnaFile.getInt("Net", "OutLayer") != numLayers) {
+            throw new IOException("Neural net must have the first layer as input and the last layer as output.");
+        }
+        final List<Stage> stages = new ArrayList<Stage>();
+
+        // the values of the current layer are kept as affine transform p + q h
+        // of the latest materialised values h (net inputs or sigmoid outputs)
+        final String inputLayer = "Layer(1)";
+        final int numInputs = nnaFile.getInt(inputLayer, "NumUnits");
+        checkFunctions(nnaFile, inputLayer);
+        if (!IDENTITY.equals(nnaFile.getString(inputLayer, "ActFunc"))) {
+            throw new IOException("Neural net input layer must have identity activation.");
+        }
+        int numH = numInputs;
+        int numValues = numInputs;
+        double[] p = new double[numInputs];
+        double[] q = new double[numInputs * numInputs];
+        for (int u = 0; u < numInputs; u++) {
+            p[u] = nnaFile.getDouble(unitSection(1, u), "OutBias", 0.0);
+            q[u * numInputs + u] = nnaFile.getDouble(unitSection(1, u), "OutScale", 1.0);
+        }
+
+        for (int l = 2; l <= numLayers; l++) {
+            final String layer = "Layer(" + l + ")";
+            checkFunctions(nnaFile, layer);
+            final int numUnits = nnaFile.getInt(layer, "NumUnits");
+            final double[] layerWeights = readLayerWeights(nnaFile, l, numUnits, numValues);
+
+            // pre-activation c + a h
+            final double[] c = new double[numUnits];
+            final double[] a = new double[numUnits * numH];
+            for (int u = 0; u < numUnits; u++) {
+                double sum = nnaFile.getDouble(unitSection(l, u), "InpBias", 0.0);
+                for (int v = 0; v < numValues; v++) {
+                    final double weight = layerWeights[u * numValues + v];
+                    sum += weight * p[v];
+                    for (int i = 0; i < numH; i++) {
+                        a[u * numH + i] += weight * q[v * numH + i];
+                    }
+                }
+                c[u] = sum;
+            }
+
+            final double[] outScale = new double[numUnits];
+            final double[] outBias = new double[numUnits];
+            for (int u = 0; u < numUnits; u++) {
+                outScale[u] = nnaFile.getDouble(unitSection(l, u), "OutScale", 1.0);
+                outBias[u] = nnaFile.getDouble(unitSection(l, u), "OutBias", 0.0);
+            }
+
+            if (SIGMOID_1.equals(nnaFile.getString(layer, "ActFunc"))) {
+                final double slope = nnaFile.getDouble(layer, "ActSlope", 1.0);
+                for (int u = 0; u < numUnits; u++) {
+                    c[u] *= -slope;
+                    for (int i = 0; i < numH; i++) {
+                        a[u * numH + i] *= -slope;
+                    }
+                }
+                stages.add(new Stage(numH, numUnits, a, c, true));
+                numH = numUnits;
+                p = outBias;
+                q = new double[numUnits * numUnits];
+                for (int u = 0; u < numUnits; u++) {
+                    q[u * numUnits + u] = outScale[u];
+                }
+            } else {
+                p = new double[numUnits];
+                q = a;
+                for (int u = 0; u < numUnits; u++) {
+                    p[u] = outBias[u] + outScale[u] * c[u];
+                    for (int i = 0; i < numH; i++) {
+                        q[u * numH + i] *= outScale[u];
+                    }
+                }
+            }
+            numValues = numUnits;
+        }
+        stages.add(new Stage(numH, numValues, q, p, false));
+        return new CompiledNeuralNet(stages);
+    }
+
+    private static double[] readLayerWeights(NnaFile nnaFile, int layer, int numUnits, int numPreviousUnits)
+            throws IOException {
+        final double[] weights = new double[numUnits * numPreviousUnits];
+        for (int u = 0; u < numUnits; u++) {
+            for (double[] connection : nnaFile.getConnections(unitSection(layer, u))) {
+                final int sourceLayer = (int) connection[0];
+                final int sourceUnit = (int) connection[1] - 1;
+                if (sourceLayer != layer - 1 || sourceUnit < 0 || sourceUnit >= numPreviousUnits) {
+                    throw new IOException("Unsupported connection in " + unitSection(layer, u) + ".");
+                }
+                weights[u * numPreviousUnits + sourceUnit] += connection[2];
+            }
+        }
+        return weights;
+    }
+
+    private static void checkFunctions(NnaFile nnaFile, String layer) throws IOException {
+        final String inpFunc = nnaFile.getString(layer, "InpFunc");
+        final String actFunc = nnaFile.getString(layer, "ActFunc");
+        final String outFunc = nnaFile.getString(layer, "OutFunc");
+        if (!SUM_1.equals(inpFunc) || !LINEAR.equals(outFunc) ||
+            !(IDENTITY.equals(actFunc) || SIGMOID_1.equals(actFunc))) {
+            throw new IOException("Unsupported neural net functions in " + layer + ": " +
+                                  inpFunc + ", " + actFunc + ", " + outFunc);
+        }
+    }
+
+    // unit sections are 1-based, unit indices here are 0-based
+    private static String unitSection(int layer, int unit) {
+        return "Unit(" + layer + "," + (unit + 1) + ")";
+    }
+
+    private static class Stage {
+
+        private final int numIn;
+        private final int numOut;
+        private final double[] weights;
+        private final double[] biases;
+        private final boolean sigmoid;
+
+        private Stage(int numIn, int numOut, double[] weights, double[] biases, boolean sigmoid) {
+            this.numIn = numIn;
+            this.numOut = numOut;
+            this.weights = weights;
+            this.biases = biases;
+            this.sigmoid = sigmoid;
+        }
+    }
+
+    /**
+     * The sections, properties and connections of an .nna file.
+     */
+    private static class NnaFile {
+
+        private final Map<String, Map<String, String>> properties = new HashMap<String, Map<String, String>>();
+        private final Map<String, List<double[]>> connections = new HashMap<String, List<double[]>>();
+
+        private static NnaFile parse(Reader reader) throws IOException {
+            final NnaFile nnaFile = new NnaFile();
+            final BufferedReader bufferedReader = new BufferedReader(reader);
+            String section = null;
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith(";")) {
+                    continue;
+                }
+                if (line.startsWith("[")) {
+                    final int end = line.indexOf(']');
+                    if (end < 0) {
+                        throw new IOException("Invalid section header: " + line);
+                    }
+                    section = line.substring(1, end).replace(" ", "");
+                    nnaFile.properties.put(section, new HashMap<String, String>());
+                    nnaFile.connections.put(section, new ArrayList<double[]>());
+                    continue;
+                }
+                final int eq = line.indexOf('=');
+                if (eq < 0 || section == null) {
+                    throw new IOException("Invalid line: " + line);
+                }
+                final String key = line.substring(0, eq).trim();
+                final String value = line.substring(eq + 1).trim();
+                if (key.startsWith("C(")) {
+                    final String[] parts = value.split(",");
+                    if (parts.length != 3) {
+                        throw new IOException("Invalid connection: " + line);
+                    }
+                    nnaFile.connections.get(section).add(new double[]{
+                            parseDouble(parts[0]), parseDouble(parts[1]), parseDouble(parts[2])
+                    });
+                } else {
+                    nnaFile.properties.get(section).put(key, value);
+                }
+            }
+            return nnaFile;
+        }
+
+        private String getString(String section, String key) throws IOException {
+            final Map<String, String> sectionProperties = properties.get(section);
+            if (sectionProperties == null) {
+                throw new IOException("Missing section [" + section + "]");
+            }
+            final String value = sectionProperties.get(key);
+            if (value == null) {
+                throw new IOException("Missing property " + key + " in [" + section + "]");
+            }
+            return value;
+        }
+
+        private int getInt(String section, String key) throws IOException {
+            return (int) parseDouble(getString(section, key));
+        }
+
+        private double getDouble(String section, String key, double defaultValue) throws IOException {
+            final Map<String, String> sectionProperties = properties.get(section);
+            if (sectionProperties == null) {
+                throw new IOException("Missing section [" + section + "]");
+            }
+            final String value = sectionProperties.get(key);
+            return value != null ? parseDouble(value) : defaultValue;
+        }
+
+        private List<double[]> getConnections(String section) throws IOException {
+            final List<double[]> sectionConnections = connections.get(section);
+            if (sectionConnections == null) {
+                throw new IOException("Missing section [" + section + "]");
+            }
+            return sectionConnections;
+        }
+
+        private static double parseDouble(String value) throws IOException {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid number: " + value);
+            }
+        }
+    }
+}
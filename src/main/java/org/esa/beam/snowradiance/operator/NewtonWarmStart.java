@@ -0,0 +1,252 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.snowradiance.util.SnowRadianceUtils;
+
+/**
+ * Row-wise warm start for the Newton iterations of the temperature and emissivity retrieval.
+ * Neighbouring snow pixels usually have nearly identical solutions, so the iteration for a pixel is
+ * started from the converged solution of its left neighbour if the inputs of both pixels are close.
+ * Otherwise, the default start values of the breadboard are used.
+ * <p/>
+ * Instances are not thread safe and are meant to be used for one tile. The iteration statistics of
+ * several instances can be collected with {@link #addStatistics(NewtonWarmStart)}.
+ */
+public class NewtonWarmStart {
+
+    static final float MAX_BT_DIFFERENCE = 1.0f;            // K
+    static final float MAX_VIEW_ZENITH_DIFFERENCE = 1.0f;   // degree
+    static final float MAX_TSFC_DIFFERENCE = 1.0f;          // K
+
+    private final int[] iterationCount = new int[1];
+    private final double[] gradient = new double[2];
+
+    // last converged temperature retrieval
+    private int temperatureX = -2;
+    private int temperatureY = -1;
+    private float temperatureViewZenith;
+    private float temperatureBt11;
+    private float temperatureSolution;
+
+    // last converged emissivity retrieval
+    private int emissivityX = -2;
+    private int emissivityY = -1;
+    private float emissivityViewZenith;
+    private float emissivityTsfc;
+    private float emissivityBt12;
+    private float emissivitySolution;
+
+    private long temperatureWarmCount;
+    private long temperatureWarmIterations;
+    private long temperatureColdCount;
+    private long temperatureColdIterations;
+    private long emissivityWarmCount;
+    private long emissivityWarmIterations;
+    private long emissivityColdCount;
+    private long emissivityColdIterations;
+
+    /**
+     * This method retrieves the surface temperature as
+     * {@link SnowTemperatureEmissivityRetrieval#minimizeNewtonForTemperature(double, float, float, float, RtmFunction[][], double[], boolean)},
+     * but starts the iteration from the solution of pixel (x-1, y) if available and close.
+     *
+     * @param x                            - pixel x
+     * @param y                            - pixel y
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param viewZenith                   - view zenith angle (degree)
+     * @param aatsrBt11                    - AATSR brightness temperature at 11 microns
+     * @param rtmInterpolators             - RTM LUT interpolators
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative         - if true, take the derivative from the LUT interpolation cell
+     * @return float - the surface temperature, or the no-data value if the iteration did not converge
+     */
+    public float retrieveTemperature(int x, int y, double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                     float viewZenith, float aatsrBt11,
+                                     RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                     boolean analyticalDerivative) {
+        final boolean warm = x == temperatureX + 1 && y == temperatureY &&
+                             Math.abs(aatsrBt11 - temperatureBt11) < MAX_BT_DIFFERENCE &&
+                             Math.abs(viewZenith - temperatureViewZenith) < MAX_VIEW_ZENITH_DIFFERENCE;
+        // dBT/dTsfc is close to one, so shift the neighbour solution by the BT difference
+        final float tSfcStart = warm ? temperatureSolution + (aatsrBt11 - temperatureBt11) : aatsrBt11 + 0.5f;
+
+        final float tSfc = SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11,
+                                             rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                             tSfcStart, iterationCount, gradient);
+        if (warm) {
+            temperatureWarmCount++;
+            temperatureWarmIterations += iterationCount[0];
+        } else {
+            temperatureColdCount++;
+            temperatureColdIterations += iterationCount[0];
+        }
+
+        if (SnowRadianceUtils.temperatureAlgoFailed(tSfc)) {
+            temperatureX = -2;
+        } else {
+            temperatureX = x;
+            temperatureY = y;
+            temperatureViewZenith = viewZenith;
+            temperatureBt11 = aatsrBt11;
+            temperatureSolution = tSfc;
+        }
+        return tSfc;
+    }
+
+    /**
+     * This method retrieves the emissivity as
+     * {@link SnowTemperatureEmissivityRetrieval#minimizeNewtonForEmissivity(float, float, float, float, RtmFunction[][], double[], boolean)},
+     * but starts the iteration from the solution of pixel (x-1, y) if available and close.
+     *
+     * @param x                    - pixel x
+     * @param y                    - pixel y
+     * @param waterVapourColumn    - water vapour column
+     * @param viewZenith           - view zenith angle (degree)
+     * @param tSfc                 - surface temperature
+     * @param aatsrBt12            - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators     - RTM LUT interpolators
+     * @param tLowestLayer         - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative - if true, take the derivative from the LUT interpolation cell
+     * @return float - the emissivity, or the no-data value if the iteration did not converge
+     */
+    public float retrieveEmissivity(int x, int y, float waterVapourColumn, float viewZenith, float tSfc,
+                                    float aatsrBt12,
+                                    RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                    boolean analyticalDerivative) {
+        final boolean warm = x == emissivityX + 1 && y == emissivityY &&
+                             Math.abs(aatsrBt12 - emissivityBt12) < MAX_BT_DIFFERENCE &&
+                             Math.abs(tSfc - emissivityTsfc) < MAX_TSFC_DIFFERENCE &&
+                             Math.abs(viewZenith - emissivityViewZenith) < MAX_VIEW_ZENITH_DIFFERENCE;
+        final float emissivityStart = warm ? emissivitySolution : SnowTemperatureEmissivityRetrieval.EMISSIVITY_START;
+
+        final float emissivity = SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                            rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                            emissivityStart, iterationCount, gradient);
+        if (warm) {
+            emissivityWarmCount++;
+            emissivityWarmIterations += iterationCount[0];
+        } else {
+            emissivityColdCount++;
+            emissivityColdIterations += iterationCount[0];
+        }
+
+        if (SnowRadianceUtils.emissivityAlgoFailed(emissivity)) {
+            emissivityX = -2;
+        } else {
+            emissivityX = x;
+            emissivityY = y;
+            emissivityViewZenith = viewZenith;
+            emissivityTsfc = tSfc;
+            emissivityBt12 = aatsrBt12;
+            emissivitySolution = emissivity;
+        }
+        return emissivity;
+    }
+
+    /**
+     * This method retrieves surface temperature and (optionally) emissivity at 12 microns for pixel (x, y) as
+     * {@link SnowTemperatureEmissivityRetrieval#retrieveTemperatureAndEmissivity(double, float, float, float, float, RtmFunction[][], double[], boolean, boolean, TemperatureEmissivityResult)},
+     * but with warm-started iterations.
+     *
+     * @param x                            - pixel x
+     * @param y                            - pixel y
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param viewZenith                   - view zenith angle (degree)
+     * @param aatsrBt11                    - AATSR brightness temperature at 11 microns
+     * @param aatsrBt12                    - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators             - RTM LUT interpolators
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative         - if true, take the derivative from the LUT interpolation cell
+     * @param retrieveEmissivity           - if false, only the temperature is retrieved
+     * @param result                       - the result to fill
+     */
+    public void retrieveTemperatureAndEmissivity(int x, int y, double assumedEmissivityAt11Microns,
+                                                 float waterVapourColumn, float viewZenith,
+                                                 float aatsrBt11, float aatsrBt12,
+                                                 RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                 boolean analyticalDerivative, boolean retrieveEmissivity,
+                                                 TemperatureEmissivityResult result) {
+        final float tSfc = retrieveTemperature(x, y, assumedEmissivityAt11Microns, waterVapourColumn, viewZenith,
+                                               aatsrBt11, rtmInterpolators, tLowestLayer, analyticalDerivative);
+        final boolean temperatureValid = !SnowRadianceUtils.temperatureAlgoFailed(tSfc);
+        result.setTemperature(tSfc, iterationCount[0], temperatureValid);
+        if (temperatureValid && retrieveEmissivity) {
+            final float emissivity = retrieveEmissivity(x, y, waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                                        rtmInterpolators, tLowestLayer, analyticalDerivative);
+            result.setEmissivity(emissivity, iterationCount[0], !SnowRadianceUtils.emissivityAlgoFailed(emissivity));
+        }
+    }
+
+    /**
+     * This method adds the iteration statistics of another instance to this one.
+     *
+     * @param other - the other instance
+     */
+    public synchronized void addStatistics(NewtonWarmStart other) {
+        temperatureWarmCount += other.temperatureWarmCount;
+        temperatureWarmIterations += other.temperatureWarmIterations;
+        temperatureColdCount += other.temperatureColdCount;
+        temperatureColdIterations += other.temperatureColdIterations;
+        emissivityWarmCount += other.emissivityWarmCount;
+        emissivityWarmIterations += other.emissivityWarmIterations;
+        emissivityColdCount += other.emissivityColdCount;
+        emissivityColdIterations += other.emissivityColdIterations;
+    }
+
+    /**
+     * @return the fraction of temperature retrievals which were warm-started
+     */
+    public synchronized double getTemperatureWarmStartFraction() {
+        return getFraction(temperatureWarmCount, temperatureColdCount);
+    }
+
+    /**
+     * @return the estimated average number of iterations saved per warm-started temperature retrieval,
+     *         i.e. the difference of the average iteration counts of cold- and warm-started retrievals
+     */
+    public synchronized double getTemperatureIterationsSaved() {
+        return getIterationsSaved(temperatureWarmCount, temperatureWarmIterations,
+                                  temperatureColdCount, temperatureColdIterations);
+    }
+
+    /**
+     * @return the fraction of emissivity retrievals which were warm-started
+     */
+    public synchronized double getEmissivityWarmStartFraction() {
+        return getFraction(emissivityWarmCount, emissivityColdCount);
+    }
+
+    /**
+     * @return the estimated average number of iterations saved per warm-started emissivity retrieval,
+     *         i.e. the difference of the average iteration counts of cold- and warm-started retrievals
+     */
+    public synchronized double getEmissivityIterationsSaved() {
+        return getIterationsSaved(emissivityWarmCount, emissivityWarmIterations,
+                                  emissivityColdCount, emissivityColdIterations);
+    }
+
+    /**
+     * @return a summary of the iteration statistics
+     */
+    public synchronized String getStatisticsSummary() {
+        return String.format("Newton warm start: temperature %.1f%% warm-started, %.2f iterations saved per warm start; " +
+                             "emissivity %.1f%% warm-started, %.2f iterations saved per warm start",
+                             100.0 * getTemperatureWarmStartFraction(), getTemperatureIterationsSaved(),
+                             100.0 * getEmissivityWarmStartFraction(), getEmissivityIterationsSaved());
+    }
+
+    private static double getFraction(long warmCount, long coldCount) {
+        final long count = warmCount + coldCount;
+        return count > 0 ? (double) warmCount / count : 0.0;
+    }
+
+    private static double getIterationsSaved(long warmCount, long warmIterations, long coldCount, long coldIterations) {
+        if (warmCount == 0 || coldCount == 0) {
+            return 0.0;
+        }
+        return (double) coldIterations / coldCount - (double) warmIterations / warmCount;
+    }
+}
@@ -0,0 +1,219 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.util.math.MathUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+
+/**
+ * Reflection function backed by the radiative transfer LUT 'reflectionLUT.dat'.
+ * <p/>
+ * The LUT provides the azimuthally averaged reflection function R0(mus, muv) of a semi-infinite
+ * non-absorbing snow layer at the Gaussian quadrature nodes mu_i (FORTRAN formatted: the node count and
+ * the nodes, the Legendre moments of the phase function, and the lower triangle of the symmetric
+ * reflection matrix). Since the LUT does not resolve the azimuth, the azimuth dependence is taken from
+ * the asymptotic approximation, and only its azimuthal average is replaced by the LUT:
+ * <pre>
+ *   R(mus, muv, phi) = Rapprox(mus, muv, phi) + T(mus, muv) / (4 (mus + muv))
+ *   T(mus, muv)      = 4 (mus + muv) (R0(mus, muv) - &lt;Rapprox(mus, muv, phi)&gt;_phi)
+ * </pre>
+ * The correction T is smooth and finite also at grazing angles. It is resampled at load time onto a
+ * regular grid in mus and muv, so that the lookup is a plain bilinear interpolation in one flat array
+ * without any search.
+ */
+public class ReflectionLutFunction extends SnowReflectionFunction {
+
+    static final int NUM_NODES = 101;
+    private static final int NUM_AZIMUTHS = 90;
+
+    private final double[] gaussMu;
+    private final double[][] r0;
+    private final double[] correction;
+
+    private ReflectionLutFunction(double[] gaussMu, double[][] r0) {
+        this.gaussMu = gaussMu;
+        this.r0 = r0;
+        this.correction = createCorrection(gaussMu, r0);
+    }
+
+    /**
+     * This method reads the reflection LUT.
+     *
+     * @param inputStream - the LUT file content
+     * @return ReflectionLutFunction
+     * @throws IOException if the content is not a valid reflection LUT
+     */
+    public static ReflectionLutFunction read(InputStream inputStream) throws IOException {
+        final Reader reader = new InputStreamReader(inputStream);
+        try {
+            final StreamTokenizer tokenizer = createTokenizer(reader);
+            readInt(tokenizer); // number of reflection matrices
+            final int numMu = readInt(tokenizer);
+            final double[] gaussMu = new double[numMu];
+            for (int i = 0; i < numMu; i++) {
+                gaussMu[i] = readDouble(tokenizer);
+            }
+            // phase function moments and single scattering albedo, not needed here
+            final int numMoments = readInt(tokenizer);
+            readDouble(tokenizer);
+            for (int i = 0; i < numMoments; i++) {
+                readDouble(tokenizer);
+            }
+            readInt(tokenizer);
+            final double[][] r0 = new double[numMu][numMu];
+            for (int i = 0; i < numMu; i++) {
+                for (int j = 0; j <= i; j++) {
+                    r0[i][j] = readDouble(tokenizer);
+                    r0[j][i] = r0[i][j];
+                }
+            }
+            for (int i = 1; i < numMu; i++) {
+                if (!(gaussMu[i] > gaussMu[i - 1])) {
+                    throw new IOException("Reflection LUT nodes are not increasing.");
+                }
+            }
+            return new ReflectionLutFunction(gaussMu, r0);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public double getReflectance(double saa, double sza, double vaa, double vza) {
+        final double mus = Math.cos(sza * MathUtils.DTOR);
+        final double muv = Math.cos(vza * MathUtils.DTOR);
+        final double reflApprox = SnowGrainSizePollutionRetrieval.computeReflLutApprox(saa, sza, vaa, vza);
+        return reflApprox + getCorrection(mus, muv) / (4.0 * (mus + muv));
+    }
+
+    /**
+     * @param mus - cosine of sun zenith
+     * @param muv - cosine of view zenith
+     * @return the correction T of the approximation (see class description)
+     */
+    double getCorrection(double mus, double muv) {
+        final double ps = clamp(mus) * (NUM_NODES - 1);
+        final double pv = clamp(muv) * (NUM_NODES - 1);
+        final int is = Math.min((int) ps, NUM_NODES - 2);
+        final int iv = Math.min((int) pv, NUM_NODES - 2);
+        final double fs = ps - is;
+        final double fv = pv - iv;
+        final int k = is * NUM_NODES + iv;
+        final double c0 = correction[k] + fv * (correction[k + 1] - correction[k]);
+        final double c1 = correction[k + NUM_NODES] + fv * (correction[k + NUM_NODES + 1] - correction[k + NUM_NODES]);
+        return c0 + fs * (c1 - c0);
+    }
+
+    int getNumGaussNodes() {
+        return gaussMu.length;
+    }
+
+    double getGaussMu(int i) {
+        return gaussMu[i];
+    }
+
+    double getR0(int i, int j) {
+        return r0[i][j];
+    }
+
+    /**
+     * @param mus - cosine of sun zenith
+     * @param muv - cosine of view zenith
+     * @return the azimuthal average of the asymptotic approximation
+     */
+    static double getAzimuthalAverageApprox(double mus, double muv) {
+        final double sza = Math.acos(mus) * MathUtils.RTOD;
+        final double vza = Math.acos(muv) * MathUtils.RTOD;
+        // midpoint rule, which converges fast for the smooth periodic integrand
+        double sum = 0.0;
+        for (int k = 0; k < NUM_AZIMUTHS; k++) {
+            final double phi = (k + 0.5) * 180.0 / NUM_AZIMUTHS;
+            sum += SnowGrainSizePollutionRetrieval.computeReflLutApprox(0.0, sza, phi, vza);
+        }
+        return sum / NUM_AZIMUTHS;
+    }
+
+    private static double[] createCorrection(double[] gaussMu, double[][] r0) {
+        final double[] correction = new double[NUM_NODES * NUM_NODES];
+        for (int i = 0; i < NUM_NODES; i++) {
+            final double mus = Math.max((double) i / (NUM_NODES - 1), gaussMu[0]);
+            for (int j = 0; j <= i; j++) {
+                final double muv = Math.max((double) j / (NUM_NODES - 1), gaussMu[0]);
+                final double value = interpolateR0Numerator(gaussMu, r0, mus, muv) -
+                                     4.0 * (mus + muv) * getAzimuthalAverageApprox(mus, muv);
+                correction[i * NUM_NODES + j] = value;
+                correction[j * NUM_NODES + i] = value;
+            }
+        }
+        return correction;
+    }
+
+    // bilinear interpolation of 4 (mus + muv) R0 in the Gaussian nodes
+    private static double interpolateR0Numerator(double[] gaussMu, double[][] r0, double mus, double muv) {
+        final int is = findInterval(gaussMu, mus);
+        final int iv = findInterval(gaussMu, muv);
+        final double fs = getFraction(gaussMu, is, mus);
+        final double fv = getFraction(gaussMu, iv, muv);
+        final double k00 = numerator(gaussMu, r0, is, iv);
+        final double k01 = numerator(gaussMu, r0, is, iv + 1);
+        final double k10 = numerator(gaussMu, r0, is + 1, iv);
+        final double k11 = numerator(gaussMu, r0, is + 1, iv + 1);
+        final double k0 = k00 + fv * (k01 - k00);
+        final double k1 = k10 + fv * (k11 - k10);
+        return k0 + fs * (k1 - k0);
+    }
+
+    private static double numerator(double[] gaussMu, double[][] r0, int i, int j) {
+        return 4.0 * (gaussMu[i] + gaussMu[j]) * r0[i][j];
+    }
+
+    private static int findInterval(double[] nodes, double value) {
+        int lo = 0;
+        int hi = nodes.length - 1;
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (nodes[mid] <= value) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static double getFraction(double[] nodes, int i, double value) {
+        final double fraction = (value - nodes[i]) / (nodes[i + 1] - nodes[i]);
+        return Math.max(0.0, Math.min(1.0, fraction));
+    }
+
+    private static double clamp(double mu) {
+        return Math.max(0.0, Math.min(1.0, mu));
+    }
+
+    private static StreamTokenizer createTokenizer(Reader reader) {
+        // numbers are in FORTRAN 'D' notation, so parse all tokens as words
+        final StreamTokenizer tokenizer = new StreamTokenizer(reader);
+        tokenizer.resetSyntax();
+        tokenizer.wordChars(33, 255);
+        tokenizer.whitespaceChars(0, 32);
+        return tokenizer;
+    }
+
+    private static int readInt(StreamTokenizer tokenizer) throws IOException {
+        return (int) readDouble(tokenizer);
+    }
+
+    private static double readDouble(StreamTokenizer tokenizer) throws IOException {
+        if (tokenizer.nextToken() != StreamTokenizer.TT_WORD) {
+            throw new IOException("Reflection LUT is truncated.");
+        }
+        try {
+            return Double.parseDouble(tokenizer.sval.replace('D', 'E').replace('d', 'e'));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in reflection LUT: " + tokenizer.sval);
+        }
+    }
+}
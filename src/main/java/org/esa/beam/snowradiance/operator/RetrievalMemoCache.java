@@ -0,0 +1,229 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.snowradiance.util.SnowRadianceUtils;
+
+import java.util.Arrays;
+
+/**
+ * Direct-mapped memo cache for the Newton retrievals of surface temperature and emissivity.
+ * AATSR brightness temperatures are quantized and the view zenith angle varies smoothly, so many
+ * pixels lead to the same retrieval problem.
+ * <p/>
+ * The inputs are quantized with a given quantum, and the retrieval is done for the quantized inputs,
+ * so that a result does not depend on which pixel filled the cache entry. The error is therefore bounded
+ * by the quantum: about half a quantum in surface temperature (dBT/dTsfc is close to one) and, for the
+ * emissivity, half a quantum in BT12 and surface temperature divided by dBT/dEmissivity. The water vapour
+ * column is rounded with the same quantum; its contribution is small, since the brightness temperatures
+ * change by less than 0.13 K per unit of water vapour column.
+ * <p/>
+ * The cache assumes fixed RTM LUTs, assumed emissivity at 11 microns and derivative mode.
+ * Instances are not thread safe and are meant to be used per thread.
+ */
+public class RetrievalMemoCache {
+
+    public static final float DEFAULT_QUANTUM = 0.01f;
+
+    private static final int KEY_BITS = 21;
+    private static final int MAX_QUANTIZED = (1 << KEY_BITS) - 1;
+    private static final long EMPTY = -1L;
+
+    private final double assumedEmissivityAt11Microns;
+    private final boolean analyticalDerivative;
+    private final float quantum;
+    private final int mask;
+
+    private final long[] temperatureKeys;
+    private final float[] temperatures;
+    private final long[] emissivityKeys0;
+    private final long[] emissivityKeys1;
+    private final float[] emissivities;
+    private final double[] gradient = new double[2];
+
+    private long lookups;
+    private long hits;
+
+    /**
+     * @param size                         - number of entries per retrieval, rounded up to a power of two
+     * @param quantum                      - quantum for brightness temperatures (K), surface temperature (K),
+     *                                     view zenith angle (degree) and water vapour column
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param analyticalDerivative         - if true, use analytical LUT derivatives in the Newton iteration
+     */
+    public RetrievalMemoCache(int size, float quantum, double assumedEmissivityAt11Microns,
+                              boolean analyticalDerivative) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        if (!(quantum > 0.0f)) {
+            throw new IllegalArgumentException("quantum must be positive");
+        }
+        int capacity = 1;
+        while (capacity < size) {
+            capacity <<= 1;
+        }
+        this.quantum = quantum;
+        this.assumedEmissivityAt11Microns = assumedEmissivityAt11Microns;
+        this.analyticalDerivative = analyticalDerivative;
+        mask = capacity - 1;
+        temperatureKeys = createKeys(capacity);
+        temperatures = new float[capacity];
+        emissivityKeys0 = createKeys(capacity);
+        emissivityKeys1 = createKeys(capacity);
+        emissivities = new float[capacity];
+    }
+
+    /**
+     * This method retrieves the surface temperature for the quantized inputs, from the cache if possible.
+     *
+     * @param waterVapourColumn - water vapour column
+     * @param viewZenith        - view zenith angle (degree)
+     * @param aatsrBt11         - AATSR brightness temperature at 11 microns
+     * @param rtmInterpolators  - RTM LUT interpolators
+     * @param tLowestLayer      - temperatures of lowest atmospheric layer
+     * @return float - the surface temperature, or the no-data value if the iteration did not converge
+     */
+    public float getSurfaceTemperature(float waterVapourColumn, float viewZenith, float aatsrBt11,
+                                       RtmFunction[][] rtmInterpolators, double[] tLowestLayer) {
+        final int qWv = quantize(waterVapourColumn);
+        final int qVza = quantize(viewZenith);
+        final int qBt11 = quantize(aatsrBt11);
+        if (qWv < 0 || qVza < 0 || qBt11 < 0) {
+            // outside the key range, don't cache
+            return SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith,
+                                                 aatsrBt11, rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                                 aatsrBt11 + 0.5f, null, gradient);
+        }
+
+        final long key = pack(qWv, qVza, qBt11);
+        final int index = getIndex(key, 0L);
+        lookups++;
+        if (temperatureKeys[index] == key) {
+            hits++;
+            return temperatures[index];
+        }
+        final float bt11 = qBt11 * quantum;
+        final float tSfc = SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForTemperature(assumedEmissivityAt11Microns, qWv * quantum, qVza * quantum,
+                                             bt11, rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                             bt11 + 0.5f, null, gradient);
+        temperatureKeys[index] = key;
+        temperatures[index] = tSfc;
+        return tSfc;
+    }
+
+    /**
+     * This method retrieves the emissivity at 12 microns for the quantized inputs, from the cache if possible.
+     *
+     * @param waterVapourColumn - water vapour column
+     * @param viewZenith        - view zenith angle (degree)
+     * @param tSfc              - surface temperature
+     * @param aatsrBt12         - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators  - RTM LUT interpolators
+     * @param tLowestLayer      - temperatures of lowest atmospheric layer
+     * @return float - the emissivity, or the no-data value if the iteration did not converge
+     */
+    public float getEmissivity(float waterVapourColumn, float viewZenith, float tSfc, float aatsrBt12,
+                               RtmFunction[][] rtmInterpolators, double[] tLowestLayer) {
+        final int qWv = quantize(waterVapourColumn);
+        final int qVza = quantize(viewZenith);
+        final int qTsfc = quantize(tSfc);
+        final int qBt12 = quantize(aatsrBt12);
+        if (qWv < 0 || qVza < 0 || qTsfc < 0 || qBt12 < 0) {
+            return SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                                rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                                SnowTemperatureEmissivityRetrieval.EMISSIVITY_START, null, gradient);
+        }
+
+        final long key0 = pack(qVza, qTsfc, qBt12);
+        final long key1 = qWv;
+        final int index = getIndex(key0, key1);
+        lookups++;
+        if (emissivityKeys0[index] == key0 && emissivityKeys1[index] == key1) {
+            hits++;
+            return emissivities[index];
+        }
+        final float emissivity = SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForEmissivity(qWv * quantum, qVza * quantum, qTsfc * quantum, qBt12 * quantum,
+                                            rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                            SnowTemperatureEmissivityRetrieval.EMISSIVITY_START, null, gradient);
+        emissivityKeys0[index] = key0;
+        emissivityKeys1[index] = key1;
+        emissivities[index] = emissivity;
+        return emissivity;
+    }
+
+    /**
+     * This method retrieves surface temperature and (optionally) emissivity at 12 microns for one pixel
+     * using the cache. The iteration counts of the result are set to 0.
+     *
+     * @param waterVapourColumn  - water vapour column
+     * @param viewZenith         - view zenith angle (degree)
+     * @param aatsrBt11          - AATSR brightness temperature at 11 microns
+     * @param aatsrBt12          - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators   - RTM LUT interpolators
+     * @param tLowestLayer       - temperatures of lowest atmospheric layer
+     * @param retrieveEmissivity - if false, only the temperature is retrieved
+     * @param result             - the result to fill
+     */
+    public void retrieveTemperatureAndEmissivity(float waterVapourColumn, float viewZenith,
+                                                 float aatsrBt11, float aatsrBt12,
+                                                 RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                 boolean retrieveEmissivity, TemperatureEmissivityResult result) {
+        final float tSfc = getSurfaceTemperature(waterVapourColumn, viewZenith, aatsrBt11,
+                                                 rtmInterpolators, tLowestLayer);
+        final boolean temperatureValid = !SnowRadianceUtils.temperatureAlgoFailed(tSfc);
+        result.setTemperature(tSfc, 0, temperatureValid);
+        if (temperatureValid && retrieveEmissivity) {
+            final float emissivity = getEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                                   rtmInterpolators, tLowestLayer);
+            result.setEmissivity(emissivity, 0, !SnowRadianceUtils.emissivityAlgoFailed(emissivity));
+        }
+    }
+
+    /**
+     * @return the number of cache lookups
+     */
+    public long getLookupCount() {
+        return lookups;
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the cache hit rate, 0 if there were no lookups yet
+     */
+    public double getHitRate() {
+        return lookups > 0 ? (double) hits / lookups : 0.0;
+    }
+
+    private int quantize(float value) {
+        if (Float.isNaN(value)) {
+            return -1;
+        }
+        final long q = Math.round(value / quantum);
+        return q >= 0 && q <= MAX_QUANTIZED ? (int) q : -1;
+    }
+
+    private static long pack(int q0, int q1, int q2) {
+        return ((long) q0 << (2 * KEY_BITS)) | ((long) q1 << KEY_BITS) | q2;
+    }
+
+    private int getIndex(long key0, long key1) {
+        long h = (key0 ^ (key1 * 0x9E3779B97F4A7C15L)) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) h & mask;
+    }
+
+    private static long[] createKeys(int capacity) {
+        final long[] keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+}
@@ -0,0 +1,28 @@
+package org.esa.beam.snowradiance.operator;
+
+/**
+ * TOA brightness temperature from the RTM LUTs, as function of view zenith angle, surface temperature,
+ * emissivity and water vapour column. Implemented by the full LUT interpolators ({@link RtmInterpolator})
+ * and by LUT slices for restricted input ranges ({@link RtmSlice}).
+ */
+public interface RtmFunction {
+
+    /**
+     * @param viewZenith        - view zenith angle (degree)
+     * @param tSfc              - surface temperature
+     * @param emissivity        - emissivity
+     * @param waterVapourColumn - water vapour column
+     * @return the brightness temperature
+     */
+    double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn);
+
+    /**
+     * @param viewZenith        - view zenith angle (degree)
+     * @param tSfc              - surface temperature
+     * @param emissivity        - emissivity
+     * @param waterVapourColumn - water vapour column
+     * @param gradient          - array of length 2 receiving dBT/dTsfc and dBT/dEmissivity
+     * @return the brightness temperature
+     */
+    double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn, double[] gradient);
+}
@@ -0,0 +1,357 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.util.math.IntervalPartition;
+import org.esa.beam.util.math.LookupTable;
+
+import java.util.Arrays;
+
+/**
+ * Multilinear interpolator for a single RTM brightness temperature LUT with the fixed
+ * dimensions view zenith (VIE), surface temperature (TEM), emissivity (EMI) and water vapour (WVA).
+ * <p/>
+ * This is a specialized replacement for {@link org.esa.beam.util.math.LookupTable#getValue(double...)}
+ * in the innermost loop of the temperature and emissivity retrieval: the values are kept in one flat
+ * float array with precomputed strides, the axis index search starts from the index estimated for an
+ * equidistant axis, and no objects are allocated per call. Instances are immutable and thread safe.
+ */
+public class RtmInterpolator implements RtmFunction {
+
+    private final double[] vieAxis;
+    private final double[] temAxis;
+    private final double[] emiAxis;
+    private final double[] wvaAxis;
+
+    private final double vieInverseStep;
+    private final double temInverseStep;
+    private final double emiInverseStep;
+    private final double wvaInverseStep;
+
+    private final int vieStride;
+    private final int temStride;
+    private final int emiStride;
+
+    private final float[] values;
+
+    /**
+     * Creates the interpolator.
+     *
+     * @param vie    - the view zenith angles as stored in the LUT file (decreasing)
+     * @param tem    - the surface temperatures (increasing)
+     * @param emi    - the emissivities (increasing)
+     * @param wva    - the water vapour columns (increasing)
+     * @param values - the brightness temperatures, ordered [VIE][TEM][EMI][WVA]
+     */
+    public RtmInterpolator(float[] vie, float[] tem, float[] emi, float[] wva, float[] values) {
+        this(toAxis(negate(vie)), toAxis(tem), toAxis(emi), toAxis(wva), values.clone());
+    }
+
+    private RtmInterpolator(double[] vieAxis, double[] temAxis, double[] emiAxis, double[] wvaAxis, float[] values) {
+        if (values.length != vieAxis.length * temAxis.length * emiAxis.length * wvaAxis.length) {
+            throw new IllegalArgumentException("Number of values does not match axis lengths.");
+        }
+        this.vieAxis = vieAxis;
+        this.temAxis = temAxis;
+        this.emiAxis = emiAxis;
+        this.wvaAxis = wvaAxis;
+
+        vieInverseStep = getInverseStep(vieAxis);
+        temInverseStep = getInverseStep(temAxis);
+        emiInverseStep = getInverseStep(emiAxis);
+        wvaInverseStep = getInverseStep(wvaAxis);
+
+        emiStride = wvaAxis.length;
+        temStride = emiAxis.length * emiStride;
+        vieStride = temAxis.length * temStride;
+
+        this.values = values;
+    }
+
+    /**
+     * This method merges the interpolators of all atmospheric profiles for one wavelength into a single
+     * interpolator which gives the profile-blended brightness temperature of
+     * {@link SnowTemperatureEmissivityRetrieval#getToaBTFromRtm(float, float, float, float, int, RtmFunction[][], double[])}
+     * with one lookup.
+     * The blending weights depend on the surface temperature only, so the blended values are computed on the
+     * TEM axis, extended by the lowest layer temperatures of the profiles (where the blending has kinks) and
+     * refined by the given factor (the blended values are not linear in TEM within a cell).
+     *
+     * @param rtmInterpolators - the interpolators [profile][wavelength], all with the same axes
+     * @param tLowestLayer     - temperatures of lowest atmospheric layer
+     * @param iwvl             - AATSR wavelength index
+     * @param temRefinement    - number of sub-intervals per TEM interval
+     * @return the blended interpolator
+     */
+    public static RtmInterpolator createBlended(RtmInterpolator[][] rtmInterpolators, double[] tLowestLayer,
+                                                int iwvl, int temRefinement) {
+        final RtmInterpolator first = rtmInterpolators[0][iwvl];
+        for (RtmInterpolator[] profileInterpolators : rtmInterpolators) {
+            final RtmInterpolator other = profileInterpolators[iwvl];
+            if (!Arrays.equals(first.vieAxis, other.vieAxis) || !Arrays.equals(first.temAxis, other.temAxis) ||
+                !Arrays.equals(first.emiAxis, other.emiAxis) || !Arrays.equals(first.wvaAxis, other.wvaAxis)) {
+                throw new IllegalArgumentException("Profile LUTs must have the same axes.");
+            }
+        }
+
+        final double[] temAxis = createBlendedTemAxis(first.temAxis, tLowestLayer, temRefinement);
+        final double[] vieAxis = first.vieAxis;
+        final double[] emiAxis = first.emiAxis;
+        final double[] wvaAxis = first.wvaAxis;
+
+        final float[] values = new float[vieAxis.length * temAxis.length * emiAxis.length * wvaAxis.length];
+        final float[] temSamples = new float[temAxis.length];
+        for (int i = 0; i < temAxis.length; i++) {
+            temSamples[i] = (float) temAxis[i];
+            for (double t : tLowestLayer) {
+                if (temSamples[i] == (float) t) {
+                    // the profile search does not bracket a temperature equal to a lowest layer temperature,
+                    // so take the limit from above, where the blending is continuous
+                    temSamples[i] = Math.nextUp(temSamples[i]);
+                }
+            }
+        }
+
+        int index = 0;
+        for (double vie : vieAxis) {
+            for (float tem : temSamples) {
+                for (double emi : emiAxis) {
+                    for (double wva : wvaAxis) {
+                        values[index++] = SnowTemperatureEmissivityRetrieval.
+                                getToaBTFromRtm((float) wva, (float) emi, tem, (float) -vie, iwvl,
+                                                rtmInterpolators, tLowestLayer);
+                    }
+                }
+            }
+        }
+        return new RtmInterpolator(vieAxis, temAxis, emiAxis, wvaAxis, values);
+    }
+
+    private static double[] createBlendedTemAxis(double[] temAxis, double[] tLowestLayer, int temRefinement) {
+        final double[] nodes = new double[temAxis.length + tLowestLayer.length];
+        int numNodes = 0;
+        for (double tem : temAxis) {
+            nodes[numNodes++] = tem;
+        }
+        for (double t : tLowestLayer) {
+            // LUT coordinates are floats
+            final double tem = (float) t;
+            if (tem > temAxis[0] && tem < temAxis[temAxis.length - 1] && Arrays.binarySearch(temAxis, tem) < 0) {
+                nodes[numNodes++] = tem;
+            }
+        }
+        Arrays.sort(nodes, 0, numNodes);
+
+        final double[] refinedAxis = new double[(numNodes - 1) * temRefinement + 1];
+        int index = 0;
+        for (int i = 0; i < numNodes - 1; i++) {
+            final double step = (nodes[i + 1] - nodes[i]) / temRefinement;
+            for (int j = 0; j < temRefinement; j++) {
+                refinedAxis[index++] = j == 0 ? nodes[i] : (float) (nodes[i] + j * step);
+            }
+        }
+        refinedAxis[index] = nodes[numNodes - 1];
+        return refinedAxis;
+    }
+
+    /**
+     * This method interpolates the TOA brightness temperature.
+     * Coordinates outside the LUT range are clamped to the range.
+     *
+     * @param viewZenith        - view zenith angle (degree)
+     * @param tSfc              - surface temperature
+     * @param emissivity        - emissivity
+     * @param waterVapourColumn - water vapour column
+     * @return the brightness temperature
+     */
+    public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn) {
+        final double vie = -viewZenith;
+        final int i0 = findIndex(vieAxis, vieInverseStep, vie);
+        final int i1 = findIndex(temAxis, temInverseStep, tSfc);
+        final int i2 = findIndex(emiAxis, emiInverseStep, emissivity);
+        final int i3 = findIndex(wvaAxis, wvaInverseStep, waterVapourColumn);
+        final double f0 = getFraction(vieAxis, i0, vie);
+        final double f1 = getFraction(temAxis, i1, tSfc);
+        final double f2 = getFraction(emiAxis, i2, emissivity);
+        final double f3 = getFraction(wvaAxis, i3, waterVapourColumn);
+
+        final int origin = i0 * vieStride + i1 * temStride + i2 * emiStride + i3;
+        final double v0 = interpolateTem(origin, f1, f2, f3);
+        final double v1 = interpolateTem(origin + vieStride, f1, f2, f3);
+        return v0 + f0 * (v1 - v0);
+    }
+
+    /**
+     * This method interpolates the TOA brightness temperature together with its partial derivatives
+     * with respect to surface temperature and emissivity. The derivatives are taken from the same
+     * interpolation cell as the value. For coordinates outside the LUT range they are the slopes
+     * of the nearest cell.
+     *
+     * @param viewZenith        - view zenith angle (degree)
+     * @param tSfc              - surface temperature
+     * @param emissivity        - emissivity
+     * @param waterVapourColumn - water vapour column
+     * @param gradient          - array of length 2 receiving dBT/dTsfc and dBT/dEmissivity
+     * @return the brightness temperature
+     */
+    public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn,
+                           double[] gradient) {
+        final double vie = -viewZenith;
+        final int i0 = findIndex(vieAxis, vieInverseStep, vie);
+        final int i1 = findIndex(temAxis, temInverseStep, tSfc);
+        final int i2 = findIndex(emiAxis, emiInverseStep, emissivity);
+        final int i3 = findIndex(wvaAxis, wvaInverseStep, waterVapourColumn);
+        final double f0 = getFraction(vieAxis, i0, vie);
+        final double f1 = getFraction(temAxis, i1, tSfc);
+        final double f2 = getFraction(emiAxis, i2, emissivity);
+        final double f3 = getFraction(wvaAxis, i3, waterVapourColumn);
+
+        final int origin = i0 * vieStride + i1 * temStride + i2 * emiStride + i3;
+
+        // cell edges along EMI for each (VIE, TEM) corner, interpolated in WVA
+        final double e000 = interpolateWva(origin, f3);
+        final double e001 = interpolateWva(origin + emiStride, f3);
+        final double e010 = interpolateWva(origin + temStride, f3);
+        final double e011 = interpolateWva(origin + temStride + emiStride, f3);
+        final double e100 = interpolateWva(origin + vieStride, f3);
+        final double e101 = interpolateWva(origin + vieStride + emiStride, f3);
+        final double e110 = interpolateWva(origin + vieStride + temStride, f3);
+        final double e111 = interpolateWva(origin + vieStride + temStride + emiStride, f3);
+
+        final double dw00 = e001 - e000;
+        final double dw01 = e011 - e010;
+        final double dw10 = e101 - e100;
+        final double dw11 = e111 - e110;
+        final double w00 = e000 + f2 * dw00;
+        final double w01 = e010 + f2 * dw01;
+        final double w10 = e100 + f2 * dw10;
+        final double w11 = e110 + f2 * dw11;
+
+        final double t0 = w00 + f1 * (w01 - w00);
+        final double t1 = w10 + f1 * (w11 - w10);
+        final double dt0dTem = w01 - w00;
+        final double dt1dTem = w11 - w10;
+        final double dt0dEmi = dw00 + f1 * (dw01 - dw00);
+        final double dt1dEmi = dw10 + f1 * (dw11 - dw10);
+
+        gradient[0] = (dt0dTem + f0 * (dt1dTem - dt0dTem)) / (temAxis[i1 + 1] - temAxis[i1]);
+        gradient[1] = (dt0dEmi + f0 * (dt1dEmi - dt0dEmi)) / (emiAxis[i2 + 1] - emiAxis[i2]);
+
+        return t0 + f0 * (t1 - t0);
+    }
+
+    /**
+     * This method creates a slice of this LUT for the given view zenith range and water vapour column.
+     *
+     * @param minViewZenith     - minimum view zenith angle (degree)
+     * @param maxViewZenith     - maximum view zenith angle (degree)
+     * @param waterVapourColumn - water vapour column
+     * @return RtmSlice
+     */
+    public RtmSlice createSlice(double minViewZenith, double maxViewZenith, float waterVapourColumn) {
+        // VIE axis holds negative view zenith angles
+        final int vieStart = findIndex(vieAxis, vieInverseStep, -maxViewZenith);
+        final int vieEnd = findIndex(vieAxis, vieInverseStep, -minViewZenith) + 1;
+        final double[] sliceVieAxis = new double[vieEnd - vieStart + 1];
+        System.arraycopy(vieAxis, vieStart, sliceVieAxis, 0, sliceVieAxis.length);
+
+        final int i3 = findIndex(wvaAxis, wvaInverseStep, waterVapourColumn);
+        final double f3 = getFraction(wvaAxis, i3, waterVapourColumn);
+
+        final double[] sliceValues = new double[sliceVieAxis.length * temAxis.length * emiAxis.length];
+        int index = 0;
+        for (int i0 = vieStart; i0 <= vieEnd; i0++) {
+            for (int i1 = 0; i1 < temAxis.length; i1++) {
+                for (int i2 = 0; i2 < emiAxis.length; i2++) {
+                    sliceValues[index++] = interpolateWva(i0 * vieStride + i1 * temStride + i2 * emiStride + i3, f3);
+                }
+            }
+        }
+        return new RtmSlice(sliceVieAxis, temAxis, emiAxis, sliceValues, waterVapourColumn);
+    }
+
+    /**
+     * This method creates the equivalent {@link LookupTable} with dimensions VIE, TEM, EMI, WVA,
+     * the VIE axis holding the negated view zenith angles.
+     *
+     * @return LookupTable
+     */
+    public LookupTable createLookupTable() {
+        final IntervalPartition[] dimensions = IntervalPartition.createArray(vieAxis, temAxis, emiAxis, wvaAxis);
+        return new LookupTable(values.clone(), dimensions);
+    }
+
+    private double interpolateTem(int origin, double f1, double f2, double f3) {
+        final double v0 = interpolateEmi(origin, f2, f3);
+        final double v1 = interpolateEmi(origin + temStride, f2, f3);
+        return v0 + f1 * (v1 - v0);
+    }
+
+    private double interpolateEmi(int origin, double f2, double f3) {
+        final double v0 = interpolateWva(origin, f3);
+        final double v1 = interpolateWva(origin + emiStride, f3);
+        return v0 + f2 * (v1 - v0);
+    }
+
+    private double interpolateWva(int origin, double f3) {
+        final double v0 = values[origin];
+        final double v1 = values[origin + 1];
+        return v0 + f3 * (v1 - v0);
+    }
+
+    // returns the lower index i of the axis interval containing the coordinate, i.e. axis[i] <= c < axis[i+1],
+    // in [0, n-2], like the binary search of LookupTable.computeFracIndex
+    static int findIndex(double[] axis, double inverseStep, double coordinate) {
+        final int maxIndex = axis.length - 2;
+        int i = (int) ((coordinate - axis[0]) * inverseStep);
+        if (i < 0 || coordinate < axis[0]) {
+            return 0;
+        }
+        if (i > maxIndex) {
+            i = maxIndex;
+        }
+        // correct the estimate for non-equidistant axes
+        while (i > 0 && coordinate < axis[i]) {
+            i--;
+        }
+        while (i < maxIndex && coordinate >= axis[i + 1]) {
+            i++;
+        }
+        return i;
+    }
+
+    static double getFraction(double[] axis, int i, double coordinate) {
+        final double f = (coordinate - axis[i]) / (axis[i + 1] - axis[i]);
+        if (f < 0.0) {
+            return 0.0;
+        } else if (f > 1.0) {
+            return 1.0;
+        }
+        return f;
+    }
+
+    private static float[] negate(float[] sequence) {
+        final float[] negativeSequence = new float[sequence.length];
+        for (int i = 0; i < sequence.length; i++) {
+            // take negative value to get increasing sequence, as for the LookupTable
+            negativeSequence[i] = -sequence[i];
+        }
+        return negativeSequence;
+    }
+
+    private static double[] toAxis(float[] sequence) {
+        if (sequence.length < 2) {
+            throw new IllegalArgumentException("Axis must have at least two values.");
+        }
+        final double[] axis = new double[sequence.length];
+        for (int i = 0; i < sequence.length; i++) {
+            axis[i] = sequence[i];
+            if (i > 0 && !(axis[i] > axis[i - 1])) {
+                throw new IllegalArgumentException("Axis values must be strictly increasing.");
+            }
+        }
+        return axis;
+    }
+
+    static double getInverseStep(double[] axis) {
+        return (axis.length - 1) / (axis[axis.length - 1] - axis[0]);
+    }
+}
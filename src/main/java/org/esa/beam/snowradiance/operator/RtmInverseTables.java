@@ -0,0 +1,361 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.snowradiance.util.SnowRadianceUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Inverse RTM tables for snow temperature and emissivity retrieval.
+ * <p/>
+ * With fixed water vapour column and fixed emissivity at 11 microns, the retrieved surface temperature
+ * depends only on (BT11, view zenith), and the retrieved emissivity only on (Tsfc, BT12, view zenith).
+ * These tables hold the Newton solutions on regular grids of these inputs and are evaluated by
+ * bi-/trilinear interpolation. The Newton solvers in {@link SnowTemperatureEmissivityRetrieval}
+ * remain the reference: they are used as fallback for inputs outside the grids, and for grid cells
+ * in which the Newton iteration failed at any node.
+ * <p/>
+ * The tables are built once per parameter set and JVM, and can optionally be persisted to a file.
+ */
+public class RtmInverseTables {
+
+    private static final int FILE_MAGIC = 0x53524954; // 'SRIT'
+    private static final int FILE_VERSION = 1;
+
+    // view zenith grids (degree)
+    private static final float VZA_MIN = 0.0f;
+    private static final float TEMPERATURE_VZA_STEP = 1.0f;
+    private static final int TEMPERATURE_VZA_COUNT = 56;
+    private static final float EMISSIVITY_VZA_STEP = 5.0f;
+    private static final int EMISSIVITY_VZA_COUNT = 12;
+
+    // brightness temperature grids (K)
+    private static final float BT_MIN = 200.0f;
+    private static final float BT11_STEP = 0.2f;
+    private static final int BT11_COUNT = 501;
+    private static final float BT12_STEP = 0.5f;
+    private static final int BT12_COUNT = 201;
+
+    // surface temperature grid (K)
+    private static final float TSFC_STEP = 0.25f;
+    private static final int TSFC_COUNT = 125;
+
+    private static final Map<String, SoftReference<RtmInverseTables>> instances =
+            new HashMap<String, SoftReference<RtmInverseTables>>();
+
+    private final String key;
+    private final float[] temperatureTable;  // [VZA][BT11]
+    private final float[] emissivityTable;   // [VZA][TSFC][BT12]
+
+    private final double assumedEmissivityAt11Microns;
+    private final float waterVapourColumn;
+    private final boolean analyticalDerivative;
+    private final RtmInterpolator[][] rtmInterpolators;
+    private final double[] tLowestLayer;
+
+    private RtmInverseTables(String key, float[] temperatureTable, float[] emissivityTable,
+                             double assumedEmissivityAt11Microns, float waterVapourColumn,
+                             boolean analyticalDerivative, RtmInterpolator[][] rtmInterpolators,
+                             double[] tLowestLayer) {
+        this.key = key;
+        this.temperatureTable = temperatureTable;
+        this.emissivityTable = emissivityTable;
+        this.assumedEmissivityAt11Microns = assumedEmissivityAt11Microns;
+        this.waterVapourColumn = waterVapourColumn;
+        this.analyticalDerivative = analyticalDerivative;
+        this.rtmInterpolators = rtmInterpolators;
+        this.tLowestLayer = tLowestLayer;
+    }
+
+    /**
+     * This method provides the inverse tables for the given parameter set. The tables are taken from
+     * memory if they were already built in this JVM, otherwise read from the given file if it holds
+     * tables for the same parameter set, otherwise built and written to the given file. If the file
+     * cannot be written, the tables are kept in memory only.
+     *
+     * @param rtmInterpolators             - RTM LUT interpolators, per profile or blended
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param analyticalDerivative         - Newton solver mode used to build the tables
+     * @param file                         - file to persist the tables, may be null
+     * @return RtmInverseTables
+     */
+    public static RtmInverseTables getInstance(RtmInterpolator[][] rtmInterpolators, double[] tLowestLayer,
+                                               double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                               boolean analyticalDerivative, File file) {
+        final String key = createKey(rtmInterpolators, assumedEmissivityAt11Microns, waterVapourColumn,
+                                     analyticalDerivative);
+        synchronized (instances) {
+            final SoftReference<RtmInverseTables> reference = instances.get(key);
+            RtmInverseTables inverseTables = reference != null ? reference.get() : null;
+            if (inverseTables == null) {
+                inverseTables = read(file, key, rtmInterpolators, tLowestLayer, assumedEmissivityAt11Microns,
+                                     waterVapourColumn, analyticalDerivative);
+            }
+            if (inverseTables == null) {
+                inverseTables = create(rtmInterpolators, tLowestLayer, assumedEmissivityAt11Microns,
+                                       waterVapourColumn, analyticalDerivative);
+                if (file != null) {
+                    try {
+                        inverseTables.write(file);
+                    } catch (IOException e) {
+                        // keep the tables in memory only, they are rebuilt in the next JVM
+                    }
+                }
+            }
+            instances.put(key, new SoftReference<RtmInverseTables>(inverseTables));
+            return inverseTables;
+        }
+    }
+
+    static void clearInstances() {
+        synchronized (instances) {
+            instances.clear();
+        }
+    }
+
+    /**
+     * This method builds the inverse tables by Newton iteration on the grid nodes.
+     *
+     * @param rtmInterpolators             - RTM LUT interpolators, per profile or blended
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param analyticalDerivative         - Newton solver mode
+     * @return RtmInverseTables
+     */
+    public static RtmInverseTables create(RtmInterpolator[][] rtmInterpolators, double[] tLowestLayer,
+                                          double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                          boolean analyticalDerivative) {
+
+        final double[] gradient = new double[2];
+        final float[] temperatureTable = new float[TEMPERATURE_VZA_COUNT * BT11_COUNT];
+        int index = 0;
+        for (int i = 0; i < TEMPERATURE_VZA_COUNT; i++) {
+            final float viewZenith = VZA_MIN + i * TEMPERATURE_VZA_STEP;
+            for (int j = 0; j < BT11_COUNT; j++) {
+                final float bt11 = BT_MIN + j * BT11_STEP;
+                temperatureTable[index++] = SnowTemperatureEmissivityRetrieval.
+                        minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith,
+                                                     bt11, rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                                     bt11 + 0.5f, null, gradient);
+            }
+        }
+
+        final float[] emissivityTable = new float[EMISSIVITY_VZA_COUNT * TSFC_COUNT * BT12_COUNT];
+        index = 0;
+        for (int i = 0; i < EMISSIVITY_VZA_COUNT; i++) {
+            final float viewZenith = VZA_MIN + i * EMISSIVITY_VZA_STEP;
+            for (int j = 0; j < TSFC_COUNT; j++) {
+                final float tSfc = SnowRadianceConstants.TSFC_MIN + j * TSFC_STEP;
+                for (int k = 0; k < BT12_COUNT; k++) {
+                    final float bt12 = BT_MIN + k * BT12_STEP;
+                    emissivityTable[index++] = SnowTemperatureEmissivityRetrieval.
+                            minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, bt12,
+                                                        rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                                        SnowTemperatureEmissivityRetrieval.EMISSIVITY_START,
+                                                        null, gradient);
+                }
+            }
+        }
+
+        return new RtmInverseTables(createKey(rtmInterpolators, assumedEmissivityAt11Microns, waterVapourColumn,
+                                              analyticalDerivative),
+                                    temperatureTable, emissivityTable, assumedEmissivityAt11Microns,
+                                    waterVapourColumn, analyticalDerivative, rtmInterpolators, tLowestLayer);
+    }
+
+    /**
+     * This method retrieves surface temperature and (optionally) emissivity at 12 microns for one pixel.
+     *
+     * @param viewZenith         - view zenith angle (degree)
+     * @param aatsrBt11          - AATSR brightness temperature at 11 microns
+     * @param aatsrBt12          - AATSR brightness temperature at 12 microns
+     * @param retrieveEmissivity - if false, only the temperature is retrieved
+     * @param result             - the result to fill
+     */
+    public void retrieveTemperatureAndEmissivity(float viewZenith, float aatsrBt11, float aatsrBt12,
+                                                 boolean retrieveEmissivity, TemperatureEmissivityResult result) {
+        final float tSfc = getSurfaceTemperature(viewZenith, aatsrBt11);
+        final boolean temperatureValid = !SnowRadianceUtils.temperatureAlgoFailed(tSfc);
+        result.setTemperature(tSfc, 0, temperatureValid);
+        if (temperatureValid && retrieveEmissivity) {
+            final float emissivity = getEmissivity(viewZenith, tSfc, aatsrBt12);
+            result.setEmissivity(emissivity, 0, !SnowRadianceUtils.emissivityAlgoFailed(emissivity));
+        }
+    }
+
+    /**
+     * This method retrieves the surface temperature.
+     *
+     * @param viewZenith - view zenith angle (degree)
+     * @param aatsrBt11  - AATSR brightness temperature at 11 microns
+     * @return float - the surface temperature, or the no-data value if the retrieval failed
+     */
+    public float getSurfaceTemperature(float viewZenith, float aatsrBt11) {
+        final double x = (viewZenith - VZA_MIN) / TEMPERATURE_VZA_STEP;
+        final double y = (aatsrBt11 - BT_MIN) / BT11_STEP;
+        if (isInside(x, TEMPERATURE_VZA_COUNT) && isInside(y, BT11_COUNT)) {
+            final int i = Math.min((int) x, TEMPERATURE_VZA_COUNT - 2);
+            final int j = Math.min((int) y, BT11_COUNT - 2);
+            final int origin = i * BT11_COUNT + j;
+            final float t00 = temperatureTable[origin];
+            final float t01 = temperatureTable[origin + 1];
+            final float t10 = temperatureTable[origin + BT11_COUNT];
+            final float t11 = temperatureTable[origin + BT11_COUNT + 1];
+            if (t00 >= 0.0f && t01 >= 0.0f && t10 >= 0.0f && t11 >= 0.0f) {
+                final double fx = x - i;
+                final double fy = y - j;
+                final double t0 = t00 + fy * (t01 - t00);
+                final double t1 = t10 + fy * (t11 - t10);
+                return (float) (t0 + fx * (t1 - t0));
+            }
+        }
+        return SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11,
+                                             rtmInterpolators, tLowestLayer, analyticalDerivative);
+    }
+
+    /**
+     * This method retrieves the emissivity at 12 microns.
+     *
+     * @param viewZenith - view zenith angle (degree)
+     * @param tSfc       - surface temperature
+     * @param aatsrBt12  - AATSR brightness temperature at 12 microns
+     * @return float - the emissivity, or the no-data value if the retrieval failed
+     */
+    public float getEmissivity(float viewZenith, float tSfc, float aatsrBt12) {
+        final double x = (viewZenith - VZA_MIN) / EMISSIVITY_VZA_STEP;
+        final double y = (tSfc - SnowRadianceConstants.TSFC_MIN) / TSFC_STEP;
+        final double z = (aatsrBt12 - BT_MIN) / BT12_STEP;
+        if (isInside(x, EMISSIVITY_VZA_COUNT) && isInside(y, TSFC_COUNT) && isInside(z, BT12_COUNT)) {
+            final int i = Math.min((int) x, EMISSIVITY_VZA_COUNT - 2);
+            final int j = Math.min((int) y, TSFC_COUNT - 2);
+            final int k = Math.min((int) z, BT12_COUNT - 2);
+            final int strideX = TSFC_COUNT * BT12_COUNT;
+            final int origin = i * strideX + j * BT12_COUNT + k;
+            final float e000 = emissivityTable[origin];
+            final float e001 = emissivityTable[origin + 1];
+            final float e010 = emissivityTable[origin + BT12_COUNT];
+            final float e011 = emissivityTable[origin + BT12_COUNT + 1];
+            final float e100 = emissivityTable[origin + strideX];
+            final float e101 = emissivityTable[origin + strideX + 1];
+            final float e110 = emissivityTable[origin + strideX + BT12_COUNT];
+            final float e111 = emissivityTable[origin + strideX + BT12_COUNT + 1];
+            if (e000 >= 0.0f && e001 >= 0.0f && e010 >= 0.0f && e011 >= 0.0f &&
+                e100 >= 0.0f && e101 >= 0.0f && e110 >= 0.0f && e111 >= 0.0f) {
+                final double fx = x - i;
+                final double fy = y - j;
+                final double fz = z - k;
+                final double e00 = e000 + fz * (e001 - e000);
+                final double e01 = e010 + fz * (e011 - e010);
+                final double e10 = e100 + fz * (e101 - e100);
+                final double e11 = e110 + fz * (e111 - e110);
+                final double e0 = e00 + fy * (e01 - e00);
+                final double e1 = e10 + fy * (e11 - e10);
+                return (float) (e0 + fx * (e1 - e0));
+            }
+        }
+        return SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                            rtmInterpolators, tLowestLayer, analyticalDerivative);
+    }
+
+    private static boolean isInside(double gridCoordinate, int count) {
+        return gridCoordinate >= 0.0 && gridCoordinate <= count - 1;
+    }
+
+    static String createKey(RtmInterpolator[][] rtmInterpolators, double assumedEmissivityAt11Microns,
+                            float waterVapourColumn, boolean analyticalDerivative) {
+        // blended interpolators come as a single 'profile'
+        return SnowRadianceAuxData.RTM_LUT_SET_NAME + "-" + SnowRadianceAuxData.RTM_LUT_VERSION +
+               ";grid=" + FILE_VERSION +
+               ";blended=" + (rtmInterpolators.length == 1) +
+               ";emi11=" + assumedEmissivityAt11Microns +
+               ";wv=" + waterVapourColumn +
+               ";analytical=" + analyticalDerivative;
+    }
+
+    private void write(File file) throws IOException {
+        // write to a temporary file first, so that concurrent readers never see a partial file
+        final File parentDir = file.getAbsoluteFile().getParentFile();
+        if (parentDir != null && !parentDir.isDirectory() && !parentDir.mkdirs()) {
+            throw new IOException("Cannot create directory " + parentDir);
+        }
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream outputStream =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            outputStream.writeInt(FILE_MAGIC);
+            outputStream.writeUTF(key);
+            writeFloats(outputStream, temperatureTable);
+            writeFloats(outputStream, emissivityTable);
+        } finally {
+            outputStream.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace " + file);
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Cannot write " + file);
+        }
+    }
+
+    // returns null if the file does not exist, is invalid, or holds tables for another parameter set
+    private static RtmInverseTables read(File file, String key, RtmInterpolator[][] rtmInterpolators,
+                                         double[] tLowestLayer, double assumedEmissivityAt11Microns,
+                                         float waterVapourColumn, boolean analyticalDerivative) {
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream inputStream =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (inputStream.readInt() != FILE_MAGIC || !key.equals(inputStream.readUTF())) {
+                    return null;
+                }
+                final float[] temperatureTable = readFloats(inputStream, TEMPERATURE_VZA_COUNT * BT11_COUNT);
+                final float[] emissivityTable = readFloats(inputStream,
+                                                           EMISSIVITY_VZA_COUNT * TSFC_COUNT * BT12_COUNT);
+                return new RtmInverseTables(key, temperatureTable, emissivityTable,
+                                            assumedEmissivityAt11Microns, waterVapourColumn, analyticalDerivative,
+                                            rtmInterpolators, tLowestLayer);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            // rebuild the tables
+            return null;
+        }
+    }
+
+    private static void writeFloats(DataOutputStream outputStream, float[] floats) throws IOException {
+        outputStream.writeInt(floats.length);
+        for (float value : floats) {
+            outputStream.writeFloat(value);
+        }
+    }
+
+    private static float[] readFloats(DataInputStream inputStream, int expectedLength) throws IOException {
+        final int length = inputStream.readInt();
+        if (length != expectedLength) {
+            throw new IOException("Unexpected table size: " + length);
+        }
+        final float[] floats = new float[length];
+        for (int i = 0; i < length; i++) {
+            floats[i] = inputStream.readFloat();
+        }
+        return floats;
+    }
+}
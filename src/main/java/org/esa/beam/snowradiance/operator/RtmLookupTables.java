@@ -0,0 +1,118 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.util.math.LookupTable;
+
+/**
+ * Container for the RTM lookup tables used in snow temperature and emissivity retrieval:
+ * the TOA brightness temperature tables and the temperature profiles, for each
+ * atmospheric profile and AATSR wavelength.
+ * Instances are thread safe and may be shared between threads and operator instances.
+ */
+public class RtmLookupTables {
+
+    /**
+     * maximum deviation (K) of the blended interpolators from the per-profile blending
+     */
+    static final double BLENDED_MAX_DEVIATION = 2.E-4;
+    // number of sub-intervals per TEM interval in the blended interpolators, keeps them within BLENDED_MAX_DEVIATION
+    private static final int BLENDED_TEM_REFINEMENT = 4;
+
+    private final RtmInterpolator[][] rtmInterpolators;
+    private final double[][][] tsfcLut;
+    private final double[] tLowestLayer;
+
+    // created on first request
+    private RtmInterpolator[] blendedRtmInterpolators;
+
+    /**
+     * Creates the container.
+     *
+     * @param rtmInterpolators - the brightness temperature interpolators [profile][wavelength]
+     * @param tsfcLut          - the temperature profiles [profile][wavelength][level]
+     */
+    public RtmLookupTables(RtmInterpolator[][] rtmInterpolators, double[][][] tsfcLut) {
+        this.rtmInterpolators = new RtmInterpolator[rtmInterpolators.length][];
+        for (int i = 0; i < rtmInterpolators.length; i++) {
+            this.rtmInterpolators[i] = rtmInterpolators[i].clone();
+        }
+        this.tsfcLut = copyOf(tsfcLut);
+        tLowestLayer = new double[SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES];
+        for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
+            tLowestLayer[i] = tsfcLut[i][0][SnowRadianceConstants.NUMBER_TSFC_LUT - 1];
+        }
+    }
+
+    /**
+     * Creates the brightness temperature LUTs from the interpolators, on each call.
+     *
+     * @return the brightness temperature LUTs [profile][wavelength]
+     * @deprecated use the interpolators from {@link #getRtmInterpolators()}
+     */
+    @Deprecated
+    public LookupTable[][] getRtmLookupTables() {
+        final LookupTable[][] rtmLookupTables = new LookupTable[rtmInterpolators.length][];
+        for (int i = 0; i < rtmInterpolators.length; i++) {
+            rtmLookupTables[i] = new LookupTable[rtmInterpolators[i].length];
+            for (int j = 0; j < rtmInterpolators[i].length; j++) {
+                rtmLookupTables[i][j] = rtmInterpolators[i][j].createLookupTable();
+            }
+        }
+        return rtmLookupTables;
+    }
+
+    /**
+     * @return the brightness temperature interpolators [profile][wavelength]
+     */
+    public RtmInterpolator[][] getRtmInterpolators() {
+        final RtmInterpolator[][] copy = new RtmInterpolator[rtmInterpolators.length][];
+        for (int i = 0; i < rtmInterpolators.length; i++) {
+            copy[i] = rtmInterpolators[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Provides the brightness temperature interpolators with the atmospheric profiles merged, i.e. with the
+     * profile blending already applied. These can be passed to the retrieval methods of
+     * {@link SnowTemperatureEmissivityRetrieval} instead of the per-profile interpolators, so that each
+     * RTM evaluation is a single lookup. The brightness temperatures agree with the per-profile blending
+     * within {@link #BLENDED_MAX_DEVIATION}. The blended interpolators are created on the first call.
+     *
+     * @return the blended brightness temperature interpolators [1][wavelength]
+     */
+    public synchronized RtmInterpolator[][] getBlendedRtmInterpolators() {
+        if (blendedRtmInterpolators == null) {
+            blendedRtmInterpolators = new RtmInterpolator[rtmInterpolators[0].length];
+            for (int j = 0; j < blendedRtmInterpolators.length; j++) {
+                blendedRtmInterpolators[j] = RtmInterpolator.createBlended(rtmInterpolators, tLowestLayer, j,
+                                                                           BLENDED_TEM_REFINEMENT);
+            }
+        }
+        return new RtmInterpolator[][]{blendedRtmInterpolators.clone()};
+    }
+
+    /**
+     * @return the temperature profiles [profile][wavelength][level]
+     */
+    public double[][][] getTsfcLut() {
+        return copyOf(tsfcLut);
+    }
+
+    /**
+     * @return the temperature of the lowest atmospheric layer for each profile
+     */
+    public double[] getTLowestLayer() {
+        return tLowestLayer.clone();
+    }
+
+    private static double[][][] copyOf(double[][][] array) {
+        final double[][][] copy = new double[array.length][][];
+        for (int i = 0; i < array.length; i++) {
+            copy[i] = new double[array[i].length][];
+            for (int j = 0; j < array[i].length; j++) {
+                copy[i][j] = array[i][j].clone();
+            }
+        }
+        return copy;
+    }
+}
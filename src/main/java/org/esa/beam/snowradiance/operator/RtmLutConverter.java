@@ -0,0 +1,63 @@
+package org.esa.beam.snowradiance.operator;
+
+import ucar.nc2.NetcdfFile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts the RTM LUT netcdf files into the compact binary format read by {@link SnowRadianceAuxData}
+ * (see {@link RtmLutFile}). This is run as part of the build.
+ * <p/>
+ * Usage: {@code RtmLutConverter <sourceDir> <targetDir>}
+ */
+public class RtmLutConverter {
+
+    public static void main(String[] args) throws IOException {
+        // runs within the Maven JVM, so fail with an exception rather than exiting
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: RtmLutConverter <sourceDir> <targetDir>");
+        }
+        final File sourceDir = new File(args[0]);
+        final File targetDir = new File(args[1]);
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) {
+            throw new IOException("Cannot create directory " + targetDir);
+        }
+
+        for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
+            for (int j = 0; j < SnowRadianceConstants.NUMBER_AATSR_WVL; j++) {
+                final String lutName = SnowRadianceAuxData.getRtmLutName(i, j);
+                final File sourceFile = new File(sourceDir, lutName + RtmLutFile.NETCDF_FILE_EXTENSION);
+                final File targetFile = new File(targetDir, lutName + RtmLutFile.BINARY_FILE_EXTENSION);
+                convert(sourceFile, targetFile);
+            }
+        }
+    }
+
+    /**
+     * This method converts a single RTM LUT netcdf file into the binary format.
+     *
+     * @param sourceFile - the netcdf file
+     * @param targetFile - the binary file
+     * @throws IOException
+     */
+    public static void convert(File sourceFile, File targetFile) throws IOException {
+        final RtmLutFile rtmLutFile;
+        final NetcdfFile netcdfFile = NetcdfFile.open(sourceFile.getPath());
+        try {
+            rtmLutFile = RtmLutFile.readNetcdf(netcdfFile);
+        } finally {
+            netcdfFile.close();
+        }
+
+        final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(targetFile));
+        try {
+            rtmLutFile.writeBinary(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.util.math.IntervalPartition;
+import org.esa.beam.util.math.LookupTable;
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Content of a single RTM LUT file (one atmospheric profile and AATSR wavelength), as read
+ * either from the original netcdf file or from the compact binary format generated from it.
+ * <p/>
+ * The binary format is little-endian and consists of
+ * <ul>
+ * <li>a header: magic number, format version, and the lengths of the VIE, TEM, EMI, WVA and TMP arrays</li>
+ * <li>the axis arrays VIE, TEM, EMI, WVA (float)</li>
+ * <li>the brightness temperatures MT, ordered [VIE][TEM][EMI][WVA] (float)</li>
+ * <li>the temperature profile TMP (float)</li>
+ * <li>a CRC32 checksum of all preceding bytes (long)</li>
+ * </ul>
+ */
+public class RtmLutFile {
+
+    public static final String NETCDF_FILE_EXTENSION = ".nc";
+    public static final String BINARY_FILE_EXTENSION = ".lut";
+
+    private static final int MAGIC = 0x554c5253; // 'SRLU'
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 7 * 4;
+    private static final int CHECKSUM_SIZE = 8;
+
+    private final float[] vie;
+    private final float[] tem;
+    private final float[] emi;
+    private final float[] wva;
+    private final float[] mt;
+    private final float[] tmp;
+
+    RtmLutFile(float[] vie, float[] tem, float[] emi, float[] wva, float[] mt, float[] tmp) {
+        if (mt.length != vie.length * tem.length * emi.length * wva.length) {
+            throw new IllegalArgumentException("MT size does not match axis lengths.");
+        }
+        this.vie = vie;
+        this.tem = tem;
+        this.emi = emi;
+        this.wva = wva;
+        this.mt = mt;
+        this.tmp = tmp;
+    }
+
+    /**
+     * This method reads the RTM LUT content from a netcdf file.
+     *
+     * @param netcdfFile - the netcdf file
+     * @return RtmLutFile
+     * @throws IOException
+     */
+    public static RtmLutFile readNetcdf(NetcdfFile netcdfFile) throws IOException {
+        // the variables in the netcdf file are defined like this (as obtained from an ncdump):
+        //       float WVA(WVA_dimension_1=21);
+        //       float EMI(EMI_dimension_1=11);
+        //       float TEM(TEM_dimension_1=33);
+        //       float VIE(VIE_dimension_1=9);
+        //       float MT(WVA_dimension_1=21, EMI_dimension_2=11, TEM_dimension_3=33, VIW_dimension_4=9);
+        //       float ST(WVA_dimension_1=21, EMI_dimension_2=11, TEM_dimension_3=33, VIW_dimension_4=9);
+        //       float TMP(TMP_dimension_1=25);
+        return new RtmLutFile(readFloats(netcdfFile, "VIE"),
+                              readFloats(netcdfFile, "TEM"),
+                              readFloats(netcdfFile, "EMI"),
+                              readFloats(netcdfFile, "WVA"),
+                              readFloats(netcdfFile, "MT"),
+                              readFloats(netcdfFile, "TMP"));
+    }
+
+    /**
+     * This method reads the RTM LUT content from the binary format.
+     *
+     * @param data - the complete binary file content
+     * @return RtmLutFile
+     * @throws IOException if the data is not a valid binary RTM LUT
+     */
+    public static RtmLutFile readBinary(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE + CHECKSUM_SIZE) {
+            throw new IOException("Binary RTM LUT is truncated.");
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary RTM LUT.");
+        }
+        final int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported binary RTM LUT version: " + version);
+        }
+        final int vieLength = buffer.getInt();
+        final int temLength = buffer.getInt();
+        final int emiLength = buffer.getInt();
+        final int wvaLength = buffer.getInt();
+        final int tmpLength = buffer.getInt();
+        final int mtLength = vieLength * temLength * emiLength * wvaLength;
+        final int numFloats = vieLength + temLength + emiLength + wvaLength + mtLength + tmpLength;
+        final int checksumPos = HEADER_SIZE + 4 * numFloats;
+        if (data.length != checksumPos + CHECKSUM_SIZE) {
+            throw new IOException("Binary RTM LUT has unexpected size.");
+        }
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, checksumPos);
+        if (buffer.getLong(checksumPos) != crc32.getValue()) {
+            throw new IOException("Binary RTM LUT checksum mismatch.");
+        }
+
+        final float[] floats = new float[numFloats];
+        buffer.asFloatBuffer().get(floats);
+
+        int offset = 0;
+        final float[] vie = copyOfRange(floats, offset, vieLength);
+        offset += vieLength;
+        final float[] tem = copyOfRange(floats, offset, temLength);
+        offset += temLength;
+        final float[] emi = copyOfRange(floats, offset, emiLength);
+        offset += emiLength;
+        final float[] wva = copyOfRange(floats, offset, wvaLength);
+        offset += wvaLength;
+        final float[] mt = copyOfRange(floats, offset, mtLength);
+        offset += mtLength;
+        final float[] tmp = copyOfRange(floats, offset, tmpLength);
+
+        return new RtmLutFile(vie, tem, emi, wva, mt, tmp);
+    }
+
+    /**
+     * This method writes the RTM LUT content in the binary format.
+     *
+     * @param outputStream - the stream to write to
+     * @throws IOException
+     */
+    public void writeBinary(OutputStream outputStream) throws IOException {
+        final int numFloats = vie.length + tem.length + emi.length + wva.length + mt.length + tmp.length;
+        final int checksumPos = HEADER_SIZE + 4 * numFloats;
+        final ByteBuffer buffer = ByteBuffer.allocate(checksumPos + CHECKSUM_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(vie.length);
+        buffer.putInt(tem.length);
+        buffer.putInt(emi.length);
+        buffer.putInt(wva.length);
+        buffer.putInt(tmp.length);
+        putFloats(buffer, vie);
+        putFloats(buffer, tem);
+        putFloats(buffer, emi);
+        putFloats(buffer, wva);
+        putFloats(buffer, mt);
+        putFloats(buffer, tmp);
+
+        final CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 0, checksumPos);
+        buffer.putLong(checksumPos, crc32.getValue());
+
+        outputStream.write(buffer.array());
+    }
+
+    /**
+     * This method creates the brightness temperature {@link LookupTable} with dimensions VIE, TEM, EMI, WVA.
+     * The view zenith angles are negated to obtain an increasing sequence.
+     *
+     * @return LookupTable
+     */
+    public LookupTable createLookupTable() {
+        final float[] negativeVie = new float[vie.length];
+        for (int i = 0; i < vie.length; i++) {
+            // take negative value to get increasing sequence for LUT creation
+            negativeVie[i] = -vie[i];
+        }
+        final IntervalPartition[] mtDimensions = IntervalPartition.createArray(negativeVie, tem, emi, wva);
+        return new LookupTable(mt.clone(), mtDimensions);
+    }
+
+    /**
+     * This method creates the specialized brightness temperature interpolator.
+     *
+     * @return RtmInterpolator
+     */
+    public RtmInterpolator createInterpolator() {
+        return new RtmInterpolator(vie, tem, emi, wva, mt);
+    }
+
+    /**
+     * @return the temperature profile
+     */
+    public double[] getTsfc() {
+        final double[] tsfc = new double[tmp.length];
+        for (int i = 0; i < tmp.length; i++) {
+            tsfc[i] = tmp[i];
+        }
+        return tsfc;
+    }
+
+    private static float[] readFloats(NetcdfFile netcdfFile, String variableName) throws IOException {
+        final Variable variable = netcdfFile.findVariable(variableName);
+        if (variable == null) {
+            throw new IOException("Variable '" + variableName + "' not found in " + netcdfFile.getLocation());
+        }
+        final Array array = variable.read();
+        final int size = (int) array.getSize();
+        final float[] floats = new float[size];
+        System.arraycopy(array.getStorage(), 0, floats, 0, size);
+        return floats;
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] floats) {
+        buffer.asFloatBuffer().put(floats);
+        buffer.position(buffer.position() + 4 * floats.length);
+    }
+
+    private static float[] copyOfRange(float[] floats, int offset, int length) {
+        final float[] copy = new float[length];
+        System.arraycopy(floats, offset, copy, 0, length);
+        return copy;
+    }
+}
@@ -0,0 +1,129 @@
+package org.esa.beam.snowradiance.operator;
+
+/**
+ * Slice of an RTM LUT for a fixed water vapour column and a restricted view zenith range, e.g. the
+ * range covered by one tile. It holds (TEM x EMI) tables at the LUT view zenith nodes bracketing the
+ * range, so that the slice gives the same values as the full LUT, but with a much smaller working set
+ * and without the water vapour dimension.
+ * <p/>
+ * The water vapour column passed to the getValue methods must be the one of the slice; view zenith angles
+ * outside the range of the slice are clamped to it.
+ */
+public class RtmSlice implements RtmFunction {
+
+    private final double[] vieAxis;
+    private final double[] temAxis;
+    private final double[] emiAxis;
+    private final double temInverseStep;
+    private final double emiInverseStep;
+    private final int vieStride;
+    private final int temStride;
+    private final double[] values;
+    private final float waterVapourColumn;
+
+    RtmSlice(double[] vieAxis, double[] temAxis, double[] emiAxis, double[] values, float waterVapourColumn) {
+        this.vieAxis = vieAxis;
+        this.temAxis = temAxis;
+        this.emiAxis = emiAxis;
+        this.values = values;
+        this.waterVapourColumn = waterVapourColumn;
+        temInverseStep = RtmInterpolator.getInverseStep(temAxis);
+        emiInverseStep = RtmInterpolator.getInverseStep(emiAxis);
+        temStride = emiAxis.length;
+        vieStride = temAxis.length * temStride;
+    }
+
+    /**
+     * @return the water vapour column of this slice
+     */
+    public float getWaterVapourColumn() {
+        return waterVapourColumn;
+    }
+
+    public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn) {
+        checkWaterVapourColumn(waterVapourColumn);
+        final double vie = -viewZenith;
+        final int i0 = findVieIndex(vie);
+        final int i1 = RtmInterpolator.findIndex(temAxis, temInverseStep, tSfc);
+        final int i2 = RtmInterpolator.findIndex(emiAxis, emiInverseStep, emissivity);
+        final double f0 = RtmInterpolator.getFraction(vieAxis, i0, vie);
+        final double f1 = RtmInterpolator.getFraction(temAxis, i1, tSfc);
+        final double f2 = RtmInterpolator.getFraction(emiAxis, i2, emissivity);
+
+        final int origin = i0 * vieStride + i1 * temStride + i2;
+        final double v0 = interpolateTem(origin, f1, f2);
+        final double v1 = interpolateTem(origin + vieStride, f1, f2);
+        return v0 + f0 * (v1 - v0);
+    }
+
+    public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn,
+                           double[] gradient) {
+        checkWaterVapourColumn(waterVapourColumn);
+        final double vie = -viewZenith;
+        final int i0 = findVieIndex(vie);
+        final int i1 = RtmInterpolator.findIndex(temAxis, temInverseStep, tSfc);
+        final int i2 = RtmInterpolator.findIndex(emiAxis, emiInverseStep, emissivity);
+        final double f0 = RtmInterpolator.getFraction(vieAxis, i0, vie);
+        final double f1 = RtmInterpolator.getFraction(temAxis, i1, tSfc);
+        final double f2 = RtmInterpolator.getFraction(emiAxis, i2, emissivity);
+
+        final int origin = i0 * vieStride + i1 * temStride + i2;
+        final double e000 = values[origin];
+        final double e001 = values[origin + 1];
+        final double e010 = values[origin + temStride];
+        final double e011 = values[origin + temStride + 1];
+        final double e100 = values[origin + vieStride];
+        final double e101 = values[origin + vieStride + 1];
+        final double e110 = values[origin + vieStride + temStride];
+        final double e111 = values[origin + vieStride + temStride + 1];
+
+        final double dw00 = e001 - e000;
+        final double dw01 = e011 - e010;
+        final double dw10 = e101 - e100;
+        final double dw11 = e111 - e110;
+        final double w00 = e000 + f2 * dw00;
+        final double w01 = e010 + f2 * dw01;
+        final double w10 = e100 + f2 * dw10;
+        final double w11 = e110 + f2 * dw11;
+
+        final double t0 = w00 + f1 * (w01 - w00);
+        final double t1 = w10 + f1 * (w11 - w10);
+        final double dt0dTem = w01 - w00;
+        final double dt1dTem = w11 - w10;
+        final double dt0dEmi = dw00 + f1 * (dw01 - dw00);
+        final double dt1dEmi = dw10 + f1 * (dw11 - dw10);
+
+        gradient[0] = (dt0dTem + f0 * (dt1dTem - dt0dTem)) / (temAxis[i1 + 1] - temAxis[i1]);
+        gradient[1] = (dt0dEmi + f0 * (dt1dEmi - dt0dEmi)) / (emiAxis[i2 + 1] - emiAxis[i2]);
+
+        return t0 + f0 * (t1 - t0);
+    }
+
+    private void checkWaterVapourColumn(double waterVapourColumn) {
+        if ((float) waterVapourColumn != this.waterVapourColumn) {
+            throw new IllegalArgumentException("Slice is for water vapour column " + this.waterVapourColumn +
+                                               ", not " + waterVapourColumn);
+        }
+    }
+
+    private int findVieIndex(double vie) {
+        // only a few nodes, so a linear search is fine
+        int i = 0;
+        while (i < vieAxis.length - 2 && vie >= vieAxis[i + 1]) {
+            i++;
+        }
+        return i;
+    }
+
+    private double interpolateTem(int origin, double f1, double f2) {
+        final double v0 = interpolateEmi(origin, f2);
+        final double v1 = interpolateEmi(origin + temStride, f2);
+        return v0 + f1 * (v1 - v0);
+    }
+
+    private double interpolateEmi(int origin, double f2) {
+        final double v0 = values[origin];
+        final double v1 = values[origin + 1];
+        return v0 + f2 * (v1 - v0);
+    }
+}
@@ -1,8 +1,6 @@
 package org.esa.beam.snowradiance.operator;
 
 import com.bc.ceres.core.ProgressMonitor;
-import com.bc.jnn.JnnException;
-import com.bc.jnn.JnnNet;
 import org.esa.beam.dataio.envisat.EnvisatConstants;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.FlagCoding;
@@ -22,12 +20,14 @@ import org.esa.beam.meris.cloud.CloudProbabilityOp;
 import org.esa.beam.snowradiance.util.SnowRadianceUtils;
 import org.esa.beam.synergy.util.SynergyConstants;
 import org.esa.beam.util.ProductUtils;
-import org.esa.beam.util.math.LookupTable;
 
 import java.awt.Dimension;
 import java.awt.Rectangle;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,10 +65,15 @@ public class SnowAllPropertiesOp extends Operator {
     private boolean computeSnowGrainSize;
 
     @Parameter(defaultValue = "true",
-               description = "Compute snow albedo",
+               description = "Compute snow albedo (one band per MERIS band)",
                label = "Compute snow albedo")
     private boolean computeSnowAlbedo;
 
+    @Parameter(defaultValue = "false",
+               description = "Compute broadband, visible and NIR snow albedo (integrated over the MERIS bands)",
+               label = "Compute broadband snow albedo")
+    private boolean computeBroadbandSnowAlbedo;
+
     @Parameter(defaultValue = "false",
                description = "Compute snow soot content",
                label = "Compute snow soot content")
@@ -133,6 +138,73 @@ public class SnowAllPropertiesOp extends Operator {
                label = "Assumed emissivity at 11 microns")
     private double assumedEmissivityAt11Microns;
 
+    @Parameter(defaultValue = "false",
+               description = "Use the atmospheric profile LUTs merged into one LUT per wavelength (within 2E-4 K)",
+               label = "Use blended RTM LUTs")
+    private boolean useBlendedRtmLuts;
+
+    @Parameter(defaultValue = "false",
+               description = "Use analytical LUT derivatives in Newton iteration for temperature and emissivity",
+               label = "Use analytical LUT derivatives")
+    private boolean useAnalyticalRtmDerivatives;
+
+    @Parameter(defaultValue = "false",
+               description = "Start Newton iteration for temperature and emissivity from the solution of the left neighbour pixel",
+               label = "Use Newton warm start")
+    private boolean useNewtonWarmStart;
+
+    @Parameter(defaultValue = "false",
+               description = "Cache temperature and emissivity retrieval results for quantized inputs",
+               label = "Use retrieval memo cache")
+    private boolean useRetrievalMemoCache;
+
+    @Parameter(defaultValue = "0.01", interval = "(0.0, 1.0]",
+               description = "Quantum of brightness temperatures (K), view zenith angle (deg) and water vapour column " +
+                             "for the retrieval memo cache",
+               label = "Retrieval memo cache quantum")
+    private float retrievalMemoCacheQuantum;
+
+    @Parameter(defaultValue = "false",
+               description = "Use precomputed inverse tables for temperature and emissivity retrieval",
+               label = "Use inverse RTM tables")
+    private boolean useRtmInverseTables;
+
+    @Parameter(description = "File to store the inverse RTM tables for re-use (optional)",
+               label = "Inverse RTM tables file")
+    private File rtmInverseTablesFile;
+
+    @Parameter(defaultValue = SnowOpticsKernel.REFERENCE,
+               valueSet = {SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH},
+               description = "Implementation of the snow grain size, soot and albedo kernels",
+               label = "Snow optics kernel")
+    private String snowOpticsKernel;
+
+    @Parameter(defaultValue = SnowReflectionFunction.APPROXIMATION,
+               valueSet = {SnowReflectionFunction.APPROXIMATION, SnowReflectionFunction.LUT},
+               description = "Snow reflection function: asymptotic approximation, or corrected with the reflection LUT",
+               label = "Snow reflection function")
+    private String snowReflectionFunction;
+
+    @Parameter(defaultValue = "1", interval = "[1, 64]",
+               description = "Step (pixels) of the grid on which the snow retrieval geometry terms are computed exactly (1: every pixel)",
+               label = "Geometry grid step")
+    private int geometryGridStep;
+
+    @Parameter(defaultValue = "1.0E-4", interval = "(0.0, 1.0]",
+               description = "Maximum interpolation error of the geometry terms; the grid is refined if exceeded",
+               label = "Geometry grid max. error")
+    private double geometryGridMaxError;
+
+    @Parameter(defaultValue = "false",
+               description = "Use water vapour from the MERIS neural net on a coarse grid for temperature and emissivity retrieval",
+               label = "Use water vapour field")
+    private boolean useWaterVapourField;
+
+    @Parameter(defaultValue = "16", interval = "[1, 64]",
+               description = "Step (pixels) of the grid on which the water vapour for temperature and emissivity retrieval is computed",
+               label = "Water vapour grid step")
+    private int waterVapourGridStep;
+
     @Parameter(defaultValue = "0.8", interval = "[0.0, 1.0]",
                description = "Cloud probability threshold",
                label = "Cloud probability threshold")
@@ -181,16 +253,25 @@ public class SnowAllPropertiesOp extends Operator {
     public static final String NDSI_BAND_NAME = "ndsi";
     public static final String MDSI_BAND_NAME = "mdsi";
 
-    private LookupTable[][] rtmLookupTables;
+    private static final int RETRIEVAL_MEMO_CACHE_SIZE = 8192;
+
+    private RtmLookupTables rtmLuts;
+    private RtmInterpolator[][] rtmInterpolators;
+    private RtmInverseTables rtmInverseTables;
+    private NewtonWarmStart newtonWarmStartStatistics;
+    private ThreadLocal<RetrievalMemoCache> retrievalMemoCache;
+    private List<RetrievalMemoCache> retrievalMemoCaches;
 
     private static String productName = "SNOWRADIANCE PRODUCT";
     private static String productType = "SNOWRADIANCE PRODUCT";
 
-    private double[][][] tsfcLut;
-    private double[] tLowestLayer = new double[SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES];
+    private double[] tLowestLayer;
 
     private SnowGrainSizePollutionRetrieval snowGrainSizePollutionRetrieval;
     private Band[] merisReflectanceBands;
+    private SnowRadianceBandPlan bandPlan;
+    private SnowOpticsKernel snowOptics;
+    private SnowReflectionFunction snowReflection;
 
 
     /**
@@ -215,6 +296,12 @@ public class SnowAllPropertiesOp extends Operator {
      */
     @Override
     public void initialize() throws OperatorException {
+        snowOptics = SnowOpticsKernel.getInstance(snowOpticsKernel);
+        try {
+            snowReflection = SnowReflectionFunction.getInstance(snowReflectionFunction);
+        } catch (IOException e) {
+            throw new OperatorException("Failed to read reflection LUT:\n" + e.getMessage(), e);
+        }
         if (applyCloudMask) {
             if (getCloudMaskFromSynergy) {
                 Map<String, Product> cloudScreeningInput = new HashMap<String, Product>(1);
@@ -238,19 +325,47 @@ public class SnowAllPropertiesOp extends Operator {
         }
 
         createTargetProduct();
+        createBandPlan();
 
         ProductUtils.copyTiePointGrids(colocatedProduct, targetProduct);
         ProductUtils.copyGeoCoding(colocatedProduct, targetProduct);
         ProductUtils.copyMetadata(colocatedProduct, targetProduct);
 
+        if (useWaterVapourField && useRtmInverseTables && doSnowTemperatureEmissivityRetrieval()) {
+            throw new OperatorException("Inverse RTM tables are computed for a fixed water vapour column " +
+                                        "and cannot be used together with the water vapour field.");
+        }
         try {
-            rtmLookupTables = SnowRadianceAuxData.createRtmLookupTables();
-            tsfcLut = SnowRadianceAuxData.getTsfcFromLookupTables();
-            for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
-                tLowestLayer[i] = tsfcLut[i][0][24];
+            rtmLuts = SnowRadianceAuxData.acquireRtmLookupTables();
+            rtmInterpolators = useBlendedRtmLuts ? rtmLuts.getBlendedRtmInterpolators() : rtmLuts.getRtmInterpolators();
+            tLowestLayer = rtmLuts.getTLowestLayer();
+            if (useRtmInverseTables && doSnowTemperatureEmissivityRetrieval()) {
+                rtmInverseTables = RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer,
+                                                                assumedEmissivityAt11Microns,
+                                                                SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL,
+                                                                useAnalyticalRtmDerivatives, rtmInverseTablesFile);
             }
         } catch (IOException e) {
-            throw new OperatorException("Failed to read RTM lookup tables:\n" + e.getMessage(), e);
+            throw new OperatorException("Failed to set up RTM lookup tables:\n" + e.getMessage(), e);
+        }
+        if (useNewtonWarmStart) {
+            newtonWarmStartStatistics = new NewtonWarmStart();
+        }
+        if (useRetrievalMemoCache) {
+            retrievalMemoCaches = new ArrayList<RetrievalMemoCache>();
+            retrievalMemoCache = new ThreadLocal<RetrievalMemoCache>() {
+                @Override
+                protected RetrievalMemoCache initialValue() {
+                    final RetrievalMemoCache cache = new RetrievalMemoCache(RETRIEVAL_MEMO_CACHE_SIZE,
+                                                                            retrievalMemoCacheQuantum,
+                                                                            assumedEmissivityAt11Microns,
+                                                                            useAnalyticalRtmDerivatives);
+                    synchronized (retrievalMemoCaches) {
+                        retrievalMemoCaches.add(cache);
+                    }
+                    return cache;
+                }
+            };
         }
 
         // snow grain size / pollution retrieval...
@@ -278,6 +393,48 @@ public class SnowAllPropertiesOp extends Operator {
         SnowRadianceUtils.setupGlobAlbedoCloudscreeningBitmasks(colocatedProduct, targetProduct);
     }
 
+    private void createBandPlan() {
+        bandPlan = new SnowRadianceBandPlan();
+        bandPlan.setBand(SnowRadianceBandPlan.SNOWRADIANCE_FLAGS, targetProduct.getBand(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.SNOW_TEMPERATURE, targetProduct.getBand(SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.EMISSIVITY, targetProduct.getBand(SnowRadianceConstants.EMISSIVITY_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.UNPOLLUTED_SNOW_GRAIN_SIZE, targetProduct.getBand(SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.SOOT_CONCENTRATION, targetProduct.getBand(SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.WATER_VAPOUR, targetProduct.getBand(WV_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.NDVI, targetProduct.getBand(NDVI_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.NDSI, targetProduct.getBand(NDSI_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.MDSI, targetProduct.getBand(MDSI_BAND_NAME));
+        if (applyCloudMask && !getCloudMaskFromSynergy) {
+            bandPlan.setBand(SnowRadianceBandPlan.CLOUD_PROBABILITY, targetProduct.getBand("cloud_probability"));
+        }
+        for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
+            bandPlan.setBand(SnowRadianceBandPlan.SNOW_ALBEDO + i, targetProduct.getBand(SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME + "_" + i));
+        }
+        for (int k = 0; k < SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES.length; k++) {
+            bandPlan.setBand(SnowRadianceBandPlan.INTEGRATED_ALBEDO + k, targetProduct.getBand(SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES[k]));
+        }
+
+        // flag bands which are just passed through from the source products...
+        for (Band targetBand : targetProduct.getBands()) {
+            if (targetBand.isFlagBand()) {
+                final String targetBandName = targetBand.getName();
+                Band sourceBand = null;
+                if (targetBandName.equals("l1_flags")) {
+                    sourceBand = merisProduct.getBand("l1_flags");
+                } else if (targetBandName.equals(SnowRadianceConstants.SYNERGY_CLOUD_FLAG_BAND_NAME)) {
+                    sourceBand = cloudScreeningProduct.getBand(SynergyConstants.B_CLOUDFLAGS);
+                } else if (copyAatsrL1Flags && targetBandName.endsWith("MERIS")) {
+                    sourceBand = merisProduct.getBand("l1_flags");
+                } else if (copyAatsrL1Flags && targetBandName.endsWith("AATSR")) {
+                    sourceBand = colocatedProduct.getBand(targetBandName);
+                }
+                if (sourceBand != null) {
+                    bandPlan.addCopiedBand(targetBand, sourceBand);
+                }
+            }
+        }
+    }
+
     private void createTargetProductBands() {
 
         if (copyInputBands) {
@@ -337,12 +494,22 @@ public class SnowAllPropertiesOp extends Operator {
             }
         }
 
+        if (computeBroadbandSnowAlbedo) {
+            for (String bandName : SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES) {
+                Band integratedAlbedoBand = targetProduct.addBand(bandName, ProductData.TYPE_FLOAT32);
+                integratedAlbedoBand.setNoDataValue(SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE);
+                integratedAlbedoBand.setNoDataValueUsed(SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE_USED);
+                integratedAlbedoBand.setUnit("dl");
+            }
+        }
+
         // complementary quantities
         if (computeMerisWaterVapour) {
             Band wvBand = targetProduct.addBand(WV_BAND_NAME, ProductData.TYPE_FLOAT32);
             wvBand.setDescription("NDSI");
             wvBand.setNoDataValue(-1.0f);
             wvBand.setNoDataValueUsed(true);
+            wvBand.setUnit("g/cm^2");
         }
 
         if (computeMerisNdvi) {
@@ -385,370 +552,482 @@ public class SnowAllPropertiesOp extends Operator {
     }
 
     /**
-     * Called by the framework in order to compute a tile for the given target band.
-     * <p>The default implementation throws a runtime exception with the message "not implemented".</p>
+     * Called by the framework in order to compute the stack of tiles for the given target bands.
+     * All source tiles are fetched once as sample arrays, and each pixel is classified and retrieved once,
+     * the results being collected in sample arrays which are written to the target tiles in one bulk set each.
      *
-     * @param targetBand The target band.
-     * @param targetTile The current tile associated with the target band to be computed.
-     * @param pm         A progress monitor which should be used to determine computation cancelation requests.
+     * @param targetTiles     The current tiles to be computed for each target band.
+     * @param targetRectangle The area in pixel coordinates to be computed (same for all rasters in <code>targetRasters</code>).
+     * @param pm              A progress monitor which should be used to determine computation cancelation requests.
      * @throws org.esa.beam.framework.gpf.OperatorException
-     *          If an error occurs during computation of the target raster.
+     *          If an error occurs during computation of the target rasters.
      */
     @Override
-    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
-
-        JnnNet neuralNetWv;
-        try {
-            neuralNetWv = SnowRadianceAuxData.getInstance().loadNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
-        } catch (IOException e) {
-            throw new OperatorException("Failed to read WV neural net:\n" + e.getMessage(), e);
-        } catch (JnnException e) {
-            throw new OperatorException("Failed to load WV neural net:\n" + e.getMessage(), e);
-        }
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
 
-        Rectangle rectangle = targetTile.getRectangle();
+        Tile zonalWindTile = getSourceTile(colocatedProduct.getTiePointGrid("zonal_wind"), targetRectangle);
+        Tile meridWindTile = getSourceTile(colocatedProduct.getTiePointGrid("merid_wind"), targetRectangle);
+        Tile saMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("sun_azimuth"), targetRectangle);
+        Tile szMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("sun_zenith"), targetRectangle);
+        Tile vaMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("view_azimuth"), targetRectangle);
+        Tile vzMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("view_zenith"), targetRectangle);
 
-        Tile zonalWindTile = getSourceTile(colocatedProduct.getTiePointGrid("zonal_wind"), rectangle);
-        Tile meridWindTile = getSourceTile(colocatedProduct.getTiePointGrid("merid_wind"), rectangle);
-        Tile saMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("sun_azimuth"), rectangle);
-        Tile szMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("sun_zenith"), rectangle);
-        Tile vaMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("view_azimuth"), rectangle);
-        Tile vzMerisTile = getSourceTile(colocatedProduct.getTiePointGrid("view_zenith"), rectangle);
+        Tile merisRad14Tile = getSourceTile(colocatedProduct.getBand("radiance_14" + "_MERIS" + ""), targetRectangle);
+        Tile merisRad15Tile = getSourceTile(colocatedProduct.getBand("radiance_15" + "_MERIS" + ""), targetRectangle);
 
-        Tile merisRad14Tile = getSourceTile(colocatedProduct.getBand("radiance_14" + "_MERIS" + ""), rectangle);
-        Tile merisRad15Tile = getSourceTile(colocatedProduct.getBand("radiance_15" + "_MERIS" + ""), rectangle);
+        Tile aatsrBTNadir1100Tile = getSourceTile(colocatedProduct.getBand("btemp_nadir_1100" + "_AATSR" + ""), targetRectangle);
+        Tile aatsrBTNadir1200Tile = getSourceTile(colocatedProduct.getBand("btemp_nadir_1200" + "_AATSR" + ""), targetRectangle);
 
-        Tile aatsrBTNadir1100Tile = getSourceTile(colocatedProduct.getBand("btemp_nadir_1100" + "_AATSR" + ""), rectangle);
-        Tile aatsrBTNadir1200Tile = getSourceTile(colocatedProduct.getBand("btemp_nadir_1200" + "_AATSR" + ""), rectangle);
+        Tile veAatsrNadirTile = getSourceTile(colocatedProduct.getBand("view_elev_nadir" + "_AATSR" + ""), targetRectangle);
 
-        Tile veAatsrNadirTile = getSourceTile(colocatedProduct.getBand("view_elev_nadir" + "_AATSR" + ""), rectangle);
-
-        Tile aatsrReflecNadir670Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_0670" + "_AATSR" + ""), rectangle);
-        Tile aatsrReflecNadir870Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_0870" + "_AATSR" + ""), rectangle);
-        Tile aatsrReflecNadir1600Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_1600" + "_AATSR" + ""), rectangle);
+        Tile aatsrReflecNadir670Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_0670" + "_AATSR" + ""), targetRectangle);
+        Tile aatsrReflecNadir870Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_0870" + "_AATSR" + ""), targetRectangle);
+        Tile aatsrReflecNadir1600Tile = getSourceTile(colocatedProduct.getBand("reflec_nadir_1600" + "_AATSR" + ""), targetRectangle);
 
         Tile[] merisSpectralBandTiles = new Tile[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
         for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
-            merisSpectralBandTiles[i] = getSourceTile(merisReflectanceBands[i], rectangle);
-        }
-
-        Tile merisRefl2Tile = merisSpectralBandTiles[1];
-        Tile merisRefl12Tile = merisSpectralBandTiles[11];
-        Tile merisRefl13Tile = merisSpectralBandTiles[12];
-        Tile merisRefl14Tile = merisSpectralBandTiles[13];
-
-        Tile merisL1FlagsTile = getSourceTile(merisProduct.getBand(("l1_flags")), rectangle);
-
-        Tile aatsrConfidFlagsNadirTile = null;
-        Tile aatsrConfidFlagsFwardTile = null;
-        Tile aatsrCloudFlagsNadirTile = null;
-        Tile aatsrCloudFlagsFwardTile = null;
-        if (copyAatsrL1Flags) {
-            aatsrConfidFlagsNadirTile = getSourceTile(colocatedProduct.getBand((SnowRadianceConstants.AATSR_CONFID_NADIR_FLAG_BAND_NAME)), rectangle);
-            aatsrConfidFlagsFwardTile = getSourceTile(colocatedProduct.getBand((SnowRadianceConstants.AATSR_CONFID_FWARD_FLAG_BAND_NAME)), rectangle);
-            aatsrCloudFlagsNadirTile = getSourceTile(colocatedProduct.getBand((SnowRadianceConstants.AATSR_CLOUD_NADIR_FLAG_BAND_NAME)), rectangle);
-            aatsrCloudFlagsFwardTile = getSourceTile(colocatedProduct.getBand((SnowRadianceConstants.AATSR_CLOUD_FWARD_FLAG_BAND_NAME)), rectangle);
+            merisSpectralBandTiles[i] = getSourceTile(merisReflectanceBands[i], targetRectangle);
         }
 
         Tile cloudFlagsTile = null;
         Tile cloudProbTile = null;
         if (applyCloudMask) {
             if (getCloudMaskFromSynergy) {
-                cloudFlagsTile = getSourceTile(cloudScreeningProduct.getBand(SynergyConstants.B_CLOUDFLAGS), rectangle);
+                cloudFlagsTile = getSourceTile(cloudScreeningProduct.getBand(SynergyConstants.B_CLOUDFLAGS), targetRectangle);
             } else {
-                cloudFlagsTile = getSourceTile(cloudProbabilityProduct.getBand(CloudProbabilityOp.CLOUD_FLAG_BAND), rectangle);
-                cloudProbTile = getSourceTile(cloudProbabilityProduct.getBand(CloudProbabilityOp.CLOUD_PROP_BAND), rectangle);
+                cloudProbTile = getSourceTile(cloudProbabilityProduct.getBand(CloudProbabilityOp.CLOUD_PROP_BAND), targetRectangle);
             }
         }
 
-        int x0 = rectangle.x;
-        int y0 = rectangle.y;
-        int w = rectangle.width;
-        int h = rectangle.height;
+        // target tiles (null if the band is not requested)...
+        Tile snowTemperatureTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.SNOW_TEMPERATURE);
+        Tile emissivityTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.EMISSIVITY);
+        Tile flagTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.SNOWRADIANCE_FLAGS);
+        Tile unpollutedSnowGrainSizeTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.UNPOLLUTED_SNOW_GRAIN_SIZE);
+        Tile sootConcentrationTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.SOOT_CONCENTRATION);
+        Tile[] snowAlbedoTiles = bandPlan.getTiles(targetTiles, SnowRadianceBandPlan.SNOW_ALBEDO,
+                                                   EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS);
+        Tile[] integratedAlbedoTiles = bandPlan.getTiles(targetTiles, SnowRadianceBandPlan.INTEGRATED_ALBEDO,
+                                                         SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES.length);
+        Tile wvTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.WATER_VAPOUR);
+        Tile ndviTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.NDVI);
+        Tile ndsiTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.NDSI);
+        Tile mdsiTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.MDSI);
+        Tile cloudProbTargetTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.CLOUD_PROBABILITY);
+        // only the requested albedo bands are handled in the pixel loop...
+        final int[] snowAlbedoIndices = SnowRadianceBandPlan.getRequestedIndices(snowAlbedoTiles);
+        final int[] integratedAlbedoIndices = SnowRadianceBandPlan.getRequestedIndices(integratedAlbedoTiles);
+        final boolean integratedAlbedoRequested = integratedAlbedoIndices.length > 0;
+
+        // flag bands which are just passed through from the source products...
+        for (int i = 0; i < bandPlan.getNumCopiedBands(); i++) {
+            final Tile copiedTile = targetTiles.get(bandPlan.getCopiedTargetBand(i));
+            if (copiedTile != null) {
+                copiedTile.setSamples(getSourceTile(bandPlan.getCopiedSourceBand(i), targetRectangle).getSamplesInt());
+            }
+        }
+
+        final boolean retrieveTemperature = doSnowTemperatureEmissivityRetrieval();
+        final boolean computeSnowProperties = unpollutedSnowGrainSizeTile != null ||
+                sootConcentrationTile != null || snowAlbedoIndices.length > 0 || integratedAlbedoRequested;
+        final boolean computeWaterVapourField = useWaterVapourField && retrieveTemperature;
+
+        CompiledNeuralNet neuralNetWv = null;
+        if (wvTile != null || computeWaterVapourField) {
+            try {
+                neuralNetWv = SnowRadianceAuxData.getCompiledNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
+            } catch (IOException e) {
+                throw new OperatorException("Failed to read WV neural net:\n" + e.getMessage(), e);
+            }
+        }
+
+        // source samples of the tile, row by row (only those needed for the requested bands)...
+        final float[] saMeris = saMerisTile.getSamplesFloat();
+        final float[] szMeris = szMerisTile.getSamplesFloat();
+        final float[] vaMeris = vaMerisTile.getSamplesFloat();
+        final float[] vzMeris = vzMerisTile.getSamplesFloat();
+        final float[] aatsrBtNadir1100 = aatsrBTNadir1100Tile.getSamplesFloat();
+        final float[] aatsrBtNadir1200 = aatsrBTNadir1200Tile.getSamplesFloat();
+        final float[] veAatsrNadir = veAatsrNadirTile.getSamplesFloat();
+        final float[] aatsrReflecNadir670 = aatsrReflecNadir670Tile.getSamplesFloat();
+        final float[] aatsrReflecNadir870 = aatsrReflecNadir870Tile.getSamplesFloat();
+        final float[] aatsrReflecNadir1600 = aatsrReflecNadir1600Tile.getSamplesFloat();
+        final float[] cloudProb = cloudProbTile != null ? cloudProbTile.getSamplesFloat() : null;
+        final int[] cloudFlags = cloudFlagsTile != null ? cloudFlagsTile.getSamplesInt() : null;
+        float[] zonalWind = null;
+        float[] meridWind = null;
+        float[] merisRad14 = null;
+        float[] merisRad15 = null;
+        if (neuralNetWv != null) {
+            zonalWind = zonalWindTile.getSamplesFloat();
+            meridWind = meridWindTile.getSamplesFloat();
+            merisRad14 = merisRad14Tile.getSamplesFloat();
+            merisRad15 = merisRad15Tile.getSamplesFloat();
+        }
+
+        // water vapour for temperature/emissivity retrieval on a coarse grid...
+        WaterVapourGrid waterVapourGrid = null;
+        if (computeWaterVapourField) {
+            waterVapourGrid = WaterVapourGrid.create(zonalWind, meridWind, saMeris, szMeris, vaMeris, vzMeris,
+                                                     merisRad14, merisRad15,
+                                                     targetRectangle, waterVapourGridStep, neuralNetWv,
+                                                     SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL);
+        }
+
+        // RTM LUTs reduced to the view zenith range of this tile (slices are for a fixed water vapour column)...
+        RtmFunction[][] tileRtmFunctions = rtmInterpolators;
+        if (retrieveTemperature && rtmInverseTables == null && waterVapourGrid == null) {
+            tileRtmFunctions = createTileRtmSlices(veAatsrNadir);
+        }
+        final NewtonWarmStart newtonWarmStart = useNewtonWarmStart ? new NewtonWarmStart() : null;
+        final TemperatureEmissivityResult teResult = new TemperatureEmissivityResult();
+        SnowGeometryGrid geometryGrid = null;
+        if (computeSnowProperties) {
+            geometryGrid = SnowGeometryGrid.create(saMeris, szMeris, vaMeris, vzMeris,
+                                                   targetRectangle, geometryGridStep, geometryGridMaxError,
+                                                   snowReflection);
+        }
+        // snow properties of the current pixel, shared by grain size, soot concentration and albedo bands...
+        final boolean[] integratedAlbedoBands = SnowBroadbandAlbedo.getUsedBands();
+        final boolean[] snowAlbedoBands = new boolean[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        final boolean[] reflectanceBands = new boolean[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        for (int i = 0; i < snowAlbedoBands.length; i++) {
+            snowAlbedoBands[i] = snowAlbedoTiles[i] != null || (integratedAlbedoRequested && integratedAlbedoBands[i]);
+            reflectanceBands[i] = snowAlbedoBands[i] || i == SnowOpticsResult.REFL_442_INDEX ||
+                                  i == SnowOpticsResult.ALBEDO_865_INDEX;
+        }
+        final float[][] merisSpectralBands = new float[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS][];
+        for (int i = 0; i < merisSpectralBands.length; i++) {
+            final boolean needed = (computeSnowProperties && reflectanceBands[i]) ||
+                                   (ndviTile != null && (i == 11 || i == 12)) ||
+                                   (mdsiTile != null && (i == 12 || i == 13));
+            if (needed) {
+                merisSpectralBands[i] = merisSpectralBandTiles[i].getSamplesFloat();
+            }
+        }
+        final float[] merisRefl12 = merisSpectralBands[11];
+        final float[] merisRefl13 = merisSpectralBands[12];
+        final float[] merisRefl14 = merisSpectralBands[13];
+        final double[] merisReflectances = new double[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        final SnowOpticsResult snowOpticsResult = new SnowOpticsResult();
+        final RetrievalMemoCache memoCache = useRetrievalMemoCache ? retrievalMemoCache.get() : null;
+
+        // target samples, written back to the tiles at the end...
+        final int[] flags = flagTile != null ? new int[targetRectangle.width * targetRectangle.height] : null;
+        final float[] snowTemperature = createSamples(snowTemperatureTile);
+        final float[] emissivity = createSamples(emissivityTile);
+        final float[] unpollutedSnowGrainSize = createSamples(unpollutedSnowGrainSizeTile);
+        final float[] sootConcentration = createSamples(sootConcentrationTile);
+        final float[][] snowAlbedo = new float[snowAlbedoIndices.length][];
+        for (int n = 0; n < snowAlbedoIndices.length; n++) {
+            snowAlbedo[n] = createSamples(snowAlbedoTiles[snowAlbedoIndices[n]]);
+        }
+        final float[][] integratedAlbedo = new float[integratedAlbedoIndices.length][];
+        for (int n = 0; n < integratedAlbedoIndices.length; n++) {
+            integratedAlbedo[n] = createSamples(integratedAlbedoTiles[integratedAlbedoIndices[n]]);
+        }
+        final float[] waterVapour = createSamples(wvTile);
+        final float[] ndvi = createSamples(ndviTile);
+        final float[] ndsi = createSamples(ndsiTile);
+        final float[] mdsi = createSamples(mdsiTile);
+        final float[][] cloudySamples = SnowRadianceBandPlan.getRequestedSamples(
+                snowTemperature, emissivity, unpollutedSnowGrainSize, sootConcentration, waterVapour, ndvi, ndsi, mdsi);
+        final boolean retrieveEmissivity = emissivity != null;
+        final boolean synergyCloudMask = applyCloudMask && getCloudMaskFromSynergy;
+        final boolean probabilityCloudMask = applyCloudMask && !getCloudMaskFromSynergy;
+
+        final int synergyCloudFlag = 1 << (int) (Math.log((double) SynergyConstants.FLAGMASK_CLOUD) / Math.log(2.0));
+
+        int x0 = targetRectangle.x;
+        int y0 = targetRectangle.y;
+        int w = targetRectangle.width;
+        int h = targetRectangle.height;
+        WaterVapourBatchRetrieval waterVapourRetrieval = null;
+        if (wvTile != null) {
+            waterVapourRetrieval = new WaterVapourBatchRetrieval(neuralNetWv, w);
+        }
         for (int y = y0; y < y0 + h; y++) {
+            final int rowOffset = (y - y0) * w;
+            if (waterVapourRetrieval != null) {
+                waterVapourRetrieval.computeWaterVapour(zonalWind, meridWind, saMeris, szMeris, vaMeris, vzMeris,
+                                                        merisRad14, merisRad15, rowOffset, w, waterVapour);
+            }
             for (int x = x0; x < x0 + w; x++) {
 
                 if (pm.isCanceled()) {
                     break;
                 }
 
-                if (targetBand.isFlagBand() && targetBand.getName().equals("l1_flags")) {
-                    targetTile.setSample(x, y, merisL1FlagsTile.getSampleInt(x, y));
-                } else if (targetBand.isFlagBand() && targetBand.getName().equals(SnowRadianceConstants.SYNERGY_CLOUD_FLAG_BAND_NAME)) {
-                    targetTile.setSample(x, y, cloudFlagsTile.getSampleInt(x, y));
-                } else if (targetBand.isFlagBand() &&
-                        (targetBand.getName().endsWith("MERIS") || targetBand.getName().endsWith("AATSR")) &&
-                        copyAatsrL1Flags) {
-                    if (targetBand.getName().endsWith("MERIS")) {
-                        targetTile.setSample(x, y, merisL1FlagsTile.getSampleInt(x, y));
-                    }
-                    if (targetBand.getName().equals(SnowRadianceConstants.AATSR_CONFID_NADIR_FLAG_BAND_NAME)) {
-                        targetTile.setSample(x, y, aatsrConfidFlagsNadirTile.getSampleInt(x, y));
-                    }
-                    if (targetBand.getName().equals(SnowRadianceConstants.AATSR_CONFID_FWARD_FLAG_BAND_NAME)) {
-                        targetTile.setSample(x, y, aatsrConfidFlagsFwardTile.getSampleInt(x, y));
-                    }
-                    if (targetBand.getName().equals(SnowRadianceConstants.AATSR_CLOUD_NADIR_FLAG_BAND_NAME)) {
-                        targetTile.setSample(x, y, aatsrCloudFlagsNadirTile.getSampleInt(x, y));
-                    }
-                    if (targetBand.getName().equals(SnowRadianceConstants.AATSR_CLOUD_FWARD_FLAG_BAND_NAME)) {
-                        targetTile.setSample(x, y, aatsrCloudFlagsFwardTile.getSampleInt(x, y));
-                    }
-                } else {
+                final int index = rowOffset + x - x0;
 
-                    final float aatsrBt11 = aatsrBTNadir1100Tile.getSampleFloat(x, y);
-                    final float aatsrBt12 = aatsrBTNadir1200Tile.getSampleFloat(x, y);
-
-                    // first determine cloud mask...
-                    boolean considerPixelAsCloudy = applyCloudMask && isCloud(cloudFlagsTile, cloudProbTile, x, y);
-                    boolean considerPixelAsSnow = false;
-                    boolean considerPixelAsIce = false;
-
-                    if (!considerPixelAsCloudy) {
-                        // temperature/emissivity retrieval...
-                        if (doSnowTemperatureEmissivityRetrieval()) {
-                            // compute temperature and emissivity if at least one of both user options was set...
-                            if (aatsrDataAvailable(aatsrBt11, aatsrBt12)) {
-                                // compute temperature and emissivity only if AATSR data is available...
-                                float aatsr865 = aatsrReflecNadir870Tile.getSampleFloat(x, y);
-                                float aatsr1610 = aatsrReflecNadir1600Tile.getSampleFloat(x, y);
-                                float aatsr0670 = aatsrReflecNadir670Tile.getSampleFloat(x, y);
-                                float ndsi = (aatsr865 - aatsr1610) / (aatsr865 + aatsr1610);
-                                if (ndsi > ndsiLowerThreshold && ndsi < ndsiUpperThreshold) {
-                                    considerPixelAsSnow = true;
-                                } else if (ndsi > ndsiUpperThreshold) {
-                                    considerPixelAsIce = true;
-                                }
-                                if (apply100PercentSnowMask && !(ndsi > ndsiUpperThreshold)) {
-                                    boolean is1600InInterval = aatsr1610 >= aatsr1610LowerThreshold && aatsr1610 <= aatsr1610UpperThreshold;
-                                    boolean is0670InInterval = aatsr0670 >= aatsr0670LowerThreshold && aatsr0670 <= aatsr0670UpperThreshold;
-                                    considerPixelAsSnow = is1600InInterval && is0670InInterval;
-                                }
+                final float aatsrBt11 = aatsrBtNadir1100[index];
+                final float aatsrBt12 = aatsrBtNadir1200[index];
+                final boolean aatsrDataAvailable = aatsrDataAvailable(aatsrBt11, aatsrBt12);
 
-                                if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                                    if (considerPixelAsSnow) {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, true);
-                                        targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, false);
-                                    } else if (considerPixelAsIce) {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, false);
-                                        targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, true);
-                                    }
-                                } else if (considerPixelAsSnow || considerPixelAsIce) {
-                                    // 3.2.3 Calculation of water vapour
-
-                                    float waterVapourColumn = 0.3f; // simplification, might be sufficient (RP, 2010/04/14)
-
-                                    // 3.2.4 temperature retrieval
-
-                                    final float aatsrViewElevationNadir = veAatsrNadirTile.getSampleFloat(x, y);
-                                    final float viewZenith = 90.0f - aatsrViewElevationNadir;
-
-                                    float tempSurface = SnowTemperatureEmissivityRetrieval.
-                                            minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11, rtmLookupTables, tLowestLayer);
-
-                                    if (!SnowRadianceUtils.temperatureAlgoFailed(tempSurface)) {
-                                        if (computeSnowTemperatureFub && targetBand.getName().equals(SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NAME)) {
-                                            targetTile.setSample(x, y, tempSurface);
-                                        }
-                                        if (computeEmissivityFub && targetBand.getName().equals(SnowRadianceConstants.EMISSIVITY_BAND_NAME)) {
-
-                                            float emissivity = SnowTemperatureEmissivityRetrieval.
-                                                    minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tempSurface, aatsrBt12,
-                                                                                rtmLookupTables, tLowestLayer);
-                                            if (SnowRadianceUtils.emissivityAlgoFailed(emissivity)) {
-                                                targetTile.setSample(x, y, SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE);
-                                            } else {
-                                                targetTile.setSample(x, y, emissivity);
-                                            }
-                                        }
-                                    } else {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
-                                    }
-                                } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
-                                }
-                            } else {
-                                if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.F_NO_AATSR, true);
-                                    targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, false);
-                                    targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, false);
-                                } else {
-                                    targetTile.setSample(x, y, (SnowRadianceConstants.SNOW_TEMPERATURE_EMISSIVITY_NODATAVALUE));
-                                }
+                // first determine cloud mask...
+                boolean considerPixelAsCloudy = false;
+                if (synergyCloudMask) {
+                    considerPixelAsCloudy = (cloudFlags[index] & synergyCloudFlag) != 0;
+                } else if (probabilityCloudMask) {
+                    considerPixelAsCloudy = cloudProb[index] > cloudProbabilityThreshold;
+                }
+                boolean considerPixelAsSnow = false;
+                boolean considerPixelAsIce = false;
+
+                if (!considerPixelAsCloudy) {
+                    // temperature/emissivity retrieval...
+                    if (retrieveTemperature) {
+                        // compute temperature and emissivity if at least one of both user options was set...
+                        if (aatsrDataAvailable) {
+                            // compute temperature and emissivity only if AATSR data is available...
+                            float aatsr865 = aatsrReflecNadir870[index];
+                            float aatsr1610 = aatsrReflecNadir1600[index];
+                            float aatsr0670 = aatsrReflecNadir670[index];
+                            float ndsiValue = (aatsr865 - aatsr1610) / (aatsr865 + aatsr1610);
+                            if (ndsiValue > ndsiLowerThreshold && ndsiValue < ndsiUpperThreshold) {
+                                considerPixelAsSnow = true;
+                            } else if (ndsiValue > ndsiUpperThreshold) {
+                                considerPixelAsIce = true;
                             }
-                        } else {
-                            if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_CLOUD, false);
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, false);
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, false);
-                                if (!aatsrDataAvailable(aatsrBt11, aatsrBt12)) {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.F_NO_AATSR, true);
-                                }
+                            if (apply100PercentSnowMask && !(ndsiValue > ndsiUpperThreshold)) {
+                                boolean is1600InInterval = aatsr1610 >= aatsr1610LowerThreshold && aatsr1610 <= aatsr1610UpperThreshold;
+                                boolean is0670InInterval = aatsr0670 >= aatsr0670LowerThreshold && aatsr0670 <= aatsr0670UpperThreshold;
+                                considerPixelAsSnow = is1600InInterval && is0670InInterval;
                             }
-                        }
 
-                        // snow grain size / pollution retrieval...
-                        if (doSnowGrainSizePollutionRetrieval() || !doSnowTemperatureEmissivityRetrieval()) {
-                            double saa = saMerisTile.getSampleDouble(x, y);
-                            double sza = szMerisTile.getSampleDouble(x, y);
-                            double vaa = vaMerisTile.getSampleDouble(x, y);
-                            double vza = vzMerisTile.getSampleDouble(x, y);
-                            double reflFunction;
-
-                            reflFunction = SnowGrainSizePollutionRetrieval.computeReflLutApprox(saa, sza, vaa, vza);
-
-                            double merisRefl2 = merisRefl2Tile.getSampleDouble(x, y);
-                            double merisRefl13 = merisRefl13Tile.getSampleDouble(x, y);
-                            double unpollutedSnowGrainSize = 0.0;
-
-                            if (computeSnowGrainSize && targetBand.getName().equals(SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NAME)) {
-                                if (!doSnowTemperatureEmissivityRetrieval() || (considerPixelAsSnow || considerPixelAsIce)) {
-                                    double pal =
-                                            SnowGrainSizePollutionRetrieval.getParticleAbsorptionLength(merisRefl2, merisRefl13, reflFunction, sza, vza);
-                                    if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(pal)) {
-                                        unpollutedSnowGrainSize =
-                                                SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
-                                        if (SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(unpollutedSnowGrainSize)) {
-                                            targetTile.setSample(x, y, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
-                                        } else {
-                                            targetTile.setSample(x, y, unpollutedSnowGrainSize);
-                                        }
-                                    } else {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
-                                    }
+                            if (considerPixelAsSnow || considerPixelAsIce) {
+                                // 3.2.3 Calculation of water vapour
+
+                                final float waterVapourColumn = waterVapourGrid != null ?
+                                        waterVapourGrid.getWaterVapour(x, y) :
+                                        SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+
+                                // 3.2.4 temperature retrieval
+
+                                final float aatsrViewElevationNadir = veAatsrNadir[index];
+                                final float viewZenith = 90.0f - aatsrViewElevationNadir;
+
+                                if (rtmInverseTables != null) {
+                                    rtmInverseTables.retrieveTemperatureAndEmissivity(viewZenith, aatsrBt11, aatsrBt12,
+                                                                                      retrieveEmissivity, teResult);
+                                } else if (memoCache != null) {
+                                    memoCache.retrieveTemperatureAndEmissivity(waterVapourColumn, viewZenith, aatsrBt11, aatsrBt12,
+                                                                               tileRtmFunctions, tLowestLayer,
+                                                                               retrieveEmissivity, teResult);
+                                } else if (newtonWarmStart != null) {
+                                    newtonWarmStart.retrieveTemperatureAndEmissivity(x, y, assumedEmissivityAt11Microns, waterVapourColumn,
+                                                                                     viewZenith, aatsrBt11, aatsrBt12,
+                                                                                     tileRtmFunctions, tLowestLayer,
+                                                                                     useAnalyticalRtmDerivatives, retrieveEmissivity, teResult);
                                 } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
+                                    SnowTemperatureEmissivityRetrieval.
+                                            retrieveTemperatureAndEmissivity(assumedEmissivityAt11Microns, waterVapourColumn,
+                                                                             viewZenith, aatsrBt11, aatsrBt12,
+                                                                             tileRtmFunctions, tLowestLayer,
+                                                                             useAnalyticalRtmDerivatives, retrieveEmissivity, teResult);
                                 }
-                            }
 
-                            if (computeSnowSootContent && targetBand.getName().equals(SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NAME)) {
-                                if (!doSnowTemperatureEmissivityRetrieval() || considerPixelAsSnow || considerPixelAsIce) {
-                                    double pal =
-                                            SnowGrainSizePollutionRetrieval.getParticleAbsorptionLength(merisRefl2, merisRefl13, reflFunction, sza, vza);
-                                    if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(pal)) {
-                                        unpollutedSnowGrainSize =
-                                                SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
-                                        if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(unpollutedSnowGrainSize)) {
-                                            double sootConcentration = SnowGrainSizePollutionRetrieval.getSootConcentrationInPollutedSnow(
-                                                    merisRefl13, reflFunction, sza, vza, unpollutedSnowGrainSize);
-                                            if (SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(sootConcentration)) {
-                                                targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                            } else {
-                                                targetTile.setSample(x, y, sootConcentration);
-                                            }
-                                        } else {
-                                            targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                        }
-                                    } else {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
+                                if (teResult.isTemperatureValid()) {
+                                    setSample(snowTemperature, index, teResult.getTemperature());
+                                    if (retrieveEmissivity) {
+                                        emissivity[index] = teResult.getEmissivity();
                                     }
                                 } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                }
-                            }
-
-                            if (computeSnowAlbedo &&
-                                    targetBand.getName().startsWith(SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME)) {
-                                if (!doSnowTemperatureEmissivityRetrieval() || considerPixelAsSnow || considerPixelAsIce) {
-                                    int snowAlbedoBandPrefixLength = SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME.length();
-                                    String snowAlbedoBandIndexString = targetBand.getName().
-                                            substring(snowAlbedoBandPrefixLength + 1, targetBand.getName().length());
-                                    int snowAlbedoBandIndex = Integer.parseInt(snowAlbedoBandIndexString);
-                                    double merisRefl = merisSpectralBandTiles[snowAlbedoBandIndex].getSampleDouble(x, y);
-                                    double snowAlbedo =
-                                            SnowGrainSizePollutionRetrieval.getSnowAlbedo(merisRefl, reflFunction, sza, vza);
-                                    targetTile.setSample(x, y, snowAlbedo);
-                                } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE);
+                                    setSample(snowTemperature, index, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
+                                    setSample(emissivity, index, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
                                 }
+                            } else {
+                                setSample(snowTemperature, index, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
+                                setSample(emissivity, index, SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE);
                             }
+                        } else {
+                            setSample(snowTemperature, index, SnowRadianceConstants.SNOW_TEMPERATURE_EMISSIVITY_NODATAVALUE);
+                            setSample(emissivity, index, SnowRadianceConstants.SNOW_TEMPERATURE_EMISSIVITY_NODATAVALUE);
                         }
+                    }
 
-                        // complementary quantities...
-                        float merisViewAzimuth = vaMerisTile.getSampleFloat(x, y);
-                        float merisSunAzimuth = saMerisTile.getSampleFloat(x, y);
-                        final float zonalWind = zonalWindTile.getSampleFloat(x, y);
-                        final float meridWind = meridWindTile.getSampleFloat(x, y);
-                        float merisAzimuthDifference = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(merisViewAzimuth,
-                                                                                                                           merisSunAzimuth);
-                        final float merisViewZenith = vzMerisTile.getSampleFloat(x, y);
-                        final float merisSunZenith = szMerisTile.getSampleFloat(x, y);
-                        final float merisRad14 = merisRad14Tile.getSampleFloat(x, y);
-                        final float merisRad15 = merisRad15Tile.getSampleFloat(x, y);
-
-                        if (computeMerisWaterVapour && targetBand.getName().equals(WV_BAND_NAME)) {
-                            final float merisWaterVapourColumn = SnowTemperatureEmissivityRetrieval.computeWaterVapour(neuralNetWv, zonalWind, meridWind, merisAzimuthDifference,
-                                                                                                                       merisViewZenith, merisSunZenith, merisRad14, merisRad15);
-                            targetTile.setSample(x, y, merisWaterVapourColumn);
-                        }
-
-                        if (computeMerisNdvi && targetBand.getName().equals(NDVI_BAND_NAME)) {
-                            final float merisRefl12 = merisRefl12Tile.getSampleFloat(x, y);
-                            final float merisRefl13 = merisRefl13Tile.getSampleFloat(x, y);
-                            final double ndvi = (merisRefl12 - merisRefl13) / (merisRefl12 + merisRefl13);
-                            targetTile.setSample(x, y, ndvi);
-                        }
-
-                        if (computeAatsrNdsi && targetBand.getName().equals(NDSI_BAND_NAME)) {
-                            final float aatsr865 = aatsrReflecNadir870Tile.getSampleFloat(x, y);
-                            final float aatsr1610 = aatsrReflecNadir1600Tile.getSampleFloat(x, y);
-                            final float ndsi = (aatsr865 - aatsr1610) / (aatsr865 + aatsr1610);
-                            targetTile.setSample(x, y, ndsi);
-                        }
+                    // snow grain size / pollution retrieval...
+                    if (computeSnowProperties) {
+                        final double reflFunction = geometryGrid.getReflFunction(x, y);
+                        final double escapeFunctionProduct = geometryGrid.getEscapeFunctionProduct(x, y);
 
-                        if (computeMerisMdsi && targetBand.getName().equals(MDSI_BAND_NAME)) {
-                            final float merisRefl13 = merisRefl13Tile.getSampleFloat(x, y);
-                            final float merisRefl14 = merisRefl14Tile.getSampleFloat(x, y);
-                            final double mdsi = (merisRefl13 - merisRefl14) / (merisRefl13 + merisRefl14);
-                            targetTile.setSample(x, y, mdsi);
-                        }
-                    } else {
-                        if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_CLOUD, true);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_UNSPECIFIED, false);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, false);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, false);
-                            if (!aatsrDataAvailable(aatsrBt11, aatsrBt12)) {
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_NO_AATSR, true);
+                        if (!retrieveTemperature || considerPixelAsSnow || considerPixelAsIce) {
+                            for (int i = 0; i < merisReflectances.length; i++) {
+                                if (reflectanceBands[i]) {
+                                    merisReflectances[i] = merisSpectralBands[i][index];
+                                }
+                            }
+                            snowOptics.computeSnowOptics(merisReflectances, reflFunction, escapeFunctionProduct,
+                                                         unpollutedSnowGrainSize != null,
+                                                         sootConcentration != null,
+                                                         snowAlbedoBands, snowOpticsResult);
+                            setSample(unpollutedSnowGrainSize, index, snowOpticsResult.getGrainSize());
+                            setSample(sootConcentration, index, snowOpticsResult.getSootConcentration());
+                            for (int n = 0; n < snowAlbedo.length; n++) {
+                                snowAlbedo[n][index] = (float) snowOpticsResult.getAlbedo(snowAlbedoIndices[n]);
+                            }
+                            for (int n = 0; n < integratedAlbedo.length; n++) {
+                                integratedAlbedo[n][index] = (float) SnowBroadbandAlbedo.getAlbedo(snowOpticsResult.getAlbedo(),
+                                                                                                   integratedAlbedoIndices[n]);
                             }
                         } else {
-                            targetTile.setSample(x, y, (SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE));
+                            setSample(unpollutedSnowGrainSize, index, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
+                            setSample(sootConcentration, index, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
+                            for (float[] snowAlbedoSamples : snowAlbedo) {
+                                snowAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE;
+                            }
+                            for (float[] integratedAlbedoSamples : integratedAlbedo) {
+                                integratedAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE;
+                            }
                         }
                     }
 
-                    if (applyCloudMask && !getCloudMaskFromSynergy && targetBand.getName().equals("cloud_probability")) {
-                        targetTile.setSample(x, y, cloudProbTile.getSampleFloat(x, y));
+                    // complementary quantities (the water vapour is already set for the whole row)...
+                    if (ndvi != null) {
+                        ndvi[index] = (float) ((merisRefl12[index] - merisRefl13[index]) / (merisRefl12[index] + merisRefl13[index]));
+                    }
+
+                    if (ndsi != null) {
+                        final float aatsr865 = aatsrReflecNadir870[index];
+                        final float aatsr1610 = aatsrReflecNadir1600[index];
+                        ndsi[index] = (aatsr865 - aatsr1610) / (aatsr865 + aatsr1610);
                     }
 
-                    if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                        boolean unspecified = !considerPixelAsCloudy && !considerPixelAsSnow && !considerPixelAsIce &&
-                                aatsrDataAvailable(aatsrBt11, aatsrBt12);
-                        targetTile.setSample(x, y, SnowRadianceConstants.F_UNSPECIFIED, unspecified);
+                    if (mdsi != null) {
+                        mdsi[index] = (float) ((merisRefl13[index] - merisRefl14[index]) / (merisRefl13[index] + merisRefl14[index]));
+                    }
+                } else {
+                    for (float[] samples : cloudySamples) {
+                        samples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
+                    }
+                    for (float[] snowAlbedoSamples : snowAlbedo) {
+                        snowAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
+                    }
+                    for (float[] integratedAlbedoSamples : integratedAlbedo) {
+                        integratedAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
                     }
                 }
+
+                if (flags != null) {
+                    // the flag word of the pixel, set at once...
+                    int flagWord = 0;
+                    if (considerPixelAsCloudy) {
+                        flagWord |= 1 << SnowRadianceConstants.F_CLOUD;
+                    }
+                    if (considerPixelAsSnow) {
+                        flagWord |= 1 << SnowRadianceConstants.F_SNOW;
+                    }
+                    if (considerPixelAsIce) {
+                        flagWord |= 1 << SnowRadianceConstants.F_ICE;
+                    }
+                    if (!aatsrDataAvailable) {
+                        flagWord |= 1 << SnowRadianceConstants.F_NO_AATSR;
+                    }
+                    if (!considerPixelAsCloudy && !considerPixelAsSnow && !considerPixelAsIce && aatsrDataAvailable) {
+                        flagWord |= 1 << SnowRadianceConstants.F_UNSPECIFIED;
+                    }
+                    flags[index] = flagWord;
+                }
             }
         }
+
+        if (flagTile != null) {
+            flagTile.setSamples(flags);
+        }
+        setSamples(snowTemperatureTile, snowTemperature);
+        setSamples(emissivityTile, emissivity);
+        setSamples(unpollutedSnowGrainSizeTile, unpollutedSnowGrainSize);
+        setSamples(sootConcentrationTile, sootConcentration);
+        for (int n = 0; n < snowAlbedoIndices.length; n++) {
+            snowAlbedoTiles[snowAlbedoIndices[n]].setSamples(snowAlbedo[n]);
+        }
+        for (int n = 0; n < integratedAlbedoIndices.length; n++) {
+            integratedAlbedoTiles[integratedAlbedoIndices[n]].setSamples(integratedAlbedo[n]);
+        }
+        setSamples(wvTile, waterVapour);
+        setSamples(ndviTile, ndvi);
+        setSamples(ndsiTile, ndsi);
+        setSamples(mdsiTile, mdsi);
+        if (cloudProbTargetTile != null) {
+            cloudProbTargetTile.setSamples(cloudProb);
+        }
+
+        if (newtonWarmStart != null) {
+            newtonWarmStartStatistics.addStatistics(newtonWarmStart);
+        }
     }
 
-    private boolean aatsrDataAvailable(float aatsrBt11, float aatsrBt12) {
-        return aatsrBt11 > 0.0 && aatsrBt12 > 0.0 && !(Float.isNaN(aatsrBt11)) && !(Float.isNaN(aatsrBt12));
+    private RtmFunction[][] createTileRtmSlices(float[] veAatsrNadir) {
+        double minViewZenith = Double.MAX_VALUE;
+        double maxViewZenith = -Double.MAX_VALUE;
+        for (float viewElevation : veAatsrNadir) {
+            final float viewZenith = 90.0f - viewElevation;
+            if (!Float.isNaN(viewZenith)) {
+                minViewZenith = Math.min(minViewZenith, viewZenith);
+                maxViewZenith = Math.max(maxViewZenith, viewZenith);
+            }
+        }
+        if (minViewZenith > maxViewZenith) {
+            // no valid view zenith angles in this tile
+            return rtmInterpolators;
+        }
+
+        final RtmFunction[][] slices = new RtmFunction[rtmInterpolators.length][];
+        for (int i = 0; i < rtmInterpolators.length; i++) {
+            slices[i] = new RtmFunction[rtmInterpolators[i].length];
+            for (int j = 0; j < rtmInterpolators[i].length; j++) {
+                slices[i][j] = rtmInterpolators[i][j].createSlice(minViewZenith, maxViewZenith,
+                                                                  SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL);
+            }
+        }
+        return slices;
+    }
+
+    private static float[] createSamples(Tile tile) {
+        return tile != null ? new float[tile.getWidth() * tile.getHeight()] : null;
     }
 
-    private boolean isCloud(Tile cloudFlagsTile, Tile cloudProbTile, int x, int y) {
-        boolean isCloud;
-        if (!applyCloudMask) {
-            return false;
+    private static void setSample(float[] samples, int index, double value) {
+        if (samples != null) {
+            samples[index] = (float) value;
         }
+    }
 
-        if (getCloudMaskFromSynergy) {
-            final int isCloudBitIndex = (int) (Math.log((double)SynergyConstants.FLAGMASK_CLOUD)/Math.log(2.0));
-            isCloud = cloudFlagsTile.getSampleBit(x, y, isCloudBitIndex);
-        } else {
-            float cloudProb = cloudProbTile.getSampleFloat(x, y);
-            isCloud = (cloudProb > cloudProbabilityThreshold);
+    private static void setSamples(Tile tile, float[] samples) {
+        if (tile != null) {
+            tile.setSamples(samples);
         }
+    }
+
+    private boolean aatsrDataAvailable(float aatsrBt11, float aatsrBt12) {
+        return aatsrBt11 > 0.0 && aatsrBt12 > 0.0 && !(Float.isNaN(aatsrBt11)) && !(Float.isNaN(aatsrBt12));
+    }
 
-        return isCloud;
+    @Override
+    public void dispose() {
+        if (newtonWarmStartStatistics != null) {
+            SnowRadianceUtils.info(newtonWarmStartStatistics.getStatisticsSummary());
+            newtonWarmStartStatistics = null;
+        }
+        if (retrievalMemoCaches != null) {
+            long lookups = 0;
+            long hits = 0;
+            synchronized (retrievalMemoCaches) {
+                for (RetrievalMemoCache cache : retrievalMemoCaches) {
+                    lookups += cache.getLookupCount();
+                    hits += cache.getHitCount();
+                }
+                retrievalMemoCaches.clear();
+            }
+            if (lookups > 0) {
+                SnowRadianceUtils.info(String.format("Retrieval memo cache: %d lookups, hit rate %.1f%%",
+                                                     lookups, 100.0 * hits / lookups));
+            }
+            retrievalMemoCache = null;
+        }
+        SnowRadianceAuxData.releaseRtmLookupTables(rtmLuts);
+        rtmLuts = null;
+        super.dispose();
     }
 
     private boolean doSnowTemperatureEmissivityRetrieval() {
@@ -756,7 +1035,7 @@ public class SnowAllPropertiesOp extends Operator {
     }
 
     private boolean doSnowGrainSizePollutionRetrieval() {
-        return (computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo);
+        return (computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo || computeBroadbandSnowAlbedo);
     }
 
     /**
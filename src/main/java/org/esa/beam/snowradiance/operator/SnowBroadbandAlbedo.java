@@ -0,0 +1,113 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.dataio.envisat.EnvisatConstants;
+
+/**
+ * Class providing the spectrally integrated (broadband, visible and near infrared) snow albedo
+ * from the snow albedo spectrum at the MERIS bands.
+ * <p/>
+ * The spectral albedo is weighted with the solar irradiance at the band centre times the spectral
+ * interval represented by the band (half way to the neighbouring band centres, clipped to the integration
+ * range), i.e. a trapezoidal-like integration of the albedo over the solar spectrum. The absorption
+ * bands 11 (O2) and 15 (water vapour) are not used. Note that the broadband albedo covers the
+ * MERIS spectral range only (400-900nm), not the full solar spectrum.
+ */
+public class SnowBroadbandAlbedo {
+
+    public static final int BROADBAND = 0;
+    public static final int VIS = 1;
+    public static final int NIR = 2;
+
+    // nominal MERIS in-band solar irradiances (mW/m^2/nm)
+    static final double[] MERIS_SOLAR_FLUXES = new double[]{
+            1714.9, 1872.4, 1926.6, 1930.2, 1804.2, 1651.5, 1531.4, 1475.6,
+            1408.9, 1265.5, 1255.4, 1178.0, 955.0, 914.2, 882.8
+    };
+
+    // integration limits (nm) of the broadband, visible and NIR albedo
+    private static final double[][] RANGES = new double[][]{
+            {400.0, 900.0}, {400.0, 700.0}, {700.0, 900.0}
+    };
+
+    private static final boolean[] USED_BANDS = new boolean[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+    private static final double[][] WEIGHTS = new double[RANGES.length][];
+
+    static {
+        for (int i = 0; i < USED_BANDS.length; i++) {
+            USED_BANDS[i] = i != 10 && i != 14;
+        }
+        for (int k = 0; k < RANGES.length; k++) {
+            WEIGHTS[k] = createWeights(EnvisatConstants.MERIS_WAVELENGTHS, MERIS_SOLAR_FLUXES, USED_BANDS,
+                                       RANGES[k][0], RANGES[k][1]);
+        }
+    }
+
+    private SnowBroadbandAlbedo() {
+    }
+
+    /**
+     * @return flags of the MERIS bands which are needed for the integrated albedos
+     */
+    public static boolean[] getUsedBands() {
+        return USED_BANDS.clone();
+    }
+
+    /**
+     * This method integrates the snow albedo spectrum.
+     *
+     * @param albedoSpectrum - snow albedo of the MERIS bands (at least the bands given by {@link #getUsedBands()})
+     * @param range          - {@link #BROADBAND}, {@link #VIS} or {@link #NIR}
+     * @return the integrated albedo, or the no-data value if a contributing band is invalid
+     */
+    public static double getAlbedo(double[] albedoSpectrum, int range) {
+        final double[] weights = WEIGHTS[range];
+        double albedo = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0.0) {
+                final double spectralAlbedo = albedoSpectrum[i];
+                if (!(spectralAlbedo >= 0.0)) {
+                    return SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE;
+                }
+                albedo += weights[i] * spectralAlbedo;
+            }
+        }
+        return albedo;
+    }
+
+    /**
+     * @param range - {@link #BROADBAND}, {@link #VIS} or {@link #NIR}
+     * @return the normalized spectral weights of the range (a copy)
+     */
+    static double[] getWeights(int range) {
+        return WEIGHTS[range].clone();
+    }
+
+    static double[] createWeights(float[] wavelengths, double[] solarFluxes, boolean[] usedBands,
+                                  double lowerLimit, double upperLimit) {
+        final double[] weights = new double[wavelengths.length];
+        double sum = 0.0;
+        int previous = -1;
+        for (int i = 0; i < wavelengths.length; i++) {
+            if (!usedBands[i]) {
+                continue;
+            }
+            int next = i + 1;
+            while (next < wavelengths.length && !usedBands[next]) {
+                next++;
+            }
+            double lower = previous < 0 ? lowerLimit : 0.5 * (wavelengths[previous] + wavelengths[i]);
+            double upper = next >= wavelengths.length ? upperLimit : 0.5 * (wavelengths[i] + wavelengths[next]);
+            lower = Math.max(lower, lowerLimit);
+            upper = Math.min(upper, upperLimit);
+            if (upper > lower) {
+                weights[i] = solarFluxes[i] * (upper - lower);
+                sum += weights[i];
+            }
+            previous = i;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= sum;
+        }
+        return weights;
+    }
+}
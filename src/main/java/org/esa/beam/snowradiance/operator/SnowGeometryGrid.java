@@ -0,0 +1,198 @@
+package org.esa.beam.snowradiance.operator;
+
+import java.awt.Rectangle;
+
+/**
+ * Geometry terms of the snow grain size / pollution / albedo retrieval for one tile: the reflection
+ * function (see {@link SnowReflectionFunction}) and the escape functions u(mus), u(muv) of sun and view
+ * direction. (mus and muv themselves enter the retrieval only through the escape functions.)
+ * <p/>
+ * The terms depend on the MERIS tie-point geometry only, which is smooth over many pixels. They are
+ * therefore evaluated exactly on a coarse grid of nodes and bilinearly interpolated in between. The
+ * interpolation error is checked at the centres of all grid cells; if it exceeds the given bound, the
+ * grid is refined, down to a step of one pixel, which is the exact per-pixel computation.
+ */
+public class SnowGeometryGrid {
+
+    public static final double DEFAULT_MAX_ERROR = 1.0E-4;
+
+    private final Rectangle rectangle;
+    private final int gridStep;
+    private final double interpolationError;
+    private final double[] reflFunction;
+    private final double[] escapeFunctionSun;
+    private final double[] escapeFunctionView;
+
+    private SnowGeometryGrid(Rectangle rectangle, int gridStep, double interpolationError,
+                             double[] reflFunction, double[] escapeFunctionSun, double[] escapeFunctionView) {
+        this.rectangle = rectangle;
+        this.gridStep = gridStep;
+        this.interpolationError = interpolationError;
+        this.reflFunction = reflFunction;
+        this.escapeFunctionSun = escapeFunctionSun;
+        this.escapeFunctionView = escapeFunctionView;
+    }
+
+    /**
+     * This method creates the geometry terms for a tile from the tile sample arrays
+     * (see {@link org.esa.beam.framework.gpf.Tile#getSamplesFloat()}).
+     *
+     * @param saa       - sun azimuth samples
+     * @param sza       - sun zenith samples
+     * @param vaa       - view azimuth samples
+     * @param vza       - view zenith samples
+     * @param rectangle - the tile rectangle
+     * @param gridStep  - initial step of the node grid in pixels (1 for exact per-pixel computation)
+     * @param maxError  - maximum absolute interpolation error allowed for each of the terms
+     * @param reflectionFunction - the reflection function
+     * @return SnowGeometryGrid
+     */
+    public static SnowGeometryGrid create(final float[] saa, final float[] sza, final float[] vaa, final float[] vza,
+                                          final Rectangle rectangle, int gridStep, double maxError,
+                                          SnowReflectionFunction reflectionFunction) {
+        return create(new AngleSource() {
+            public void getAngles(int x, int y, double[] angles) {
+                final int index = (y - rectangle.y) * rectangle.width + (x - rectangle.x);
+                angles[0] = saa[index];
+                angles[1] = sza[index];
+                angles[2] = vaa[index];
+                angles[3] = vza[index];
+            }
+        }, rectangle, gridStep, maxError, reflectionFunction);
+    }
+
+    static SnowGeometryGrid create(AngleSource angleSource, Rectangle rectangle, int gridStep, double maxError,
+                                   SnowReflectionFunction reflectionFunction) {
+        int step = Math.max(gridStep, 1);
+        while (true) {
+            final TileNodeGrid nodeGrid = new TileNodeGrid(rectangle.width, rectangle.height, step);
+            final int[] xNodes = nodeGrid.getXNodes();
+            final int[] yNodes = nodeGrid.getYNodes();
+            final double[][] nodeValues = computeNodeValues(angleSource, reflectionFunction, rectangle,
+                                                               xNodes, yNodes);
+            final double error = step > 1 ? computeInterpolationError(angleSource, reflectionFunction, rectangle,
+                                                                      xNodes, yNodes, nodeValues) : 0.0;
+            if (step == 1 || error <= maxError) {
+                final int size = rectangle.width * rectangle.height;
+                final double[] reflFunction = new double[size];
+                final double[] escapeFunctionSun = new double[size];
+                final double[] escapeFunctionView = new double[size];
+                nodeGrid.interpolate(nodeValues[0], reflFunction);
+                nodeGrid.interpolate(nodeValues[1], escapeFunctionSun);
+                nodeGrid.interpolate(nodeValues[2], escapeFunctionView);
+                return new SnowGeometryGrid(rectangle, step, error,
+                                            reflFunction, escapeFunctionSun, escapeFunctionView);
+            }
+            step /= 2;
+        }
+    }
+
+    /**
+     * @return the step of the node grid finally used (1 means exact per-pixel computation)
+     */
+    public int getGridStep() {
+        return gridStep;
+    }
+
+    /**
+     * @return the maximum interpolation error found at the check points
+     */
+    public double getInterpolationError() {
+        return interpolationError;
+    }
+
+    public double getReflFunction(int x, int y) {
+        return reflFunction[getIndex(x, y)];
+    }
+
+    public double getEscapeFunctionSun(int x, int y) {
+        return escapeFunctionSun[getIndex(x, y)];
+    }
+
+    public double getEscapeFunctionView(int x, int y) {
+        return escapeFunctionView[getIndex(x, y)];
+    }
+
+    /**
+     * @param x - pixel x
+     * @param y - pixel y
+     * @return u(mus)*u(muv), as used by the retrievals in {@link SnowGrainSizePollutionRetrieval}
+     */
+    public double getEscapeFunctionProduct(int x, int y) {
+        final int index = getIndex(x, y);
+        return escapeFunctionSun[index] * escapeFunctionView[index];
+    }
+
+    /**
+     * Access to sun azimuth, sun zenith, view azimuth and view zenith (degree) of a pixel.
+     */
+    interface AngleSource {
+
+        void getAngles(int x, int y, double[] angles);
+    }
+
+    private int getIndex(int x, int y) {
+        return (y - rectangle.y) * rectangle.width + (x - rectangle.x);
+    }
+
+    private static double[][] computeNodeValues(AngleSource angleSource, SnowReflectionFunction reflectionFunction,
+                                                Rectangle rectangle, int[] xNodes, int[] yNodes) {
+        final double[][] nodeValues = new double[3][xNodes.length * yNodes.length];
+        final double[] angles = new double[4];
+        final double[] values = new double[3];
+        int index = 0;
+        for (int yNode : yNodes) {
+            for (int xNode : xNodes) {
+                computeExact(angleSource, reflectionFunction, rectangle.x + xNode, rectangle.y + yNode, angles, values);
+                nodeValues[0][index] = values[0];
+                nodeValues[1][index] = values[1];
+                nodeValues[2][index] = values[2];
+                index++;
+            }
+        }
+        return nodeValues;
+    }
+
+    private static double computeInterpolationError(AngleSource angleSource, SnowReflectionFunction reflectionFunction,
+                                                    Rectangle rectangle, int[] xNodes, int[] yNodes,
+                                                    double[][] nodeValues) {
+        final double[] angles = new double[4];
+        final double[] values = new double[3];
+        double maxError = 0.0;
+        for (int j = 0; j < yNodes.length - 1 || j == 0; j++) {
+            final int j1 = Math.min(j + 1, yNodes.length - 1);
+            final int yCentre = (yNodes[j] + yNodes[j1]) / 2;
+            final double fy = yNodes[j1] > yNodes[j] ? (double) (yCentre - yNodes[j]) / (yNodes[j1] - yNodes[j]) : 0.0;
+            for (int i = 0; i < xNodes.length - 1 || i == 0; i++) {
+                final int i1 = Math.min(i + 1, xNodes.length - 1);
+                final int xCentre = (xNodes[i] + xNodes[i1]) / 2;
+                final double fx = xNodes[i1] > xNodes[i] ? (double) (xCentre - xNodes[i]) / (xNodes[i1] - xNodes[i]) : 0.0;
+                computeExact(angleSource, reflectionFunction, rectangle.x + xCentre, rectangle.y + yCentre, angles, values);
+                for (int k = 0; k < 3; k++) {
+                    final double[] v = nodeValues[k];
+                    final int nx = xNodes.length;
+                    final double interpolated = TileNodeGrid.interpolate(v[j * nx + i], v[j * nx + i1],
+                                                                         v[j1 * nx + i], v[j1 * nx + i1], fx, fy);
+                    final double error = Math.abs(interpolated - values[k]);
+                    // NaN geometry counts as not interpolable
+                    if (!(error <= maxError)) {
+                        maxError = Double.isNaN(error) ? Double.POSITIVE_INFINITY : error;
+                    }
+                }
+            }
+        }
+        return maxError;
+    }
+
+    static void computeExact(AngleSource angleSource, SnowReflectionFunction reflectionFunction, int x, int y,
+                             double[] angles, double[] values) {
+        angleSource.getAngles(x, y, angles);
+        final double saa = angles[0];
+        final double sza = angles[1];
+        final double vaa = angles[2];
+        final double vza = angles[3];
+        values[0] = reflectionFunction.getReflectance(saa, sza, vaa, vza);
+        values[1] = SnowGrainSizePollutionRetrieval.getEscapeFunction(sza);
+        values[2] = SnowGrainSizePollutionRetrieval.getEscapeFunction(vza);
+    }
+}
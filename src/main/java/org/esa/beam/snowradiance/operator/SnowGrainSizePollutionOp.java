@@ -1,8 +1,6 @@
 package org.esa.beam.snowradiance.operator;
 
 import com.bc.ceres.core.ProgressMonitor;
-import com.bc.jnn.JnnException;
-import com.bc.jnn.JnnNet;
 import org.esa.beam.dataio.envisat.EnvisatConstants;
 import org.esa.beam.framework.datamodel.Band;
 import org.esa.beam.framework.datamodel.FlagCoding;
@@ -61,10 +59,15 @@ public class SnowGrainSizePollutionOp extends Operator {
     private boolean computeSnowGrainSize;
 
     @Parameter(defaultValue = "true",
-               description = "Compute snow albedo",
+               description = "Compute snow albedo (one band per MERIS band)",
                label = "Compute snow albedo")
     private boolean computeSnowAlbedo;
 
+    @Parameter(defaultValue = "false",
+               description = "Compute broadband, visible and NIR snow albedo (integrated over the MERIS bands)",
+               label = "Compute broadband snow albedo")
+    private boolean computeBroadbandSnowAlbedo;
+
     @Parameter(defaultValue = "false",
                description = "Compute snow soot content",
                label = "Compute snow soot content")
@@ -92,6 +95,28 @@ public class SnowGrainSizePollutionOp extends Operator {
                label = "Apply cloud mask")
     private boolean applyCloudMask;
 
+    @Parameter(defaultValue = SnowOpticsKernel.REFERENCE,
+               valueSet = {SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH},
+               description = "Implementation of the snow grain size, soot and albedo kernels",
+               label = "Snow optics kernel")
+    private String snowOpticsKernel;
+
+    @Parameter(defaultValue = SnowReflectionFunction.APPROXIMATION,
+               valueSet = {SnowReflectionFunction.APPROXIMATION, SnowReflectionFunction.LUT},
+               description = "Snow reflection function: asymptotic approximation, or corrected with the reflection LUT",
+               label = "Snow reflection function")
+    private String snowReflectionFunction;
+
+    @Parameter(defaultValue = "1", interval = "[1, 64]",
+               description = "Step (pixels) of the grid on which the snow retrieval geometry terms are computed exactly (1: every pixel)",
+               label = "Geometry grid step")
+    private int geometryGridStep;
+
+    @Parameter(defaultValue = "1.0E-4", interval = "(0.0, 1.0]",
+               description = "Maximum interpolation error of the geometry terms; the grid is refined if exceeded",
+               label = "Geometry grid max. error")
+    private double geometryGridMaxError;
+
     @Parameter(defaultValue = "0.8", interval = "[0.0, 1.0]",
                description = "Cloud probability threshold",
                label = "Cloud probability threshold")
@@ -103,6 +128,9 @@ public class SnowGrainSizePollutionOp extends Operator {
 
     private Product cloudProbabilityProduct;
     private Band[] merisReflectanceBands;
+    private SnowRadianceBandPlan bandPlan;
+    private SnowOpticsKernel snowOptics;
+    private SnowReflectionFunction snowReflection;
 
 
     /**
@@ -127,6 +155,12 @@ public class SnowGrainSizePollutionOp extends Operator {
      */
     @Override
     public void initialize() throws OperatorException {
+        snowOptics = SnowOpticsKernel.getInstance(snowOpticsKernel);
+        try {
+            snowReflection = SnowReflectionFunction.getInstance(snowReflectionFunction);
+        } catch (IOException e) {
+            throw new OperatorException("Failed to read reflection LUT:\n" + e.getMessage(), e);
+        }
 
         if (applyCloudMask) {
             Map<String, Product> cloudProbabilityInput = new HashMap<String, Product>(1);
@@ -139,6 +173,7 @@ public class SnowGrainSizePollutionOp extends Operator {
         }
 
         createTargetProduct();
+        createBandPlan();
 
         ProductUtils.copyTiePointGrids(merisProduct, targetProduct);
         ProductUtils.copyGeoCoding(merisProduct, targetProduct);
@@ -167,6 +202,31 @@ public class SnowGrainSizePollutionOp extends Operator {
         SnowRadianceUtils.setupGlobAlbedoCloudscreeningBitmasks(merisProduct, targetProduct);
     }
 
+    private void createBandPlan() {
+        bandPlan = new SnowRadianceBandPlan();
+        bandPlan.setBand(SnowRadianceBandPlan.SNOWRADIANCE_FLAGS, targetProduct.getBand(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.UNPOLLUTED_SNOW_GRAIN_SIZE, targetProduct.getBand(SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.SOOT_CONCENTRATION, targetProduct.getBand(SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.WATER_VAPOUR, targetProduct.getBand(WV_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.NDVI, targetProduct.getBand(NDVI_BAND_NAME));
+        bandPlan.setBand(SnowRadianceBandPlan.MDSI, targetProduct.getBand(MDSI_BAND_NAME));
+        if (applyCloudMask) {
+            bandPlan.setBand(SnowRadianceBandPlan.CLOUD_PROBABILITY, targetProduct.getBand("cloud_probability"));
+        }
+        for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
+            bandPlan.setBand(SnowRadianceBandPlan.SNOW_ALBEDO + i, targetProduct.getBand(SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME + "_" + i));
+        }
+        for (int k = 0; k < SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES.length; k++) {
+            bandPlan.setBand(SnowRadianceBandPlan.INTEGRATED_ALBEDO + k, targetProduct.getBand(SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES[k]));
+        }
+
+        // the l1 flags are just passed through...
+        final Band l1FlagsBand = targetProduct.getBand("l1_flags");
+        if (l1FlagsBand != null) {
+            bandPlan.addCopiedBand(l1FlagsBand, merisProduct.getBand("l1_flags"));
+        }
+    }
+
     private void createTargetProductBands() {
 
         if (copyInputBands) {
@@ -211,13 +271,22 @@ public class SnowGrainSizePollutionOp extends Operator {
             }
         }
 
+        if (computeBroadbandSnowAlbedo) {
+            for (String bandName : SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES) {
+                Band integratedAlbedoBand = targetProduct.addBand(bandName, ProductData.TYPE_FLOAT32);
+                integratedAlbedoBand.setNoDataValue(SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE);
+                integratedAlbedoBand.setNoDataValueUsed(SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE_USED);
+                integratedAlbedoBand.setUnit("dl");
+            }
+        }
+
         // complementary quantities
         if (computeMerisWaterVapour) {
             Band wvBand = targetProduct.addBand(WV_BAND_NAME, ProductData.TYPE_FLOAT32);
             wvBand.setDescription("NDSI");
             wvBand.setNoDataValue(-1.0f);
             wvBand.setNoDataValueUsed(true);
-            wvBand.setUnit("kg/m^2");
+            wvBand.setUnit("g/cm^2");
         }
 
         if (computeMerisNdvi) {
@@ -247,216 +316,256 @@ public class SnowGrainSizePollutionOp extends Operator {
     }
 
     /**
-     * Called by the framework in order to compute a tile for the given target band.
-     * <p>The default implementation throws a runtime exception with the message "not implemented".</p>
+     * Called by the framework in order to compute the stack of tiles for the given target bands.
+     * All source tiles are fetched once as sample arrays, the results are written to the target tiles
+     * in one bulk set each, and the per-pixel intermediates (cloud test, reflection function,
+     * particle absorption length) are computed once and shared by all requested target tiles.
      *
-     * @param targetBand The target band.
-     * @param targetTile The current tile associated with the target band to be computed.
-     * @param pm         A progress monitor which should be used to determine computation cancelation requests.
+     * @param targetTiles     The current tiles to be computed for each target band.
+     * @param targetRectangle The area in pixel coordinates to be computed (same for all rasters in <code>targetRasters</code>).
+     * @param pm              A progress monitor which should be used to determine computation cancelation requests.
      * @throws org.esa.beam.framework.gpf.OperatorException
-     *          If an error occurs during computation of the target raster.
+     *          If an error occurs during computation of the target rasters.
      */
     @Override
-    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+    public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
 
-        JnnNet neuralNetWv;
-        try {
-            neuralNetWv = SnowRadianceAuxData.getInstance().loadNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
-        } catch (IOException e) {
-            throw new OperatorException("Failed to read WV neural net:\n" + e.getMessage(), e);
-        } catch (JnnException e) {
-            throw new OperatorException("Failed to load WV neural net:\n" + e.getMessage(), e);
-        }
-
-        Rectangle rectangle = targetTile.getRectangle();
+        Tile zonalWindTile = getSourceTile(merisProduct.getTiePointGrid("zonal_wind"), targetRectangle);
+        Tile meridWindTile = getSourceTile(merisProduct.getTiePointGrid("merid_wind"), targetRectangle);
+        Tile saMerisTile = getSourceTile(merisProduct.getTiePointGrid("sun_azimuth"), targetRectangle);
+        Tile szMerisTile = getSourceTile(merisProduct.getTiePointGrid("sun_zenith"), targetRectangle);
+        Tile vaMerisTile = getSourceTile(merisProduct.getTiePointGrid("view_azimuth"), targetRectangle);
+        Tile vzMerisTile = getSourceTile(merisProduct.getTiePointGrid("view_zenith"), targetRectangle);
 
-        Tile zonalWindTile = getSourceTile(merisProduct.getTiePointGrid("zonal_wind"), rectangle);
-        Tile meridWindTile = getSourceTile(merisProduct.getTiePointGrid("merid_wind"), rectangle);
-        Tile saMerisTile = getSourceTile(merisProduct.getTiePointGrid("sun_azimuth"), rectangle);
-        Tile szMerisTile = getSourceTile(merisProduct.getTiePointGrid("sun_zenith"), rectangle);
-        Tile vaMerisTile = getSourceTile(merisProduct.getTiePointGrid("view_azimuth"), rectangle);
-        Tile vzMerisTile = getSourceTile(merisProduct.getTiePointGrid("view_zenith"), rectangle);
-
-        Tile merisRad14Tile = getSourceTile(merisProduct.getBand("radiance_14"), rectangle);
-        Tile merisRad15Tile = getSourceTile(merisProduct.getBand("radiance_15"), rectangle);
+        Tile merisRad14Tile = getSourceTile(merisProduct.getBand("radiance_14"), targetRectangle);
+        Tile merisRad15Tile = getSourceTile(merisProduct.getBand("radiance_15"), targetRectangle);
 
         Tile[] merisSpectralBandTiles = new Tile[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
         for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
-            merisSpectralBandTiles[i] = getSourceTile(merisReflectanceBands[i], rectangle);
+            merisSpectralBandTiles[i] = getSourceTile(merisReflectanceBands[i], targetRectangle);
         }
 
-        Tile merisRefl2Tile = merisSpectralBandTiles[1];
-        Tile merisRefl12Tile = merisSpectralBandTiles[11];
-        Tile merisRefl13Tile = merisSpectralBandTiles[12];
-        Tile merisRefl14Tile = merisSpectralBandTiles[13];
-
-        Tile merisL1FlagsTile = getSourceTile(merisProduct.getBand(("l1_flags")), rectangle);
-
         Tile cloudProbTile = null;
         if (applyCloudMask) {
-            cloudProbTile = getSourceTile(cloudProbabilityProduct.getBand(CloudProbabilityOp.CLOUD_PROP_BAND), rectangle);
+            cloudProbTile = getSourceTile(cloudProbabilityProduct.getBand(CloudProbabilityOp.CLOUD_PROP_BAND), targetRectangle);
         }
 
-        int x0 = rectangle.x;
-        int y0 = rectangle.y;
-        int w = rectangle.width;
-        int h = rectangle.height;
+        // target tiles (null if the band is not requested)...
+        Tile flagTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.SNOWRADIANCE_FLAGS);
+        Tile unpollutedSnowGrainSizeTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.UNPOLLUTED_SNOW_GRAIN_SIZE);
+        Tile sootConcentrationTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.SOOT_CONCENTRATION);
+        Tile[] snowAlbedoTiles = bandPlan.getTiles(targetTiles, SnowRadianceBandPlan.SNOW_ALBEDO,
+                                                   EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS);
+        Tile[] integratedAlbedoTiles = bandPlan.getTiles(targetTiles, SnowRadianceBandPlan.INTEGRATED_ALBEDO,
+                                                         SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES.length);
+        Tile wvTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.WATER_VAPOUR);
+        Tile ndviTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.NDVI);
+        Tile mdsiTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.MDSI);
+        Tile cloudProbTargetTile = bandPlan.getTile(targetTiles, SnowRadianceBandPlan.CLOUD_PROBABILITY);
+        // only the requested albedo bands are handled in the pixel loop...
+        final int[] snowAlbedoIndices = SnowRadianceBandPlan.getRequestedIndices(snowAlbedoTiles);
+        final int[] integratedAlbedoIndices = SnowRadianceBandPlan.getRequestedIndices(integratedAlbedoTiles);
+        final boolean integratedAlbedoRequested = integratedAlbedoIndices.length > 0;
+
+        // flag bands which are just passed through from the source product...
+        for (int i = 0; i < bandPlan.getNumCopiedBands(); i++) {
+            final Tile copiedTile = targetTiles.get(bandPlan.getCopiedTargetBand(i));
+            if (copiedTile != null) {
+                copiedTile.setSamples(getSourceTile(bandPlan.getCopiedSourceBand(i), targetRectangle).getSamplesInt());
+            }
+        }
+
+        CompiledNeuralNet neuralNetWv = null;
+        if (wvTile != null) {
+            try {
+                neuralNetWv = SnowRadianceAuxData.getCompiledNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
+            } catch (IOException e) {
+                throw new OperatorException("Failed to read WV neural net:\n" + e.getMessage(), e);
+            }
+        }
+
+        // source samples of the tile, row by row (only those needed for the requested bands)...
+        final float[] saMeris = saMerisTile.getSamplesFloat();
+        final float[] szMeris = szMerisTile.getSamplesFloat();
+        final float[] vaMeris = vaMerisTile.getSamplesFloat();
+        final float[] vzMeris = vzMerisTile.getSamplesFloat();
+        final float[] cloudProb = cloudProbTile != null ? cloudProbTile.getSamplesFloat() : null;
+
+        SnowGeometryGrid geometryGrid = null;
+        if (doSnowGrainSizePollutionRetrieval()) {
+            geometryGrid = SnowGeometryGrid.create(saMeris, szMeris, vaMeris, vzMeris,
+                                                   targetRectangle, geometryGridStep, geometryGridMaxError,
+                                                   snowReflection);
+        }
+        // snow properties of the current pixel, shared by grain size, soot concentration and albedo bands...
+        final boolean[] integratedAlbedoBands = SnowBroadbandAlbedo.getUsedBands();
+        final boolean[] snowAlbedoBands = new boolean[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        final boolean[] reflectanceBands = new boolean[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        for (int i = 0; i < snowAlbedoBands.length; i++) {
+            snowAlbedoBands[i] = snowAlbedoTiles[i] != null || (integratedAlbedoRequested && integratedAlbedoBands[i]);
+            reflectanceBands[i] = snowAlbedoBands[i] || i == SnowOpticsResult.REFL_442_INDEX ||
+                                  i == SnowOpticsResult.ALBEDO_865_INDEX;
+        }
+        final float[][] merisSpectralBands = new float[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS][];
+        for (int i = 0; i < merisSpectralBands.length; i++) {
+            final boolean needed = (geometryGrid != null && reflectanceBands[i]) ||
+                                   (ndviTile != null && (i == 11 || i == 12)) ||
+                                   (mdsiTile != null && (i == 12 || i == 13));
+            if (needed) {
+                merisSpectralBands[i] = merisSpectralBandTiles[i].getSamplesFloat();
+            }
+        }
+        final double[] merisReflectances = new double[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+        final SnowOpticsResult snowOpticsResult = new SnowOpticsResult();
+
+        // target samples, written back to the tiles at the end...
+        final int[] flags = flagTile != null ? new int[targetRectangle.width * targetRectangle.height] : null;
+        final float[] unpollutedSnowGrainSize = createSamples(unpollutedSnowGrainSizeTile);
+        final float[] sootConcentration = createSamples(sootConcentrationTile);
+        final float[][] snowAlbedo = new float[snowAlbedoIndices.length][];
+        for (int n = 0; n < snowAlbedoIndices.length; n++) {
+            snowAlbedo[n] = createSamples(snowAlbedoTiles[snowAlbedoIndices[n]]);
+        }
+        final float[][] integratedAlbedo = new float[integratedAlbedoIndices.length][];
+        for (int n = 0; n < integratedAlbedoIndices.length; n++) {
+            integratedAlbedo[n] = createSamples(integratedAlbedoTiles[integratedAlbedoIndices[n]]);
+        }
+        final float[] waterVapour = createSamples(wvTile);
+        final float[] ndvi = createSamples(ndviTile);
+        final float[] mdsi = createSamples(mdsiTile);
+        final float[][] cloudySamples = SnowRadianceBandPlan.getRequestedSamples(unpollutedSnowGrainSize, sootConcentration);
+
+        int x0 = targetRectangle.x;
+        int y0 = targetRectangle.y;
+        int w = targetRectangle.width;
+        int h = targetRectangle.height;
+        WaterVapourBatchRetrieval waterVapourRetrieval = null;
+        float[] zonalWind = null;
+        float[] meridWind = null;
+        float[] merisRad14 = null;
+        float[] merisRad15 = null;
+        if (wvTile != null) {
+            waterVapourRetrieval = new WaterVapourBatchRetrieval(neuralNetWv, w);
+            zonalWind = zonalWindTile.getSamplesFloat();
+            meridWind = meridWindTile.getSamplesFloat();
+            merisRad14 = merisRad14Tile.getSamplesFloat();
+            merisRad15 = merisRad15Tile.getSamplesFloat();
+        }
+        final float[] merisRefl12 = merisSpectralBands[11];
+        final float[] merisRefl13 = merisSpectralBands[12];
+        final float[] merisRefl14 = merisSpectralBands[13];
         for (int y = y0; y < y0 + h; y++) {
+            final int rowOffset = (y - y0) * w;
+            if (waterVapourRetrieval != null) {
+                waterVapourRetrieval.computeWaterVapour(zonalWind, meridWind, saMeris, szMeris, vaMeris, vzMeris,
+                                                        merisRad14, merisRad15, rowOffset, w, waterVapour);
+            }
             for (int x = x0; x < x0 + w; x++) {
 
                 if (pm.isCanceled()) {
                     break;
                 }
 
-                if (targetBand.isFlagBand() && targetBand.getName().equals("l1_flags")) {
-                    targetTile.setSample(x, y, merisL1FlagsTile.getSampleInt(x, y));
-                } else {
-
-                    // first determine cloud mask...
-                    boolean considerPixelAsCloudy = applyCloudMask && isCloud(cloudProbTile, x, y);
-
-                    if (!considerPixelAsCloudy) {
+                final int index = rowOffset + x - x0;
 
-                        // snow grain size / pollution retrieval...
-                        if (doSnowGrainSizePollutionRetrieval()) {
-                            double saa = saMerisTile.getSampleDouble(x, y);
-                            double sza = szMerisTile.getSampleDouble(x, y);
-                            double vaa = vaMerisTile.getSampleDouble(x, y);
-                            double vza = vzMerisTile.getSampleDouble(x, y);
-                            double reflFunction;
+                // first determine cloud mask...
+                boolean considerPixelAsCloudy = cloudProb != null && cloudProb[index] > cloudProbabilityThreshold;
 
-                            if (x == 800 && y == 151) {
-                                System.out.println();
-                            }
-                            reflFunction = SnowGrainSizePollutionRetrieval.computeReflLutApprox(saa, sza, vaa, vza);
-
-                            double merisRefl2 = merisRefl2Tile.getSampleDouble(x, y);
-                            double merisRefl13 = merisRefl13Tile.getSampleDouble(x, y);
-                            double unpollutedSnowGrainSize;
-
-                            if (computeSnowGrainSize && targetBand.getName().equals(SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NAME)) {
-                                double pal =
-                                        SnowGrainSizePollutionRetrieval.getParticleAbsorptionLength(merisRefl2, merisRefl13, reflFunction, sza, vza);
-                                if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(pal)) {
-                                    unpollutedSnowGrainSize =
-                                            SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
-                                    if (SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(unpollutedSnowGrainSize)) {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
-                                    } else {
-                                        targetTile.setSample(x, y, unpollutedSnowGrainSize);
-                                    }
-                                } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE);
-                                }
-                            }
+                if (!considerPixelAsCloudy) {
 
-                            if (computeSnowSootContent && targetBand.getName().equals(SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NAME)) {
-                                double pal =
-                                        SnowGrainSizePollutionRetrieval.getParticleAbsorptionLength(merisRefl2, merisRefl13, reflFunction, sza, vza);
-                                if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(pal)) {
-                                    unpollutedSnowGrainSize =
-                                            SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
-                                    if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(unpollutedSnowGrainSize)) {
-                                        double sootConcentration = SnowGrainSizePollutionRetrieval.getSootConcentrationInPollutedSnow(
-                                                merisRefl13, reflFunction, sza, vza, unpollutedSnowGrainSize);
-                                        if (SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(sootConcentration)) {
-                                            targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                        } else {
-                                            targetTile.setSample(x, y, sootConcentration);
-                                        }
-                                    } else {
-                                        targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                    }
-                                } else {
-                                    targetTile.setSample(x, y, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE);
-                                }
-                            }
-
-                            if (computeSnowAlbedo &&
-                                    targetBand.getName().startsWith(SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME)) {
-                                int snowAlbedoBandPrefixLength = SnowRadianceConstants.SNOW_ALBEDO_BAND_NAME.length();
-                                String snowAlbedoBandIndexString = targetBand.getName().
-                                        substring(snowAlbedoBandPrefixLength + 1, targetBand.getName().length());
-                                int snowAlbedoBandIndex = Integer.parseInt(snowAlbedoBandIndexString);
-                                double merisRefl = merisSpectralBandTiles[snowAlbedoBandIndex].getSampleDouble(x, y);
-                                double snowAlbedo =
-                                        SnowGrainSizePollutionRetrieval.getSnowAlbedo(merisRefl, reflFunction, sza, vza);
-                                targetTile.setSample(x, y, snowAlbedo);
-                            }
+                    // snow grain size / pollution retrieval...
+                    if (geometryGrid != null) {
+                        final double reflFunction = geometryGrid.getReflFunction(x, y);
+                        final double escapeFunctionProduct = geometryGrid.getEscapeFunctionProduct(x, y);
 
-                            if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_NO_AATSR, true);
-                                targetTile.setSample(x, y, SnowRadianceConstants.F_UNSPECIFIED, true);
+                        for (int i = 0; i < merisReflectances.length; i++) {
+                            if (reflectanceBands[i]) {
+                                merisReflectances[i] = merisSpectralBands[i][index];
                             }
-
+                        }
+                        snowOptics.computeSnowOptics(merisReflectances, reflFunction, escapeFunctionProduct,
+                                                     unpollutedSnowGrainSize != null,
+                                                     sootConcentration != null,
+                                                     snowAlbedoBands, snowOpticsResult);
+                        setSample(unpollutedSnowGrainSize, index, snowOpticsResult.getGrainSize());
+                        setSample(sootConcentration, index, snowOpticsResult.getSootConcentration());
+                        for (int n = 0; n < snowAlbedo.length; n++) {
+                            snowAlbedo[n][index] = (float) snowOpticsResult.getAlbedo(snowAlbedoIndices[n]);
+                        }
+                        for (int n = 0; n < integratedAlbedo.length; n++) {
+                            integratedAlbedo[n][index] = (float) SnowBroadbandAlbedo.getAlbedo(snowOpticsResult.getAlbedo(),
+                                                                                               integratedAlbedoIndices[n]);
                         }
 
-                    } else {
-                        if (targetBand.getName().equals(SnowRadianceConstants.SNOWRADIANCE_FLAG_BAND_NAME)) {
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_CLOUD, true);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_SNOW, false);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_ICE, false);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_UNSPECIFIED, false);
-                            targetTile.setSample(x, y, SnowRadianceConstants.F_NO_AATSR, true);
-                        } else {
-                            targetTile.setSample(x, y, (SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE));
+                        if (flags != null) {
+                            flags[index] = (1 << SnowRadianceConstants.F_NO_AATSR) |
+                                           (1 << SnowRadianceConstants.F_UNSPECIFIED);
                         }
                     }
 
-
-                    // complementary quantities...
-                    float merisViewAzimuth = vaMerisTile.getSampleFloat(x, y);
-                    float merisSunAzimuth = saMerisTile.getSampleFloat(x, y);
-                    final float zonalWind = zonalWindTile.getSampleFloat(x, y);
-                    final float meridWind = meridWindTile.getSampleFloat(x, y);
-                    float merisAzimuthDifference = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(merisViewAzimuth,
-                                                                                                                       merisSunAzimuth);
-                    final float merisViewZenith = vzMerisTile.getSampleFloat(x, y);
-                    final float merisSunZenith = szMerisTile.getSampleFloat(x, y);
-                    final float merisRad14 = merisRad14Tile.getSampleFloat(x, y);
-                    final float merisRad15 = merisRad15Tile.getSampleFloat(x, y);
-
-                    if (computeMerisWaterVapour && targetBand.getName().equals(WV_BAND_NAME)) {
-                        final float merisWaterVapourColumn = SnowTemperatureEmissivityRetrieval.computeWaterVapour(neuralNetWv, zonalWind, meridWind, merisAzimuthDifference,
-                                                                                                                   merisViewZenith, merisSunZenith, merisRad14, merisRad15);
-                        targetTile.setSample(x, y, merisWaterVapourColumn);
+                } else {
+                    if (flags != null) {
+                        flags[index] = (1 << SnowRadianceConstants.F_CLOUD) | (1 << SnowRadianceConstants.F_NO_AATSR);
                     }
-
-                    if (computeMerisNdvi && targetBand.getName().equals(NDVI_BAND_NAME)) {
-                        final float merisRefl12 = merisRefl12Tile.getSampleFloat(x, y);
-                        final float merisRefl13 = merisRefl13Tile.getSampleFloat(x, y);
-                        final double ndvi = (merisRefl12 - merisRefl13) / (merisRefl12 + merisRefl13);
-                        targetTile.setSample(x, y, ndvi);
+                    for (float[] samples : cloudySamples) {
+                        samples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
                     }
-
-                    if (computeMerisMdsi && targetBand.getName().equals(MDSI_BAND_NAME)) {
-                        final float merisRefl13 = merisRefl13Tile.getSampleFloat(x, y);
-                        final float merisRefl14 = merisRefl14Tile.getSampleFloat(x, y);
-                        final double mdsi = (merisRefl13 - merisRefl14) / (merisRefl13 + merisRefl14);
-                        targetTile.setSample(x, y, mdsi);
+                    for (float[] snowAlbedoSamples : snowAlbedo) {
+                        snowAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
+                    }
+                    for (float[] integratedAlbedoSamples : integratedAlbedo) {
+                        integratedAlbedoSamples[index] = (float) SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
                     }
                 }
-                if (applyCloudMask && targetBand.getName().equals("cloud_probability")) {
-                    targetTile.setSample(x, y, cloudProbTile.getSampleFloat(x, y));
+
+                // complementary quantities...
+                if (ndvi != null) {
+                    ndvi[index] = (float) ((merisRefl12[index] - merisRefl13[index]) / (merisRefl12[index] + merisRefl13[index]));
+                }
+
+                if (mdsi != null) {
+                    mdsi[index] = (float) ((merisRefl13[index] - merisRefl14[index]) / (merisRefl13[index] + merisRefl14[index]));
                 }
             }
         }
-    }
 
-    private boolean isCloud(Tile cloudProbTile, int x, int y) {
-        boolean isCloud;
-        if (!applyCloudMask) {
-            return false;
+        if (flagTile != null) {
+            flagTile.setSamples(flags);
+        }
+        setSamples(unpollutedSnowGrainSizeTile, unpollutedSnowGrainSize);
+        setSamples(sootConcentrationTile, sootConcentration);
+        for (int n = 0; n < snowAlbedoIndices.length; n++) {
+            snowAlbedoTiles[snowAlbedoIndices[n]].setSamples(snowAlbedo[n]);
         }
+        for (int n = 0; n < integratedAlbedoIndices.length; n++) {
+            integratedAlbedoTiles[integratedAlbedoIndices[n]].setSamples(integratedAlbedo[n]);
+        }
+        setSamples(wvTile, waterVapour);
+        setSamples(ndviTile, ndvi);
+        setSamples(mdsiTile, mdsi);
+        if (cloudProbTargetTile != null) {
+            cloudProbTargetTile.setSamples(cloudProb);
+        }
+    }
+
+    private static float[] createSamples(Tile tile) {
+        return tile != null ? new float[tile.getWidth() * tile.getHeight()] : null;
+    }
 
-        float cloudProb = cloudProbTile.getSampleFloat(x, y);
-        isCloud = (cloudProb > cloudProbabilityThreshold);
+    private static void setSample(float[] samples, int index, double value) {
+        if (samples != null) {
+            samples[index] = (float) value;
+        }
+    }
 
-        return isCloud;
+    private static void setSamples(Tile tile, float[] samples) {
+        if (tile != null) {
+            tile.setSamples(samples);
+        }
     }
 
     private boolean doSnowGrainSizePollutionRetrieval() {
-        return (computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo);
+        return (computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo || computeBroadbandSnowAlbedo);
     }
 
 
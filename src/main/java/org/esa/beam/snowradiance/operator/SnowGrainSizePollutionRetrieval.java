@@ -25,17 +25,46 @@ public class SnowGrainSizePollutionRetrieval {
      * @return  pal
      */
     public static double getParticleAbsorptionLength(double reflMeas2, double reflMeas13, double reflLut, double sunZenith, double viewZenith) {
-        final double mus = Math.cos(sunZenith* MathUtils.DTOR);
-        final double muv = Math.cos(viewZenith* MathUtils.DTOR);
-        final double uMus = 3.0*(1.0 + 2.0*mus)/7.0;
-        final double uMuv = 3.0*(1.0 + 2.0*muv)/7.0;
+        return getParticleAbsorptionLength(reflMeas2, reflMeas13, reflLut,
+                                           getEscapeFunction(sunZenith) * getEscapeFunction(viewZenith));
+    }
+
+    /**
+     * This method computes the unpolluted snow grain particle absorption length as
+     * {@link #getParticleAbsorptionLength(double, double, double, double, double)}, but from the
+     * product of the escape functions of sun and view direction.
+     *
+     * @param reflMeas2 - meas. reflectance  442nm
+     * @param reflMeas13 - meas. reflectance  865nm
+     * @param reflLut  - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return  pal
+     */
+    public static double getParticleAbsorptionLength(double reflMeas2, double reflMeas13, double reflLut,
+                                                     double escapeFunctionProduct) {
+        return getParticleAbsorptionLengthFromAlbedo(reflMeas2, getSnowAlbedo(reflMeas13, reflLut, escapeFunctionProduct),
+                                                     reflLut, escapeFunctionProduct);
+    }
 
+    /**
+     * This method computes the unpolluted snow grain particle absorption length as
+     * {@link #getParticleAbsorptionLength(double, double, double, double)}, but from the snow albedo
+     * at 865nm instead of the reflectance, e.g. if the albedo is computed anyway.
+     *
+     * @param reflMeas2 - meas. reflectance  442nm
+     * @param albedo13 - snow albedo 865nm
+     * @param reflLut  - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return  pal
+     */
+    public static double getParticleAbsorptionLengthFromAlbedo(double reflMeas2, double albedo13, double reflLut,
+                                                               double escapeFunctionProduct) {
         final double d5 = Math.log(reflMeas2 / reflLut) * Math.log(reflMeas2 / reflLut);
-        final double fff = uMus * uMuv / reflLut;
+        final double fff = escapeFunctionProduct / reflLut;
 
         final double gas = 2.25726172818651127 / 3.0; // asymmetry parameter
 
-        final double albs = getSnowAlbedo(reflMeas13, reflLut, sunZenith, viewZenith);
+        final double albs = albedo13;
         final double aksi = Math.log(albs)*Math.log(albs)/16.0;
         final double omega = (1.0 - 3.0*aksi)/(1.0-3.0*aksi*gas);
         final double b1 = 1.0 - omega;
@@ -80,19 +109,32 @@ public class SnowGrainSizePollutionRetrieval {
      public static double getSootConcentrationInPollutedSnow(double reflMeas2, double reflLut,
                                                       double sunZenith, double viewZenith,
                                                       double grainSize) {
+         return getSootConcentrationInPollutedSnow(reflMeas2, reflLut,
+                                                   getEscapeFunction(sunZenith) * getEscapeFunction(viewZenith),
+                                                   grainSize);
+     }
 
-         // variable names taken from Fortran breadboard - could be replaced by meaningful ones!
+     /**
+     * This method computes the soot concentration in polluted snow as
+     * {@link #getSootConcentrationInPollutedSnow(double, double, double, double, double)}, but from the
+     * product of the escape functions of sun and view direction.
+     *
+     * @param reflMeas2 - meas. reflectance
+     * @param reflLut  - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @param grainSize - snow grain size
+     * @return  conc
+     */
+     public static double getSootConcentrationInPollutedSnow(double reflMeas2, double reflLut,
+                                                             double escapeFunctionProduct, double grainSize) {
 
-         final double mus = Math.cos(sunZenith * MathUtils.DTOR);
-         final double muv = Math.cos(viewZenith * MathUtils.DTOR);
-         final double uMus = 3.0 * (1.0 + 2.0 * mus) / 7.0;
-         final double uMuv = 3.0 * (1.0 + 2.0 * muv) / 7.0;
+         // variable names taken from Fortran breadboard - could be replaced by meaningful ones!
 
          final double akaps = 0.46;
          final double gamsot = 4.0 * Math.PI * akaps/(MERIS_REFL2_WAVELENGTH*1.E-3);
 
          final double d5 = Math.log(reflMeas2 / reflLut) * Math.log(reflMeas2 / reflLut);
-         final double fff = uMus * uMuv / reflLut;
+         final double fff = escapeFunctionProduct / reflLut;
          final double gas = 2.25726172818651127 / 3.0; // asymmetry parameter
          final double alpha = 16.0 * fff * fff / (3.0 * (1.0 - gas));
          final double be = d5 / alpha;
@@ -114,16 +156,36 @@ public class SnowGrainSizePollutionRetrieval {
      * @return  size
      */
     public static double getSnowAlbedo(double reflMeas, double reflLut, double sunZenith, double viewZenith) {
-        final double mus = Math.cos(sunZenith* MathUtils.DTOR);
-        final double muv = Math.cos(viewZenith* MathUtils.DTOR);
-        final double uMus = 3.0*(1.0 + 2.0*mus)/7.0;
-        final double uMuv = 3.0*(1.0 + 2.0*muv)/7.0;
-        final double f = uMus*uMuv/reflLut;
+        return getSnowAlbedo(reflMeas, reflLut, getEscapeFunction(sunZenith) * getEscapeFunction(viewZenith));
+    }
+
+    /**
+     * This method computes the snow albedo as {@link #getSnowAlbedo(double, double, double, double)},
+     * but from the product of the escape functions of sun and view direction.
+     *
+     * @param reflMeas - meas. reflectance
+     * @param reflLut  - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return  albedo
+     */
+    public static double getSnowAlbedo(double reflMeas, double reflLut, double escapeFunctionProduct) {
+        final double f = escapeFunctionProduct/reflLut;
         final double albedo = Math.pow(reflMeas/reflLut, 1.0/f);
 
         return albedo;
     }
 
+    /**
+     * This method computes the escape function u(mu) = 3(1 + 2mu)/7 for a sun or view zenith angle.
+     *
+     * @param zenith - sun or view zenith (degree)
+     * @return  u
+     */
+    public static double getEscapeFunction(double zenith) {
+        final double mu = Math.cos(zenith* MathUtils.DTOR);
+        return 3.0*(1.0 + 2.0*mu)/7.0;
+    }
+
     /**
      * This method computes the 'LUT reflectance' from asymptotic approximation.
      * This is also line-by-line copy of the Fortran breadboard implementation, but simple here.
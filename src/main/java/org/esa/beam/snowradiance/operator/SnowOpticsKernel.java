@@ -0,0 +1,337 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.snowradiance.util.SnowRadianceUtils;
+
+/**
+ * Kernels of the snow grain size, soot concentration and snow albedo retrieval
+ * (see {@link SnowGrainSizePollutionRetrieval}). Three variants are available:
+ * <ul>
+ * <li>{@link #REFERENCE}: the breadboard implementation in {@link SnowGrainSizePollutionRetrieval} (default)</li>
+ * <li>{@link #OPTIMIZED}: the same formulas with hoisted constants and shared logarithms; the snow albedo
+ * needed for the particle absorption length is taken as logarithm directly, without Math.pow.
+ * Results agree with the reference up to rounding.</li>
+ * <li>{@link #FAST_MATH}: as {@link #OPTIMIZED}, but with polynomial approximations of log and exp
+ * (relative error below 1E-9). This only pays off on JVMs without intrinsics for Math.log/Math.exp;
+ * current HotSpot VMs are faster with {@link #OPTIMIZED}.</li>
+ * </ul>
+ */
+public abstract class SnowOpticsKernel {
+
+    public static final String REFERENCE = "reference";
+    public static final String OPTIMIZED = "optimized";
+    public static final String FAST_MATH = "fastMath";
+
+    /**
+     * This method returns the kernel for the given name.
+     *
+     * @param name - one of {@link #REFERENCE}, {@link #OPTIMIZED}, {@link #FAST_MATH}
+     * @return SnowOpticsKernel
+     */
+    public static SnowOpticsKernel getInstance(String name) {
+        if (REFERENCE.equals(name)) {
+            return ReferenceKernel.INSTANCE;
+        } else if (OPTIMIZED.equals(name)) {
+            return OptimizedKernel.INSTANCE;
+        } else if (FAST_MATH.equals(name)) {
+            return FastMathKernel.INSTANCE;
+        }
+        throw new IllegalArgumentException("Unknown snow optics kernel: " + name);
+    }
+
+    /**
+     * @param reflMeas2             - meas. reflectance  442nm
+     * @param reflMeas13            - meas. reflectance  865nm
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return the particle absorption length
+     * @see SnowGrainSizePollutionRetrieval#getParticleAbsorptionLength(double, double, double, double)
+     */
+    public abstract double getParticleAbsorptionLength(double reflMeas2, double reflMeas13, double reflLut,
+                                                       double escapeFunctionProduct);
+
+    /**
+     * @param reflMeas2             - meas. reflectance  442nm
+     * @param albedo13              - snow albedo  865nm
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return the particle absorption length
+     * @see SnowGrainSizePollutionRetrieval#getParticleAbsorptionLengthFromAlbedo(double, double, double, double)
+     */
+    public abstract double getParticleAbsorptionLengthFromAlbedo(double reflMeas2, double albedo13, double reflLut,
+                                                                 double escapeFunctionProduct);
+
+    /**
+     * @param reflMeas2             - meas. reflectance
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @param grainSize             - snow grain size
+     * @return the soot concentration
+     * @see SnowGrainSizePollutionRetrieval#getSootConcentrationInPollutedSnow(double, double, double, double)
+     */
+    public abstract double getSootConcentrationInPollutedSnow(double reflMeas2, double reflLut,
+                                                              double escapeFunctionProduct, double grainSize);
+
+    /**
+     * @param reflMeas              - meas. reflectance
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @return the snow albedo
+     * @see SnowGrainSizePollutionRetrieval#getSnowAlbedo(double, double, double)
+     */
+    public abstract double getSnowAlbedo(double reflMeas, double reflLut, double escapeFunctionProduct);
+
+    /**
+     * This method computes the snow albedo spectrum of one pixel in a single pass over the bands.
+     * The default implementation calls {@link #getSnowAlbedo(double, double, double)} for each band,
+     * subclasses may share the terms which are common to all bands.
+     *
+     * @param merisReflectances     - MERIS reflectances of all spectral bands
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @param albedoBands           - flags of the bands for which the snow albedo is requested
+     * @param albedo                - the albedo spectrum to fill (bands not requested are left unchanged)
+     */
+    public void getSnowAlbedoSpectrum(double[] merisReflectances, double reflLut, double escapeFunctionProduct,
+                                      boolean[] albedoBands, double[] albedo) {
+        for (int i = 0; i < albedoBands.length; i++) {
+            if (albedoBands[i]) {
+                albedo[i] = getSnowAlbedo(merisReflectances[i], reflLut, escapeFunctionProduct);
+            }
+        }
+    }
+
+    /**
+     * This method computes all requested snow properties of one pixel: particle absorption length,
+     * unpolluted snow grain size, soot concentration and snow albedo. Intermediate results are shared,
+     * e.g. the particle absorption length is computed once for grain size and soot concentration, and the
+     * snow albedo at 865nm is shared between the albedo output and the particle absorption length.
+     * As in the breadboard, the soot concentration is computed from the 865nm reflectance.
+     *
+     * @param merisReflectances     - MERIS reflectances of all spectral bands (only the bands 2, 13 and the
+     *                              requested albedo bands are used)
+     * @param reflLut               - reflectance from LUT or asymtotic theory
+     * @param escapeFunctionProduct - product of the escape functions u(mus)*u(muv)
+     * @param computeGrainSize      - if true, compute particle absorption length and grain size
+     * @param computeSoot           - if true, compute the soot concentration (requires the grain size)
+     * @param albedoBands           - flags of the bands for which the snow albedo is requested
+     * @param result                - the result to fill
+     */
+    public void computeSnowOptics(double[] merisReflectances, double reflLut, double escapeFunctionProduct,
+                                  boolean computeGrainSize, boolean computeSoot, boolean[] albedoBands,
+                                  SnowOpticsResult result) {
+        result.reset();
+        final double[] albedo = result.getAlbedo();
+        getSnowAlbedoSpectrum(merisReflectances, reflLut, escapeFunctionProduct, albedoBands, albedo);
+
+        if (computeGrainSize || computeSoot) {
+            final double pal;
+            if (albedoBands[SnowOpticsResult.ALBEDO_865_INDEX]) {
+                pal = getParticleAbsorptionLengthFromAlbedo(merisReflectances[SnowOpticsResult.REFL_442_INDEX],
+                                                            albedo[SnowOpticsResult.ALBEDO_865_INDEX],
+                                                            reflLut, escapeFunctionProduct);
+            } else {
+                pal = getParticleAbsorptionLength(merisReflectances[SnowOpticsResult.REFL_442_INDEX],
+                                                  merisReflectances[SnowOpticsResult.ALBEDO_865_INDEX],
+                                                  reflLut, escapeFunctionProduct);
+            }
+            if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(pal)) {
+                result.setParticleAbsorptionLength(pal);
+                final double grainSize = SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
+                if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(grainSize)) {
+                    result.setGrainSize(grainSize);
+                    if (computeSoot) {
+                        final double sootConcentration = getSootConcentrationInPollutedSnow(
+                                merisReflectances[SnowOpticsResult.ALBEDO_865_INDEX], reflLut,
+                                escapeFunctionProduct, grainSize);
+                        if (!SnowRadianceUtils.snowGrainSizePollutionAlgoFailed(sootConcentration)) {
+                            result.setSootConcentration(sootConcentration);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class ReferenceKernel extends SnowOpticsKernel {
+
+        private static final ReferenceKernel INSTANCE = new ReferenceKernel();
+
+        @Override
+        public double getParticleAbsorptionLength(double reflMeas2, double reflMeas13, double reflLut,
+                                                  double escapeFunctionProduct) {
+            return SnowGrainSizePollutionRetrieval.getParticleAbsorptionLength(reflMeas2, reflMeas13, reflLut,
+                                                                               escapeFunctionProduct);
+        }
+
+        @Override
+        public double getParticleAbsorptionLengthFromAlbedo(double reflMeas2, double albedo13, double reflLut,
+                                                            double escapeFunctionProduct) {
+            return SnowGrainSizePollutionRetrieval.getParticleAbsorptionLengthFromAlbedo(reflMeas2, albedo13, reflLut,
+                                                                                         escapeFunctionProduct);
+        }
+
+        @Override
+        public double getSootConcentrationInPollutedSnow(double reflMeas2, double reflLut,
+                                                         double escapeFunctionProduct, double grainSize) {
+            return SnowGrainSizePollutionRetrieval.getSootConcentrationInPollutedSnow(reflMeas2, reflLut,
+                                                                                      escapeFunctionProduct, grainSize);
+        }
+
+        @Override
+        public double getSnowAlbedo(double reflMeas, double reflLut, double escapeFunctionProduct) {
+            return SnowGrainSizePollutionRetrieval.getSnowAlbedo(reflMeas, reflLut, escapeFunctionProduct);
+        }
+    }
+
+    private static class OptimizedKernel extends SnowOpticsKernel {
+
+        private static final OptimizedKernel INSTANCE = new OptimizedKernel();
+
+        // constants of the breadboard formulas, see SnowGrainSizePollutionRetrieval
+        private static final double GAS = 2.25726172818651127 / 3.0; // asymmetry parameter
+        private static final double B = 0.84;
+        private static final double AKAPS = 0.46;
+        private static final double LAMBDA13 = SnowGrainSizePollutionRetrieval.MERIS_REFL13_WAVELENGTH * 1.E-3;
+        private static final double LAMBDA2 = SnowGrainSizePollutionRetrieval.MERIS_REFL2_WAVELENGTH * 1.E-3;
+        private static final double GAMSOT13 = 4.0 * Math.PI * AKAPS / LAMBDA13;
+        private static final double GAMSOT2 = 4.0 * Math.PI * AKAPS / LAMBDA2;
+        private static final double ABC = 4.0 / Math.sqrt(3.0 * (1.0 - GAS));
+        private static final double ALF7_FACTOR = ABC * Math.sqrt(2.0 * B * GAMSOT2 / 3.0);
+        private static final double BETS_FACTOR = 2.0 * B * GAMSOT13 / 3.0;
+        private static final double ALPHA_FACTOR = 16.0 / (3.0 * (1.0 - GAS));
+        private static final double SOOT_FACTOR = 3.0 * 1.E9 / (2.0 * B * GAMSOT2);
+        // absorption length of ice at 865nm
+        private static final double L0 =
+                LAMBDA13 / (4.0 * Math.PI * SnowGrainSizePollutionRetrieval.refractiveIndexImaginaryPart);
+
+        @Override
+        public double getParticleAbsorptionLength(double reflMeas2, double reflMeas13, double reflLut,
+                                                  double escapeFunctionProduct) {
+            // log of the snow albedo at 865nm, albs = (reflMeas13/reflLut)^(1/fff)
+            final double logAlbs = log(reflMeas13 / reflLut) * reflLut / escapeFunctionProduct;
+            return getParticleAbsorptionLengthFromLogAlbedo(reflMeas2, logAlbs, reflLut, escapeFunctionProduct);
+        }
+
+        @Override
+        public double getParticleAbsorptionLengthFromAlbedo(double reflMeas2, double albedo13, double reflLut,
+                                                            double escapeFunctionProduct) {
+            return getParticleAbsorptionLengthFromLogAlbedo(reflMeas2, log(albedo13), reflLut, escapeFunctionProduct);
+        }
+
+        private double getParticleAbsorptionLengthFromLogAlbedo(double reflMeas2, double logAlbs, double reflLut,
+                                                                double escapeFunctionProduct) {
+            final double logRefl2 = log(reflMeas2 / reflLut);
+            final double d5 = logRefl2 * logRefl2;
+            final double fff = escapeFunctionProduct / reflLut;
+
+            final double aksi = logAlbs * logAlbs / 16.0;
+            final double omega = (1.0 - 3.0 * aksi) / (1.0 - 3.0 * aksi * GAS);
+            final double b1 = 1.0 - omega;
+
+            final double alf7 = ALF7_FACTOR * fff;
+            final double x4 = d5 / (alf7 * alf7);
+            final double bets = x4 * BETS_FACTOR;
+            final double xyz = b1 - bets;
+            final double omega0 = 1.0 - xyz;
+            return -L0 * log(1.0 - (1.0 - omega0) / 0.47);
+        }
+
+        @Override
+        public double getSootConcentrationInPollutedSnow(double reflMeas2, double reflLut,
+                                                         double escapeFunctionProduct, double grainSize) {
+            final double logRefl2 = log(reflMeas2 / reflLut);
+            final double d5 = logRefl2 * logRefl2;
+            final double fff = escapeFunctionProduct / reflLut;
+            final double alpha = ALPHA_FACTOR * fff * fff;
+            return SOOT_FACTOR * d5 / (alpha * grainSize);
+        }
+
+        @Override
+        public double getSnowAlbedo(double reflMeas, double reflLut, double escapeFunctionProduct) {
+            return exp(log(reflMeas / reflLut) * reflLut / escapeFunctionProduct);
+        }
+
+        @Override
+        public void getSnowAlbedoSpectrum(double[] merisReflectances, double reflLut, double escapeFunctionProduct,
+                                          boolean[] albedoBands, double[] albedo) {
+            // albedo = (reflMeas/reflLut)^(1/f) with the exponent 1/f = reflLut/(u(mus)*u(muv)) common to all bands
+            final double exponent = reflLut / escapeFunctionProduct;
+            final double inverseReflLut = 1.0 / reflLut;
+            for (int i = 0; i < albedoBands.length; i++) {
+                if (albedoBands[i]) {
+                    albedo[i] = exp(log(merisReflectances[i] * inverseReflLut) * exponent);
+                }
+            }
+        }
+
+        double log(double x) {
+            return Math.log(x);
+        }
+
+        double exp(double x) {
+            return Math.exp(x);
+        }
+    }
+
+    private static class FastMathKernel extends OptimizedKernel {
+
+        private static final FastMathKernel INSTANCE = new FastMathKernel();
+
+        @Override
+        double log(double x) {
+            return fastLog(x);
+        }
+
+        @Override
+        double exp(double x) {
+            return fastExp(x);
+        }
+    }
+
+    private static final double LN2 = Math.log(2.0);
+    private static final double SQRT2 = Math.sqrt(2.0);
+
+    /**
+     * This method computes the natural logarithm from exponent and mantissa of the argument,
+     * with a series approximation for the mantissa. The relative error is below 1E-9.
+     *
+     * @param x - the argument
+     * @return log(x)
+     */
+    static double fastLog(double x) {
+        if (!(x > 0.0) || Double.isInfinite(x) || x < Double.MIN_NORMAL) {
+            return Math.log(x);
+        }
+        final long bits = Double.doubleToRawLongBits(x);
+        int exponent = (int) ((bits >>> 52) & 0x7ff) - 1023;
+        double m = Double.longBitsToDouble((bits & 0x000fffffffffffffL) | 0x3ff0000000000000L);
+        if (m > SQRT2) {
+            m *= 0.5;
+            exponent++;
+        }
+        // log(m) = 2 atanh(s), s = (m - 1)/(m + 1), |s| < 0.172
+        final double s = (m - 1.0) / (m + 1.0);
+        final double s2 = s * s;
+        final double series = 1.0 + s2 * (1.0 / 3.0 + s2 * (1.0 / 5.0 + s2 * (1.0 / 7.0 + s2 * (1.0 / 9.0 +
+                              s2 * (1.0 / 11.0 + s2 * (1.0 / 13.0))))));
+        return exponent * LN2 + 2.0 * s * series;
+    }
+
+    /**
+     * This method computes the exponential function by range reduction to [-ln2/2, ln2/2] and a
+     * polynomial approximation. The relative error is below 1E-9.
+     *
+     * @param x - the argument
+     * @return exp(x)
+     */
+    static double fastExp(double x) {
+        if (!(Math.abs(x) < 700.0)) {
+            return Math.exp(x);
+        }
+        final long k = Math.round(x / LN2);
+        final double r = x - k * LN2;
+        final double p = 1.0 + r * (1.0 + r * (1.0 / 2.0 + r * (1.0 / 6.0 + r * (1.0 / 24.0 + r * (1.0 / 120.0 +
+                         r * (1.0 / 720.0 + r * (1.0 / 5040.0 + r * (1.0 / 40320.0 + r * (1.0 / 362880.0)))))))));
+        return p * Double.longBitsToDouble((k + 1023) << 52);
+    }
+}
@@ -0,0 +1,81 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.dataio.envisat.EnvisatConstants;
+
+/**
+ * Snow properties retrieved for one pixel: particle absorption length, unpolluted snow grain size,
+ * soot concentration and the snow albedo spectrum (see {@link SnowOpticsKernel#computeSnowOptics}).
+ * Quantities which were not requested or could not be retrieved hold the respective no-data value.
+ * Instances are mutable, so that one instance can be re-used for all pixels of a tile.
+ */
+public class SnowOpticsResult {
+
+    /**
+     * index of the MERIS band at 442nm
+     */
+    public static final int REFL_442_INDEX = 1;
+    /**
+     * index of the MERIS band at 865nm
+     */
+    public static final int ALBEDO_865_INDEX = 12;
+
+    private double particleAbsorptionLength;
+    private double grainSize;
+    private double sootConcentration;
+    private final double[] albedo = new double[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
+
+    public SnowOpticsResult() {
+        reset();
+    }
+
+    /**
+     * This method resets all quantities to their no-data values.
+     */
+    public void reset() {
+        particleAbsorptionLength = SnowRadianceConstants.SNOW_GRAIN_SIZE_POLLUTION_NODATAVALUE;
+        grainSize = SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NODATAVALUE;
+        sootConcentration = SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE;
+        for (int i = 0; i < albedo.length; i++) {
+            albedo[i] = SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE;
+        }
+    }
+
+    public double getParticleAbsorptionLength() {
+        return particleAbsorptionLength;
+    }
+
+    void setParticleAbsorptionLength(double particleAbsorptionLength) {
+        this.particleAbsorptionLength = particleAbsorptionLength;
+    }
+
+    public double getGrainSize() {
+        return grainSize;
+    }
+
+    void setGrainSize(double grainSize) {
+        this.grainSize = grainSize;
+    }
+
+    public double getSootConcentration() {
+        return sootConcentration;
+    }
+
+    void setSootConcentration(double sootConcentration) {
+        this.sootConcentration = sootConcentration;
+    }
+
+    /**
+     * @param band - MERIS band index
+     * @return the snow albedo of the band
+     */
+    public double getAlbedo(int band) {
+        return albedo[band];
+    }
+
+    /**
+     * @return the snow albedo spectrum (not a copy)
+     */
+    double[] getAlbedo() {
+        return albedo;
+    }
+}
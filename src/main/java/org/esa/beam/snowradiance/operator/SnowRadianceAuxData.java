@@ -1,18 +1,20 @@
 package org.esa.beam.snowradiance.operator;
 
-import org.esa.beam.framework.gpf.OperatorException;
-import org.esa.beam.snowradiance.util.SnowRadianceUtils;
-import org.esa.beam.util.math.IntervalPartition;
 import org.esa.beam.util.math.LookupTable;
-import ucar.ma2.Array;
 import ucar.nc2.NetcdfFile;
-import ucar.nc2.Variable;
 
 import java.io.*;
-import java.net.URL;
-import java.net.URLDecoder;
+import java.lang.ref.SoftReference;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.bc.jnn.JnnNet;
 import com.bc.jnn.JnnException;
@@ -28,16 +30,67 @@ public class SnowRadianceAuxData {
 
     public static final String NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME = "wv_ocean_meris.nna";
 
-    private static SnowRadianceAuxData instance;
+    // compiled neural nets, immutable and shared by all threads, keyed by resource name
+    private static final Map<String, CompiledNeuralNet> compiledNeuralNets = new HashMap<String, CompiledNeuralNet>();
 
-    public static SnowRadianceAuxData getInstance() {
-        if (instance == null) {
-            instance = new SnowRadianceAuxData();
-        }
+    public static final String RTM_LUT_SET_NAME = "rtm";
+    public static final String RTM_LUT_VERSION = "1.0";
+
+    // RTM LUTs shared by all operator instances, keyed by LUT set and version
+    private static final Map<String, RtmLookupTablesCacheEntry> rtmLookupTablesCache =
+            new HashMap<String, RtmLookupTablesCacheEntry>();
+
+    public static final String REFLECTION_LUT_FILE_NAME = "reflectionLUT.dat";
 
-        return instance;
+    // reflection function LUT, read on first request and shared by all operator instances
+    private static ReflectionLutFunction reflectionLutFunction;
+
+    private SnowRadianceAuxData() {
     }
 
+    /**
+     * This method provides the reflection function backed by the reflection LUT.
+     * The LUT is read only once per JVM.
+     *
+     * @return ReflectionLutFunction - the shared (immutable) reflection function
+     * @throws IOException
+     */
+    public static synchronized ReflectionLutFunction getReflectionLutFunction() throws IOException {
+        if (reflectionLutFunction == null) {
+            final InputStream inputStream = SnowRadianceAuxData.class.getResourceAsStream(REFLECTION_LUT_FILE_NAME);
+            if (inputStream == null) {
+                throw new FileNotFoundException("Reflection LUT resource not found: " + REFLECTION_LUT_FILE_NAME);
+            }
+            reflectionLutFunction = ReflectionLutFunction.read(inputStream);
+        }
+        return reflectionLutFunction;
+    }
+
+    /**
+     * This method provides a compiled neural net (see {@link CompiledNeuralNet}).
+     * The neural net file is read only once per JVM, and the net is shared by all threads.
+     *
+     * @param filename - NN file
+     * @return CompiledNeuralNet - the shared (immutable) NN object
+     * @throws IOException
+     */
+    public static synchronized CompiledNeuralNet getCompiledNeuralNet(String filename) throws IOException {
+        CompiledNeuralNet neuralNet = compiledNeuralNets.get(filename);
+        if (neuralNet == null) {
+            final InputStream inputStream = SnowRadianceAuxData.class.getResourceAsStream(filename);
+            if (inputStream == null) {
+                throw new FileNotFoundException("Neural net resource not found: " + filename);
+            }
+            final Reader reader = new InputStreamReader(inputStream);
+            try {
+                neuralNet = CompiledNeuralNet.read(reader);
+            } finally {
+                reader.close();
+            }
+            compiledNeuralNets.put(filename, neuralNet);
+        }
+        return neuralNet;
+    }
 
     /**
      * This method reads a neural net file.
@@ -47,8 +100,11 @@ public class SnowRadianceAuxData {
      * @throws IOException
      * @throws com.bc.jnn.JnnException
      */
-    public JnnNet loadNeuralNet(String filename) throws IOException, JnnException {
-        InputStream inputStream = getClass().getResourceAsStream(filename);
+    public static JnnNet loadNeuralNet(String filename) throws IOException, JnnException {
+        InputStream inputStream = SnowRadianceAuxData.class.getResourceAsStream(filename);
+        if (inputStream == null) {
+            throw new FileNotFoundException("Neural net resource not found: " + filename);
+        }
         final InputStreamReader reader = new InputStreamReader(inputStream);
 
         JnnNet neuralNet = null;
@@ -65,126 +121,219 @@ public class SnowRadianceAuxData {
 
 
     /**
-     * This method reads all LUT files for snow temperature retrieval and creates
-     * corresponding {@link org.esa.beam.util.math.LookupTable} objects.
+     * This method creates {@link org.esa.beam.util.math.LookupTable} objects for all LUT files
+     * for snow temperature retrieval. The LUT files are read only if they are not in the cache
+     * of {@link #acquireRtmLookupTables()}.
      *
      * @return LookupTable[][]
      * @throws java.io.IOException
      */
     public static LookupTable[][] createRtmLookupTables() throws IOException {
+        final RtmLookupTables rtmLookupTables = acquireRtmLookupTables();
+        try {
+            return rtmLookupTables.getRtmLookupTables();
+        } finally {
+            releaseRtmLookupTables(rtmLookupTables);
+        }
+    }
 
-        final DecimalFormat df1 = new DecimalFormat("0");
+    public static double[][][] getTsfcFromLookupTables() throws IOException {
+        final RtmLookupTables rtmLookupTables = acquireRtmLookupTables();
+        try {
+            return rtmLookupTables.getTsfcLut();
+        } finally {
+            releaseRtmLookupTables(rtmLookupTables);
+        }
+    }
 
-        LookupTable[][] rtmLookupTables = new LookupTable
-                [SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES]
-                [SnowRadianceConstants.NUMBER_AATSR_WVL];
-
-        for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
-            for (int j = 0; j < SnowRadianceConstants.NUMBER_AATSR_WVL; j++) {
-                final String sb2 = (df1.format(SnowRadianceConstants.ATMOSPHERIC_PROFILE_INDICES[i]));
-                //  e.g.,  pr3_10.8.nc
-                final String inputFileString = "pr" + sb2 + "_" + SnowRadianceConstants.AATSR_WVL[j] + ".nc";
-
-                try {
-                    final URL url = SnowAllPropertiesOp.class.getResource(inputFileString);
-
-                    final String netcdfPath = System.getProperty("java.io.tmpdir") +
-                            File.separator + inputFileString;
-                    InputStream inputStream = SnowAllPropertiesOp.class.getResourceAsStream(inputFileString);
-                    SnowRadianceUtils.copyStreamToFile(inputStream, netcdfPath);
-
-                    final NetcdfFile netcdfFile = NetcdfFile.open(netcdfPath);
-
-                    // the variables in the netcdf file are defined like this (as obtained from an ncdump):
-                    //       float WVA(WVA_dimension_1=21);
-                    //       float EMI(EMI_dimension_1=11);
-                    //       float TEM(TEM_dimension_1=33);
-                    //       float VIE(VIE_dimension_1=9);
-                    //       float MT(WVA_dimension_1=21, EMI_dimension_2=11, TEM_dimension_3=33, VIW_dimension_4=9);
-                    //       float ST(WVA_dimension_1=21, EMI_dimension_2=11, TEM_dimension_3=33, VIW_dimension_4=9);
-
-                    final Variable wva = netcdfFile.findVariable("WVA");
-                    final Variable emi = netcdfFile.findVariable("EMI");
-                    final Variable tem = netcdfFile.findVariable("TEM");
-                    final Variable vie = netcdfFile.findVariable("VIE");
-                    final Variable mt = netcdfFile.findVariable("MT");
-
-                    final float[] wvaArray = getJavaFloat1DFromNetcdfVariable(wva);
-                    final float[] emiArray = getJavaFloat1DFromNetcdfVariable(emi);
-                    final float[] temArray = getJavaFloat1DFromNetcdfVariable(tem);
-                    final float[] vieArray = getJavaFloat1DFromNetcdfVariable(vie);
-                    for (int k = 0; k < vieArray.length; k++) {
-                        // take negative value to get increasing sequence for LUT creation
-                        vieArray[k] = -vieArray[k];
-                    }
-
-                    final Array mtArrayNc = mt.read();
-                    int mtDataSize = 1;
-                    for (int k = 0; k < 4; k++) {
-                        mtDataSize *= mt.getDimension(k).getLength();
-                    }
-                    Object mtStorage = mtArrayNc.getStorage();
-                    float[] mtArray = new float[mtDataSize];
-                    System.arraycopy(mtStorage, 0, mtArray, 0, mtDataSize);
-
-                    final IntervalPartition[] mtDimensions = IntervalPartition.createArray(
-                            vieArray, temArray, emiArray, wvaArray);
-
-                    rtmLookupTables[i][j] = new LookupTable(mtArray, mtDimensions);
-
-                } catch (UnsupportedEncodingException e) {
-                    throw new OperatorException("Failed to read RTM LUT from netcdf file.\n");
-                }
+    /**
+     * This method provides the RTM LUTs from a JVM-wide cache. The LUTs are read only on the first request
+     * (or after they have been released and reclaimed by the garbage collector), and are then shared
+     * by all callers. Each call must be balanced by a call to {@link #releaseRtmLookupTables(RtmLookupTables)}.
+     *
+     * @return RtmLookupTables - the shared (immutable) LUTs
+     * @throws java.io.IOException
+     */
+    public static RtmLookupTables acquireRtmLookupTables() throws IOException {
+        final String key = getRtmLookupTablesCacheKey(RTM_LUT_SET_NAME, RTM_LUT_VERSION);
+        synchronized (rtmLookupTablesCache) {
+            RtmLookupTablesCacheEntry entry = rtmLookupTablesCache.get(key);
+            // hold the LUTs strongly from here on, the soft reference may be cleared at any time
+            RtmLookupTables rtmLookupTables = entry != null ? entry.get() : null;
+            if (rtmLookupTables == null) {
+                rtmLookupTables = loadRtmLookupTables();
+                entry = new RtmLookupTablesCacheEntry(rtmLookupTables);
+                rtmLookupTablesCache.put(key, entry);
             }
+            entry.acquire(rtmLookupTables);
+            return rtmLookupTables;
         }
+    }
 
-        return rtmLookupTables;
+    /**
+     * This method releases RTM LUTs obtained from {@link #acquireRtmLookupTables()}.
+     * Unreferenced LUTs are kept in the cache, but may be reclaimed if memory gets low.
+     *
+     * @param rtmLookupTables - the LUTs to release (may be null)
+     */
+    public static void releaseRtmLookupTables(RtmLookupTables rtmLookupTables) {
+        if (rtmLookupTables == null) {
+            return;
+        }
+        final String key = getRtmLookupTablesCacheKey(RTM_LUT_SET_NAME, RTM_LUT_VERSION);
+        synchronized (rtmLookupTablesCache) {
+            final RtmLookupTablesCacheEntry entry = rtmLookupTablesCache.get(key);
+            if (entry != null && entry.get() == rtmLookupTables) {
+                entry.release();
+            }
+        }
     }
 
-    public static double[][][] getTsfcFromLookupTables() throws IOException {
+    static int getRtmLookupTablesReferenceCount() {
+        final String key = getRtmLookupTablesCacheKey(RTM_LUT_SET_NAME, RTM_LUT_VERSION);
+        synchronized (rtmLookupTablesCache) {
+            final RtmLookupTablesCacheEntry entry = rtmLookupTablesCache.get(key);
+            return entry != null ? entry.referenceCount : 0;
+        }
+    }
 
-        final DecimalFormat df1 = new DecimalFormat("0");
+    private static String getRtmLookupTablesCacheKey(String lutSetName, String lutVersion) {
+        return lutSetName + "-" + lutVersion;
+    }
+
+    /**
+     * This method reads all LUT files for snow temperature retrieval in one pass and creates
+     * both the RTM lookup tables and the temperature profiles from them.
+     * Each LUT file is read once directly from the classpath into memory (no temporary files),
+     * and the files are processed in parallel. The compact binary LUTs generated by the build are used
+     * if available, otherwise the original netcdf files.
+     *
+     * @return RtmLookupTables
+     * @throws java.io.IOException
+     */
+    public static RtmLookupTables loadRtmLookupTables() throws IOException {
+        final int numProfiles = SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES;
+        final int numWvl = SnowRadianceConstants.NUMBER_AATSR_WVL;
+
+        final RtmInterpolator[][] rtmInterpolators = new RtmInterpolator[numProfiles][numWvl];
+        final double[][][] tSfcLut = new double[numProfiles][numWvl][];
 
-        double[][][] tSfcLut = new double
-                [SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES]
-                [SnowRadianceConstants.NUMBER_AATSR_WVL]
-                [SnowRadianceConstants.NUMBER_TSFC_LUT];
-
-        for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
-            for (int j = 0; j < SnowRadianceConstants.NUMBER_AATSR_WVL; j++) {
-                final String sb2 = (df1.format(SnowRadianceConstants.ATMOSPHERIC_PROFILE_INDICES[i]));
-                //  e.g.,  pr3_10.8.nc
-                final String inputFileString = "pr" + sb2 + "_" + SnowRadianceConstants.AATSR_WVL[j] + ".nc";
-
-                try {
-                    final String netcdfPath = System.getProperty("java.io.tmpdir") +
-                            File.separator + inputFileString;
-                    InputStream inputStream = SnowAllPropertiesOp.class.getResourceAsStream(inputFileString);
-                    SnowRadianceUtils.copyStreamToFile(inputStream, netcdfPath);
-                    final NetcdfFile netcdfFile = NetcdfFile.open(netcdfPath);
-
-                    final Variable tsfc = netcdfFile.findVariable("TMP");
-
-                    float[] tsfcArray = getJavaFloat1DFromNetcdfVariable(tsfc);
-                    for (int k = 0; k < tsfcArray.length; k++) {
-                        tSfcLut[i][j][k] = tsfcArray[k];
-                    }
-                } catch (UnsupportedEncodingException e) {
-                    throw new OperatorException("Failed to read RTM LUT from netcdf file.\n");
+        final int numThreads = Math.min(numProfiles * numWvl, Runtime.getRuntime().availableProcessors());
+        final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>(numProfiles * numWvl);
+            for (int i = 0; i < numProfiles; i++) {
+                for (int j = 0; j < numWvl; j++) {
+                    final int profileIndex = i;
+                    final int wvlIndex = j;
+                    futures.add(executorService.submit(new Callable<Object>() {
+                        public Object call() throws IOException {
+                            readRtmLutFile(getRtmLutName(profileIndex, wvlIndex), rtmInterpolators[profileIndex],
+                                           tSfcLut[profileIndex], wvlIndex);
+                            return null;
+                        }
+                    }));
                 }
             }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading RTM LUTs.", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Failed to read RTM LUTs: " + cause.getMessage(), cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return new RtmLookupTables(rtmInterpolators, tSfcLut);
+    }
+
+    static String getRtmLutName(int profileIndex, int wvlIndex) {
+        final DecimalFormat df1 = new DecimalFormat("0");
+        final String sb2 = (df1.format(SnowRadianceConstants.ATMOSPHERIC_PROFILE_INDICES[profileIndex]));
+        //  e.g.,  pr3_10.8
+        return "pr" + sb2 + "_" + SnowRadianceConstants.AATSR_WVL[wvlIndex];
+    }
+
+    private static void readRtmLutFile(String lutName, RtmInterpolator[] rtmInterpolators, double[][] tSfcLut,
+                                       int wvlIndex) throws IOException {
+        final RtmLutFile rtmLutFile = readRtmLutFile(lutName);
+        rtmInterpolators[wvlIndex] = rtmLutFile.createInterpolator();
+        tSfcLut[wvlIndex] = rtmLutFile.getTsfc();
+    }
+
+    static RtmLutFile readRtmLutFile(String lutName) throws IOException {
+        // use the binary LUT generated by the build (see RtmLutConverter) if available
+        final byte[] binaryData = readResource(lutName + RtmLutFile.BINARY_FILE_EXTENSION);
+        if (binaryData != null) {
+            return RtmLutFile.readBinary(binaryData);
         }
 
-        return tSfcLut;
+        final String netcdfFileName = lutName + RtmLutFile.NETCDF_FILE_EXTENSION;
+        final byte[] netcdfData = readResource(netcdfFileName);
+        if (netcdfData == null) {
+            throw new FileNotFoundException("RTM LUT resource not found: " + netcdfFileName);
+        }
+        final NetcdfFile netcdfFile = NetcdfFile.openInMemory(netcdfFileName, netcdfData);
+        try {
+            return RtmLutFile.readNetcdf(netcdfFile);
+        } finally {
+            netcdfFile.close();
+        }
+    }
+
+    private static byte[] readResource(String resourceName) throws IOException {
+        final InputStream inputStream = SnowRadianceAuxData.class.getResourceAsStream(resourceName);
+        if (inputStream == null) {
+            return null;
+        }
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(1 << 20);
+            final byte[] buffer = new byte[1 << 16];
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
     }
 
-    private static float[] getJavaFloat1DFromNetcdfVariable(Variable f) throws IOException {
-        Array fArrayNc = f.read();
-        int fSize = (int) fArrayNc.getSize();
-        Object storage = fArrayNc.getStorage();
-        float[] fArray = new float[fSize];
-        System.arraycopy(storage, 0, fArray, 0, fSize);
+    // holds the LUTs strongly while referenced, and softly otherwise
+    private static class RtmLookupTablesCacheEntry {
+        private final SoftReference<RtmLookupTables> softReference;
+        private RtmLookupTables strongReference;
+        private int referenceCount;
+
+        private RtmLookupTablesCacheEntry(RtmLookupTables rtmLookupTables) {
+            softReference = new SoftReference<RtmLookupTables>(rtmLookupTables);
+        }
+
+        private RtmLookupTables get() {
+            return softReference.get();
+        }
 
-        return fArray;
+        private void acquire(RtmLookupTables rtmLookupTables) {
+            strongReference = rtmLookupTables;
+            referenceCount++;
+        }
+
+        private void release() {
+            if (referenceCount > 0) {
+                referenceCount--;
+            }
+            if (referenceCount == 0) {
+                strongReference = null;
+            }
+        }
     }
 }
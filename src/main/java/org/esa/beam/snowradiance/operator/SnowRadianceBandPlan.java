@@ -0,0 +1,137 @@
+package org.esa.beam.snowradiance.operator;
+
+import org.esa.beam.dataio.envisat.EnvisatConstants;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.RasterDataNode;
+import org.esa.beam.framework.gpf.Tile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plan of the target bands of a snow radiance operator, set up once at operator initialisation.
+ * <p/>
+ * Each computed target band is assigned to an output slot (see the slot constants), and each flag band
+ * which is just passed through is assigned to its source band. The tile computation then gets its target
+ * tiles by slot, without any band name handling.
+ */
+class SnowRadianceBandPlan {
+
+    static final int SNOWRADIANCE_FLAGS = 0;
+    static final int SNOW_TEMPERATURE = 1;
+    static final int EMISSIVITY = 2;
+    static final int UNPOLLUTED_SNOW_GRAIN_SIZE = 3;
+    static final int SOOT_CONCENTRATION = 4;
+    static final int WATER_VAPOUR = 5;
+    static final int NDVI = 6;
+    static final int NDSI = 7;
+    static final int MDSI = 8;
+    static final int CLOUD_PROBABILITY = 9;
+    /**
+     * first of the spectral snow albedo slots, one per MERIS band
+     */
+    static final int SNOW_ALBEDO = 10;
+    /**
+     * first of the integrated snow albedo slots (see {@link SnowRadianceConstants#SNOW_ALBEDO_INTEGRATED_BAND_NAMES})
+     */
+    static final int INTEGRATED_ALBEDO = SNOW_ALBEDO + EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS;
+
+    static final int NUM_SLOTS = INTEGRATED_ALBEDO + SnowRadianceConstants.SNOW_ALBEDO_INTEGRATED_BAND_NAMES.length;
+
+    private final Band[] slotBands = new Band[NUM_SLOTS];
+    private final List<Band> copiedTargetBands = new ArrayList<Band>();
+    private final List<RasterDataNode> copiedSourceBands = new ArrayList<RasterDataNode>();
+
+    /**
+     * @param slot - the output slot
+     * @param band - the target band computed into the slot, may be null if the band does not exist
+     */
+    void setBand(int slot, Band band) {
+        slotBands[slot] = band;
+    }
+
+    Band getBand(int slot) {
+        return slotBands[slot];
+    }
+
+    /**
+     * @param targetTiles - the target tiles of a tile stack
+     * @param slot        - the output slot
+     * @return the target tile of the slot, or null if the band does not exist or is not requested
+     */
+    Tile getTile(Map<Band, Tile> targetTiles, int slot) {
+        final Band band = slotBands[slot];
+        return band != null ? targetTiles.get(band) : null;
+    }
+
+    /**
+     * @param targetTiles - the target tiles of a tile stack
+     * @param firstSlot   - the first output slot
+     * @param count       - the number of consecutive slots
+     * @return the target tiles of the slots, null for bands which do not exist or are not requested
+     */
+    Tile[] getTiles(Map<Band, Tile> targetTiles, int firstSlot, int count) {
+        final Tile[] tiles = new Tile[count];
+        for (int i = 0; i < count; i++) {
+            tiles[i] = getTile(targetTiles, firstSlot + i);
+        }
+        return tiles;
+    }
+
+    /**
+     * @param targetBand - a target band which is copied from a source band
+     * @param sourceBand - the source band
+     */
+    void addCopiedBand(Band targetBand, RasterDataNode sourceBand) {
+        copiedTargetBands.add(targetBand);
+        copiedSourceBands.add(sourceBand);
+    }
+
+    int getNumCopiedBands() {
+        return copiedTargetBands.size();
+    }
+
+    Band getCopiedTargetBand(int i) {
+        return copiedTargetBands.get(i);
+    }
+
+    RasterDataNode getCopiedSourceBand(int i) {
+        return copiedSourceBands.get(i);
+    }
+
+    /**
+     * @param tiles - target tiles, null for bands not requested
+     * @return the indices of the requested tiles
+     */
+    static int[] getRequestedIndices(Tile[] tiles) {
+        int count = 0;
+        for (Tile tile : tiles) {
+            if (tile != null) {
+                count++;
+            }
+        }
+        final int[] indices = new int[count];
+        count = 0;
+        for (int i = 0; i < tiles.length; i++) {
+            if (tiles[i] != null) {
+                indices[count++] = i;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @param samples - sample arrays, null for bands not requested
+     * @return the sample arrays of the requested bands only
+     */
+    static float[][] getRequestedSamples(float[]... samples) {
+        final List<float[]> requested = new ArrayList<float[]>(samples.length);
+        for (float[] bandSamples : samples) {
+            if (bandSamples != null) {
+                requested.add(bandSamples);
+            }
+        }
+        return requested.toArray(new float[requested.size()][]);
+    }
+}
@@ -25,6 +25,12 @@ public class SnowRadianceConstants {
     public static final String[] AATSR_WVL = {"10.8", "12.0"};
 
     public static final float WATER_VAPOUR_STANDARD_VALUE = 2.8f;
+    // water vapour column used in temperature/emissivity retrieval
+    // simplification, might be sufficient (RP, 2010/04/14)
+    public static final float WATER_VAPOUR_TEMPERATURE_RETRIEVAL = 0.3f;
+    // the FUB water vapour NN gives g/cm^2 (trained on columns up to about 8 g/cm^2, see the output scaling
+    // in wv_ocean_meris.nna), the water vapour axis of the RTM LUTs is in kg/m^2 (0.1 to 30.1)
+    public static final float WATER_VAPOUR_NN_TO_RTM_FACTOR = 10.0f;
 
     public static final float EMISSIVITY_MIN = 0.95f;
     public static final float EMISSIVITY_MAX = 0.99f;
@@ -46,6 +52,8 @@ public class SnowRadianceConstants {
     public static final String SNOW_ALBEDO_BAND_NAME= "snow_albedo";
     public static final double SNOW_ALBEDO_BAND_NODATAVALUE = -1.0;
     public static final boolean SNOW_ALBEDO_BAND_NODATAVALUE_USED = true;
+    public static final String[] SNOW_ALBEDO_INTEGRATED_BAND_NAMES =
+            new String[]{"snow_albedo_broadband", "snow_albedo_vis", "snow_albedo_nir"};
 
     public static final String copyInputBandsLabel = "Copy input bands";
     public static final String computeSnowGrainSizeLabel = "Compute snow grain size";
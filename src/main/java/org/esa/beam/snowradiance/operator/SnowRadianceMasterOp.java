@@ -15,6 +15,7 @@ import org.esa.beam.snowradiance.util.SnowRadianceUtils;
 import org.esa.beam.synergy.operators.CreateSynergyOp;
 
 import javax.media.jai.JAI;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -59,10 +60,15 @@ public class SnowRadianceMasterOp extends Operator {
     private boolean computeSnowGrainSize;
 
     @Parameter(defaultValue = "true",
-               description = "Compute snow albedo",
+               description = "Compute snow albedo (one band per MERIS band)",
                label = "Compute snow albedo")
     private boolean computeSnowAlbedo;
 
+    @Parameter(defaultValue = "false",
+               description = "Compute broadband, visible and NIR snow albedo (integrated over the MERIS bands)",
+               label = "Compute broadband snow albedo")
+    private boolean computeBroadbandSnowAlbedo;
+
     @Parameter(defaultValue = "false",
                description = "Compute snow soot content",
                label = "Compute snow soot content")
@@ -127,6 +133,73 @@ public class SnowRadianceMasterOp extends Operator {
                label = "Assumed emissivity at 11 microns")
     private double assumedEmissivityAt11Microns;
 
+    @Parameter(defaultValue = "false",
+               description = "Use the atmospheric profile LUTs merged into one LUT per wavelength (within 2E-4 K)",
+               label = "Use blended RTM LUTs")
+    private boolean useBlendedRtmLuts;
+
+    @Parameter(defaultValue = "false",
+               description = "Use analytical LUT derivatives in Newton iteration for temperature and emissivity",
+               label = "Use analytical LUT derivatives")
+    private boolean useAnalyticalRtmDerivatives;
+
+    @Parameter(defaultValue = "false",
+               description = "Start Newton iteration for temperature and emissivity from the solution of the left neighbour pixel",
+               label = "Use Newton warm start")
+    private boolean useNewtonWarmStart;
+
+    @Parameter(defaultValue = "false",
+               description = "Cache temperature and emissivity retrieval results for quantized inputs",
+               label = "Use retrieval memo cache")
+    private boolean useRetrievalMemoCache;
+
+    @Parameter(defaultValue = "0.01", interval = "(0.0, 1.0]",
+               description = "Quantum of brightness temperatures (K), view zenith angle (deg) and water vapour column " +
+                             "for the retrieval memo cache",
+               label = "Retrieval memo cache quantum")
+    private float retrievalMemoCacheQuantum;
+
+    @Parameter(defaultValue = "false",
+               description = "Use precomputed inverse tables for temperature and emissivity retrieval",
+               label = "Use inverse RTM tables")
+    private boolean useRtmInverseTables;
+
+    @Parameter(description = "File to store the inverse RTM tables for re-use (optional)",
+               label = "Inverse RTM tables file")
+    private File rtmInverseTablesFile;
+
+    @Parameter(defaultValue = SnowOpticsKernel.REFERENCE,
+               valueSet = {SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH},
+               description = "Implementation of the snow grain size, soot and albedo kernels",
+               label = "Snow optics kernel")
+    private String snowOpticsKernel;
+
+    @Parameter(defaultValue = SnowReflectionFunction.APPROXIMATION,
+               valueSet = {SnowReflectionFunction.APPROXIMATION, SnowReflectionFunction.LUT},
+               description = "Snow reflection function: asymptotic approximation, or corrected with the reflection LUT",
+               label = "Snow reflection function")
+    private String snowReflectionFunction;
+
+    @Parameter(defaultValue = "1", interval = "[1, 64]",
+               description = "Step (pixels) of the grid on which the snow retrieval geometry terms are computed exactly (1: every pixel)",
+               label = "Geometry grid step")
+    private int geometryGridStep;
+
+    @Parameter(defaultValue = "1.0E-4", interval = "(0.0, 1.0]",
+               description = "Maximum interpolation error of the geometry terms; the grid is refined if exceeded",
+               label = "Geometry grid max. error")
+    private double geometryGridMaxError;
+
+    @Parameter(defaultValue = "false",
+               description = "Use water vapour from the MERIS neural net on a coarse grid for temperature and emissivity retrieval",
+               label = "Use water vapour field")
+    private boolean useWaterVapourField;
+
+    @Parameter(defaultValue = "16", interval = "[1, 64]",
+               description = "Step (pixels) of the grid on which the water vapour for temperature and emissivity retrieval is computed",
+               label = "Water vapour grid step")
+    private int waterVapourGridStep;
+
     @Parameter(defaultValue = "0.8", interval = "[0.0, 1.0]",
                description = "Cloud probability threshold",
                label = "Cloud probability threshold")
@@ -174,7 +247,8 @@ public class SnowRadianceMasterOp extends Operator {
 
         Product snowPropertiesProduct = null;
         if (computeSnowTemperatureFub || computeEmissivityFub ||
-                computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo) {
+                computeSnowGrainSize || computeSnowSootContent || computeSnowAlbedo ||
+                computeBroadbandSnowAlbedo) {
 
             if (computeSnowGrainSizePollutionOnly) {
                 Map<String, Product> snowPropertiesInput = new HashMap<String, Product>(2);
@@ -184,10 +258,15 @@ public class SnowRadianceMasterOp extends Operator {
                 snowPropertiesParams.put("copyInputBands", copyInputBands);
                 snowPropertiesParams.put("computeSnowGrainSize", computeSnowGrainSize);
                 snowPropertiesParams.put("computeSnowAlbedo", computeSnowAlbedo);
+                snowPropertiesParams.put("computeBroadbandSnowAlbedo", computeBroadbandSnowAlbedo);
                 snowPropertiesParams.put("computeSnowSootContent", computeSnowSootContent);
                 snowPropertiesParams.put("computeMerisWaterVapour", computeMerisWaterVapour);
                 snowPropertiesParams.put("computeMerisNdvi", computeMerisNdvi);
                 snowPropertiesParams.put("computeMerisMdsi", computeMerisMdsi);
+                snowPropertiesParams.put("snowOpticsKernel", snowOpticsKernel);
+                snowPropertiesParams.put("snowReflectionFunction", snowReflectionFunction);
+                snowPropertiesParams.put("geometryGridStep", geometryGridStep);
+                snowPropertiesParams.put("geometryGridMaxError", geometryGridMaxError);
                 snowPropertiesParams.put("cloudProbabilityThreshold", cloudProbabilityThreshold);
 
                 snowPropertiesProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(SnowGrainSizePollutionOp.class), snowPropertiesParams, snowPropertiesInput);
@@ -232,6 +311,7 @@ public class SnowRadianceMasterOp extends Operator {
                 snowPropertiesParams.put("computeSnowGrainSize", computeSnowGrainSize);
                 snowPropertiesParams.put("computeSnowGrainSizePollutionOnly", computeSnowGrainSizePollutionOnly);
                 snowPropertiesParams.put("computeSnowAlbedo", computeSnowAlbedo);
+                snowPropertiesParams.put("computeBroadbandSnowAlbedo", computeBroadbandSnowAlbedo);
                 snowPropertiesParams.put("computeSnowSootContent", computeSnowSootContent);
                 snowPropertiesParams.put("computeEmissivityFub", computeEmissivityFub);
                 snowPropertiesParams.put("computeSnowTemperatureFub", computeSnowTemperatureFub);
@@ -241,6 +321,21 @@ public class SnowRadianceMasterOp extends Operator {
                 snowPropertiesParams.put("computeMerisMdsi", computeMerisMdsi);
                 snowPropertiesParams.put("copyAatsrL1Flags", copyAatsrL1Flags);
                 snowPropertiesParams.put("assumedEmissivityAt11Microns", assumedEmissivityAt11Microns);
+                snowPropertiesParams.put("useBlendedRtmLuts", useBlendedRtmLuts);
+                snowPropertiesParams.put("useAnalyticalRtmDerivatives", useAnalyticalRtmDerivatives);
+                snowPropertiesParams.put("useNewtonWarmStart", useNewtonWarmStart);
+                snowPropertiesParams.put("useRetrievalMemoCache", useRetrievalMemoCache);
+                snowPropertiesParams.put("retrievalMemoCacheQuantum", retrievalMemoCacheQuantum);
+                snowPropertiesParams.put("useRtmInverseTables", useRtmInverseTables);
+                snowPropertiesParams.put("useWaterVapourField", useWaterVapourField);
+                snowPropertiesParams.put("waterVapourGridStep", waterVapourGridStep);
+                if (rtmInverseTablesFile != null) {
+                    snowPropertiesParams.put("rtmInverseTablesFile", rtmInverseTablesFile);
+                }
+                snowPropertiesParams.put("snowOpticsKernel", snowOpticsKernel);
+                snowPropertiesParams.put("snowReflectionFunction", snowReflectionFunction);
+                snowPropertiesParams.put("geometryGridStep", geometryGridStep);
+                snowPropertiesParams.put("geometryGridMaxError", geometryGridMaxError);
                 snowPropertiesParams.put("cloudProbabilityThreshold", cloudProbabilityThreshold);
                 snowPropertiesParams.put("ndsiUpperThreshold", ndsiUpperThreshold);
                 snowPropertiesParams.put("ndsiLowerThreshold", ndsiLowerThreshold);
@@ -0,0 +1,54 @@
+package org.esa.beam.snowradiance.operator;
+
+import java.io.IOException;
+
+/**
+ * Reflection function R0 of a semi-infinite non-absorbing snow layer, which is the 'LUT reflectance'
+ * of the snow grain size / pollution / albedo retrieval. Two implementations are available:
+ * <ul>
+ * <li>{@link #APPROXIMATION}: the asymptotic approximation of the breadboard
+ * ({@link SnowGrainSizePollutionRetrieval#computeReflLutApprox(double, double, double, double)})</li>
+ * <li>{@link #LUT}: the approximation corrected with the azimuthally averaged reflection function
+ * from the radiative transfer LUT (see {@link ReflectionLutFunction})</li>
+ * </ul>
+ */
+public abstract class SnowReflectionFunction {
+
+    public static final String APPROXIMATION = "approximation";
+    public static final String LUT = "lut";
+
+    /**
+     * This method provides the reflection function implementation of the given name.
+     *
+     * @param name - {@link #APPROXIMATION} or {@link #LUT}
+     * @return the (immutable) reflection function
+     * @throws IOException if the LUT cannot be read
+     */
+    public static SnowReflectionFunction getInstance(String name) throws IOException {
+        if (APPROXIMATION.equals(name)) {
+            return ApproximationFunction.INSTANCE;
+        } else if (LUT.equals(name)) {
+            return SnowRadianceAuxData.getReflectionLutFunction();
+        }
+        throw new IllegalArgumentException("Unknown reflection function: " + name);
+    }
+
+    /**
+     * @param saa - sun azimuth (deg)
+     * @param sza - sun zenith (deg)
+     * @param vaa - view azimuth (deg)
+     * @param vza - view zenith (deg)
+     * @return the reflection function
+     */
+    public abstract double getReflectance(double saa, double sza, double vaa, double vza);
+
+    private static class ApproximationFunction extends SnowReflectionFunction {
+
+        private static final ApproximationFunction INSTANCE = new ApproximationFunction();
+
+        @Override
+        public double getReflectance(double saa, double sza, double vaa, double vza) {
+            return SnowGrainSizePollutionRetrieval.computeReflLutApprox(saa, sza, vaa, vza);
+        }
+    }
+}
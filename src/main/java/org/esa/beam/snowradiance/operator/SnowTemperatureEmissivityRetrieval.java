@@ -10,6 +10,17 @@ import org.esa.beam.util.math.LookupTable;
  */
 public class SnowTemperatureEmissivityRetrieval {
 
+    public static final float EMISSIVITY_START = 0.96f; // as in breadboard: inv_aatsr.pro, l.114
+
+    // valid input ranges of the FUB water vapour neural net
+    static final float[][] WATER_VAPOUR_NN_LIMITS = new float[][]{
+            {3.75e-02f, 1.84e+01f},
+            {-6.33e-01f, 6.31e-01f},
+            {7.73e-01f, 1.00e+00f},
+            {1.60e-01f, 9.26e-01f},
+            {-6.98e-01f, 7.62e+00f}
+    };
+
     public static float getRtmSingle(float waterVapourColumn, float emissivity, float tSfc, float viewZenith,
                                      LookupTable lut) {
 
@@ -19,6 +30,11 @@ public class SnowTemperatureEmissivityRetrieval {
         return btToa;
     }
 
+    public static float getRtmSingle(float waterVapourColumn, float emissivity, float tSfc, float viewZenith,
+                                     RtmFunction rtmInterpolator) {
+        return (float) rtmInterpolator.getValue(viewZenith, tSfc, emissivity, waterVapourColumn);
+    }
+
     public static float getToaBTFromRtm(float waterVapourColumn, float emissivity, float tSfc, float viewZenith,
                                         int iwvl,
                                         LookupTable[][] rtmLookupTables, double[] tLowestLayer) {
@@ -43,11 +59,164 @@ public class SnowTemperatureEmissivityRetrieval {
         return rtm;
     }
 
+    /**
+     * This method computes the TOA brightness temperature, blended from the atmospheric profiles
+     * which bracket the surface temperature. If only one profile is given (i.e. the profiles were merged,
+     * see {@link RtmLookupTables#getBlendedRtmInterpolators()}), this is a single lookup.
+     *
+     * @param waterVapourColumn - water vapour column
+     * @param emissivity        - emissivity
+     * @param tSfc              - surface temperature
+     * @param viewZenith        - view zenith angle (degree)
+     * @param iwvl              - AATSR wavelength index
+     * @param rtmInterpolators  - RTM LUT interpolators [profile][wavelength]
+     * @param tLowestLayer      - temperatures of lowest atmospheric layer
+     * @return float
+     */
+    public static float getToaBTFromRtm(float waterVapourColumn, float emissivity, float tSfc, float viewZenith,
+                                        int iwvl,
+                                        RtmFunction[][] rtmInterpolators, double[] tLowestLayer) {
+
+        if (rtmInterpolators.length == 1) {
+            // profiles already merged
+            return getRtmSingle(waterVapourColumn, emissivity, tSfc, viewZenith, rtmInterpolators[0][iwvl]);
+        }
+
+        final int tsfcUpperIndex = SnowRadianceUtils.getNearestHigherValueIndexInDoubleArray(tSfc, tLowestLayer);
+        final int tsfcLowerIndex = SnowRadianceUtils.getNearestLowerValueIndexInDoubleArray(tSfc, tLowestLayer);
+
+        if (tsfcUpperIndex == tsfcLowerIndex) {
+            return getRtmSingle(waterVapourColumn, emissivity, tSfc, viewZenith, rtmInterpolators[tsfcUpperIndex][iwvl]);
+        }
+
+        final double btToaUpper = SnowTemperatureEmissivityRetrieval.
+                getRtmSingle(waterVapourColumn, emissivity, tSfc, viewZenith, rtmInterpolators[tsfcUpperIndex][iwvl]);
+        final double btToaLower = SnowTemperatureEmissivityRetrieval.
+                getRtmSingle(waterVapourColumn, emissivity, tSfc, viewZenith, rtmInterpolators[tsfcLowerIndex][iwvl]);
+
+        final double wLower = (tLowestLayer[tsfcUpperIndex] - tSfc) / (tLowestLayer[tsfcUpperIndex] - tLowestLayer[tsfcLowerIndex]);
+        final double wUpper = 1.0 - wLower;
+
+        float rtm = (float) (wLower * btToaLower + wUpper * btToaUpper);
+
+        return rtm;
+    }
+
+    /**
+     * This method computes the TOA brightness temperature as {@link #getToaBTFromRtm(float, float, float, float, int, RtmFunction[][], double[])},
+     * together with its derivatives with respect to surface temperature and emissivity.
+     *
+     * @param waterVapourColumn - water vapour column
+     * @param emissivity        - emissivity
+     * @param tSfc              - surface temperature
+     * @param viewZenith        - view zenith angle (degree)
+     * @param iwvl              - AATSR wavelength index
+     * @param rtmInterpolators  - RTM LUT interpolators
+     * @param tLowestLayer      - temperatures of lowest atmospheric layer
+     * @param gradient          - array of length 2 receiving dBT/dTsfc and dBT/dEmissivity
+     * @return float
+     */
+    public static float getToaBTFromRtm(float waterVapourColumn, float emissivity, float tSfc, float viewZenith,
+                                        int iwvl,
+                                        RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                        double[] gradient) {
+
+        if (rtmInterpolators.length == 1) {
+            // profiles already merged
+            return (float) rtmInterpolators[0][iwvl].getValue(viewZenith, tSfc, emissivity, waterVapourColumn,
+                                                              gradient);
+        }
+
+        final int tsfcUpperIndex = SnowRadianceUtils.getNearestHigherValueIndexInDoubleArray(tSfc, tLowestLayer);
+        final int tsfcLowerIndex = SnowRadianceUtils.getNearestLowerValueIndexInDoubleArray(tSfc, tLowestLayer);
+
+        if (tsfcUpperIndex == tsfcLowerIndex) {
+            return (float) rtmInterpolators[tsfcUpperIndex][iwvl].getValue(viewZenith, tSfc, emissivity,
+                                                                          waterVapourColumn, gradient);
+        }
+
+        final double btToaUpper = rtmInterpolators[tsfcUpperIndex][iwvl].getValue(viewZenith, tSfc, emissivity,
+                                                                                  waterVapourColumn, gradient);
+        final double dBtdTsfcUpper = gradient[0];
+        final double dBtdEmiUpper = gradient[1];
+        final double btToaLower = rtmInterpolators[tsfcLowerIndex][iwvl].getValue(viewZenith, tSfc, emissivity,
+                                                                                  waterVapourColumn, gradient);
+
+        final double tLowestLayerDiff = tLowestLayer[tsfcUpperIndex] - tLowestLayer[tsfcLowerIndex];
+        final double wLower = (tLowestLayer[tsfcUpperIndex] - tSfc) / tLowestLayerDiff;
+        final double wUpper = 1.0 - wLower;
+
+        // the profile weights depend on tSfc as well
+        gradient[0] = wLower * gradient[0] + wUpper * dBtdTsfcUpper + (btToaUpper - btToaLower) / tLowestLayerDiff;
+        gradient[1] = wLower * gradient[1] + wUpper * dBtdEmiUpper;
+
+        return (float) (wLower * btToaLower + wUpper * btToaUpper);
+    }
+
+    /**
+     * @deprecated use {@link #minimizeNewtonForTemperature(double, float, float, float, RtmFunction[][], double[])}
+     *             with the interpolators from {@link RtmLookupTables#getRtmInterpolators()}
+     */
+    @Deprecated
     public static float minimizeNewtonForTemperature(double assumedEmissivityAt11Microns, float waterVapourColumn,
                                                      float viewZenith, float aatsrBt11,
                                                      LookupTable[][] rtmLookupTables, double[] tLowestLayer) {
+        return minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11,
+                                            createRtmFunctions(rtmLookupTables), tLowestLayer);
+    }
+
+    public static float minimizeNewtonForTemperature(double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                                     float viewZenith, float aatsrBt11,
+                                                     RtmFunction[][] rtmInterpolators, double[] tLowestLayer) {
+        return minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11,
+                                            rtmInterpolators, tLowestLayer, false);
+    }
+
+    /**
+     * This method retrieves the surface temperature by Newton iteration.
+     *
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param viewZenith                   - view zenith angle (degree)
+     * @param aatsrBt11                    - AATSR brightness temperature at 11 microns
+     * @param rtmInterpolators             - RTM LUT interpolators
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative         - if true, take the derivative from the LUT interpolation cell,
+     *                                     otherwise from finite differences
+     * @return float - the surface temperature, or the no-data value if the iteration did not converge
+     */
+    public static float minimizeNewtonForTemperature(double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                                     float viewZenith, float aatsrBt11,
+                                                     RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                     boolean analyticalDerivative) {
+        return minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith, aatsrBt11,
+                                            rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                            aatsrBt11 + 0.5f, null, null);
+    }
+
+    /**
+     * This method retrieves the surface temperature by Newton iteration from a given start value.
+     *
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param viewZenith                   - view zenith angle (degree)
+     * @param aatsrBt11                    - AATSR brightness temperature at 11 microns
+     * @param rtmInterpolators             - RTM LUT interpolators
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative         - if true, take the derivative from the LUT interpolation cell,
+     *                                     otherwise from finite differences
+     * @param tSfcStart                    - start value of the iteration (the breadboard uses aatsrBt11 + 0.5)
+     * @param iterationCount               - array of length 1 receiving the number of iterations (may be null)
+     * @param gradient                     - scratch array of length 2 for the analytical derivative, re-used by
+     *                                     the caller for all pixels (may be null)
+     * @return float - the surface temperature, or the no-data value if the iteration did not converge
+     */
+    public static float minimizeNewtonForTemperature(double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                                     float viewZenith, float aatsrBt11,
+                                                     RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                     boolean analyticalDerivative, float tSfcStart,
+                                                     int[] iterationCount, double[] gradient) {
         final float emissivity = (float) assumedEmissivityAt11Microns;
-        float tSfcStart = aatsrBt11 + 0.5f;
         if (tSfcStart < SnowRadianceConstants.TSFC_MIN) {
             tSfcStart = SnowRadianceConstants.TSFC_MIN;
         }
@@ -62,18 +231,28 @@ public class SnowTemperatureEmissivityRetrieval {
         final int itermax = 5;
         int iter = 0;
         float btToa11 = 100.0f;
+        if (analyticalDerivative && gradient == null) {
+            gradient = new double[2];
+        }
         while (Math.abs(
                 btToa11 - aatsrBt11) > thresh && aatsrBt11 != SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE
                && iter < itermax) {
-            btToa11 = getToaBTFromRtm(waterVapourColumn, emissivity, tsfc, viewZenith, 0,
-                                      rtmLookupTables, tLowestLayer);
-            final float tSfcUpper = Math.min(tsfc + deltaTsfc, SnowRadianceConstants.TSFC_MAX);
-            final float tSfcLower = Math.max(tsfc - deltaTsfc, SnowRadianceConstants.TSFC_MIN);
-            final float btToa11Upper = getToaBTFromRtm(waterVapourColumn, emissivity, tSfcUpper, viewZenith, 0,
-                                                       rtmLookupTables, tLowestLayer);
-            final float btToa11Lower = getToaBTFromRtm(waterVapourColumn, emissivity, tSfcLower, viewZenith, 0,
-                                                       rtmLookupTables, tLowestLayer);
-            float derivative = ((btToa11Upper - btToa11Lower) / (tSfcUpper - tSfcLower));
+            float derivative;
+            if (analyticalDerivative) {
+                btToa11 = getToaBTFromRtm(waterVapourColumn, emissivity, tsfc, viewZenith, 0,
+                                          rtmInterpolators, tLowestLayer, gradient);
+                derivative = (float) gradient[0];
+            } else {
+                btToa11 = getToaBTFromRtm(waterVapourColumn, emissivity, tsfc, viewZenith, 0,
+                                          rtmInterpolators, tLowestLayer);
+                final float tSfcUpper = Math.min(tsfc + deltaTsfc, SnowRadianceConstants.TSFC_MAX);
+                final float tSfcLower = Math.max(tsfc - deltaTsfc, SnowRadianceConstants.TSFC_MIN);
+                final float btToa11Upper = getToaBTFromRtm(waterVapourColumn, emissivity, tSfcUpper, viewZenith, 0,
+                                                           rtmInterpolators, tLowestLayer);
+                final float btToa11Lower = getToaBTFromRtm(waterVapourColumn, emissivity, tSfcLower, viewZenith, 0,
+                                                           rtmInterpolators, tLowestLayer);
+                derivative = ((btToa11Upper - btToa11Lower) / (tSfcUpper - tSfcLower));
+            }
             if (derivative < 0.0) {
                 derivative = (float) Math.min(derivative, -eps);
             } else {
@@ -90,16 +269,78 @@ public class SnowTemperatureEmissivityRetrieval {
             iter++;
         }
 
+        if (iterationCount != null) {
+            iterationCount[0] = iter;
+        }
         if (btToa11 < 110.0f || iter == itermax) {
             tsfc = (float) SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE;
         }
         return tsfc;
     }
 
+    /**
+     * @deprecated use {@link #minimizeNewtonForEmissivity(float, float, float, float, RtmFunction[][], double[])}
+     *             with the interpolators from {@link RtmLookupTables#getRtmInterpolators()}
+     */
+    @Deprecated
     public static float minimizeNewtonForEmissivity(float waterVapourColumn, float viewZenith, float tSfc,
                                                     float aatsrBt12,
                                                     LookupTable[][] rtmLookupTables, double[] tLowestLayer) {
-        final float emissivityStart = 0.96f; // as in breadboard: inv_aatsr.pro, l.114
+        return minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                           createRtmFunctions(rtmLookupTables), tLowestLayer);
+    }
+
+    public static float minimizeNewtonForEmissivity(float waterVapourColumn, float viewZenith, float tSfc,
+                                                    float aatsrBt12,
+                                                    RtmFunction[][] rtmInterpolators, double[] tLowestLayer) {
+        return minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                           rtmInterpolators, tLowestLayer, false);
+    }
+
+    /**
+     * This method retrieves the emissivity at 12 microns by Newton iteration.
+     *
+     * @param waterVapourColumn    - water vapour column
+     * @param viewZenith           - view zenith angle (degree)
+     * @param tSfc                 - surface temperature
+     * @param aatsrBt12            - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators     - RTM LUT interpolators
+     * @param tLowestLayer         - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative - if true, take the derivative from the LUT interpolation cell,
+     *                             otherwise from finite differences
+     * @return float - the emissivity, or the no-data value if the iteration did not converge
+     */
+    public static float minimizeNewtonForEmissivity(float waterVapourColumn, float viewZenith, float tSfc,
+                                                    float aatsrBt12,
+                                                    RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                    boolean analyticalDerivative) {
+        return minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                           rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                           EMISSIVITY_START, null, null);
+    }
+
+    /**
+     * This method retrieves the emissivity at 12 microns by Newton iteration from a given start value.
+     *
+     * @param waterVapourColumn    - water vapour column
+     * @param viewZenith           - view zenith angle (degree)
+     * @param tSfc                 - surface temperature
+     * @param aatsrBt12            - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators     - RTM LUT interpolators
+     * @param tLowestLayer         - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative - if true, take the derivative from the LUT interpolation cell,
+     *                             otherwise from finite differences
+     * @param emissivityStart      - start value of the iteration (the breadboard uses {@link #EMISSIVITY_START})
+     * @param iterationCount       - array of length 1 receiving the number of iterations (may be null)
+     * @param gradient             - scratch array of length 2 for the analytical derivative, re-used by
+     *                             the caller for all pixels (may be null)
+     * @return float - the emissivity, or the no-data value if the iteration did not converge
+     */
+    public static float minimizeNewtonForEmissivity(float waterVapourColumn, float viewZenith, float tSfc,
+                                                    float aatsrBt12,
+                                                    RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                    boolean analyticalDerivative, float emissivityStart,
+                                                    int[] iterationCount, double[] gradient) {
         final float deltaEmi = 0.01f;  // as in breadboard: inv_aatsr.pro, l.11
         final float thresh = 0.01f;    // as in breadboard: inv_aatsr.pro, l.48
         float emissivity = emissivityStart;
@@ -108,21 +349,31 @@ public class SnowTemperatureEmissivityRetrieval {
         final int itermax = 5;
         int iter = 0;
         float btToa12 = 100.0f;
+        if (analyticalDerivative && gradient == null) {
+            gradient = new double[2];
+        }
         while (Math.abs(
                 btToa12 - aatsrBt12) > thresh && aatsrBt12 != SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE
                && iter < itermax) {
-            btToa12 = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emissivity, tSfc,
-                                                                         viewZenith, 1,
-                                                                         rtmLookupTables, tLowestLayer);
-            final float emisUpper = Math.min(emissivity + deltaEmi, SnowRadianceConstants.EMISSIVITY_MAX);
-            final float emisLower = Math.max(emissivity - deltaEmi, SnowRadianceConstants.EMISSIVITY_MIN);
-            float btToa12Upper = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emisUpper, tSfc,
-                                                                                    viewZenith, 1,
-                                                                                    rtmLookupTables, tLowestLayer);
-            float btToa12Lower = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emisLower, tSfc,
-                                                                                    viewZenith, 1,
-                                                                                    rtmLookupTables, tLowestLayer);
-            float derivative = (btToa12Upper - btToa12Lower) / (emisUpper - emisLower);
+            float derivative;
+            if (analyticalDerivative) {
+                btToa12 = getToaBTFromRtm(waterVapourColumn, emissivity, tSfc, viewZenith, 1,
+                                          rtmInterpolators, tLowestLayer, gradient);
+                derivative = (float) gradient[1];
+            } else {
+                btToa12 = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emissivity, tSfc,
+                                                                             viewZenith, 1,
+                                                                             rtmInterpolators, tLowestLayer);
+                final float emisUpper = Math.min(emissivity + deltaEmi, SnowRadianceConstants.EMISSIVITY_MAX);
+                final float emisLower = Math.max(emissivity - deltaEmi, SnowRadianceConstants.EMISSIVITY_MIN);
+                float btToa12Upper = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emisUpper, tSfc,
+                                                                                        viewZenith, 1,
+                                                                                        rtmInterpolators, tLowestLayer);
+                float btToa12Lower = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(waterVapourColumn, emisLower, tSfc,
+                                                                                        viewZenith, 1,
+                                                                                        rtmInterpolators, tLowestLayer);
+                derivative = (btToa12Upper - btToa12Lower) / (emisUpper - emisLower);
+            }
             if (derivative < 0.0) {
                 derivative = (float) Math.min(derivative, -eps);
             } else {
@@ -139,6 +390,9 @@ public class SnowTemperatureEmissivityRetrieval {
             iter++;
         }
 
+        if (iterationCount != null) {
+            iterationCount[0] = iter;
+        }
         if (btToa12 < 110.0f || iter == itermax) {
             emissivity = (float) SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE;
         }
@@ -146,6 +400,54 @@ public class SnowTemperatureEmissivityRetrieval {
     }
 
 
+    /**
+     * This method retrieves surface temperature and (optionally) emissivity at 12 microns for one pixel
+     * by Newton iteration, starting from the breadboard start values.
+     *
+     * @param assumedEmissivityAt11Microns - assumed emissivity at 11 microns
+     * @param waterVapourColumn            - water vapour column
+     * @param viewZenith                   - view zenith angle (degree)
+     * @param aatsrBt11                    - AATSR brightness temperature at 11 microns
+     * @param aatsrBt12                    - AATSR brightness temperature at 12 microns
+     * @param rtmInterpolators             - RTM LUT interpolators
+     * @param tLowestLayer                 - temperatures of lowest atmospheric layer
+     * @param analyticalDerivative         - if true, take the derivative from the LUT interpolation cell,
+     *                                     otherwise from finite differences
+     * @param retrieveEmissivity           - if false, only the temperature is retrieved
+     * @param result                       - the result to fill
+     */
+    public static void retrieveTemperatureAndEmissivity(double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                                        float viewZenith, float aatsrBt11, float aatsrBt12,
+                                                        RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                        boolean analyticalDerivative, boolean retrieveEmissivity,
+                                                        TemperatureEmissivityResult result) {
+        retrieveTemperatureAndEmissivity(assumedEmissivityAt11Microns, waterVapourColumn, viewZenith,
+                                         aatsrBt11, aatsrBt12, rtmInterpolators, tLowestLayer, analyticalDerivative,
+                                         retrieveEmissivity, aatsrBt11 + 0.5f, EMISSIVITY_START, result);
+    }
+
+    static void retrieveTemperatureAndEmissivity(double assumedEmissivityAt11Microns, float waterVapourColumn,
+                                                 float viewZenith, float aatsrBt11, float aatsrBt12,
+                                                 RtmFunction[][] rtmInterpolators, double[] tLowestLayer,
+                                                 boolean analyticalDerivative, boolean retrieveEmissivity,
+                                                 float tSfcStart, float emissivityStart,
+                                                 TemperatureEmissivityResult result) {
+        final int[] iterationCount = result.iterationCount;
+        final double[] gradient = result.gradient;
+        final float tSfc = minimizeNewtonForTemperature(assumedEmissivityAt11Microns, waterVapourColumn,
+                                                        viewZenith, aatsrBt11, rtmInterpolators, tLowestLayer,
+                                                        analyticalDerivative, tSfcStart, iterationCount, gradient);
+        final boolean temperatureValid = !SnowRadianceUtils.temperatureAlgoFailed(tSfc);
+        result.setTemperature(tSfc, iterationCount[0], temperatureValid);
+        if (temperatureValid && retrieveEmissivity) {
+            final float emissivity = minimizeNewtonForEmissivity(waterVapourColumn, viewZenith, tSfc, aatsrBt12,
+                                                                 rtmInterpolators, tLowestLayer,
+                                                                 analyticalDerivative, emissivityStart, iterationCount,
+                                                                 gradient);
+            result.setEmissivity(emissivity, iterationCount[0], !SnowRadianceUtils.emissivityAlgoFailed(emissivity));
+        }
+    }
+
     /**
      * This method computes the water vapour column to correct for transmission in 3.7um (and 1.6um) channel..
      * Computation by FUB neural net (IDL breadboard step 1.b.1)
@@ -181,17 +483,9 @@ public class SnowTemperatureEmissivityRetrieval {
         nnIn[3] = Math.cos(Math.toRadians(merisSunZenith));  // angle in degree!
         nnIn[4] = Math.log(Math.max(merisRadiance15, 1.0E-4) / Math.max(merisRadiance14, 1.0E-4));
 
-        final float[][] nnLimits = new float[][]{
-                {3.75e-02f, 1.84e+01f},
-                {-6.33e-01f, 6.31e-01f},
-                {7.73e-01f, 1.00e+00f},
-                {1.60e-01f, 9.26e-01f},
-                {-6.98e-01f, 7.62e+00f}
-        };
-
         boolean applyNetWv = true;
         for (int i = 0; i < nnIn.length; i++) {
-            if (nnIn[i] < nnLimits[i][0] || nnIn[i] > nnLimits[i][1]) {
+            if (nnIn[i] < WATER_VAPOUR_NN_LIMITS[i][0] || nnIn[i] > WATER_VAPOUR_NN_LIMITS[i][1]) {
                 // if any input is out of NN range, do not apply NN, keep WV to standard value
                 applyNetWv = false;
                 break;
@@ -236,4 +530,46 @@ public class SnowTemperatureEmissivityRetrieval {
         return correctedAzimuthDifference;
     }
 
+    // wraps the LookupTable objects, so that the deprecated methods take the same code path
+    static RtmFunction[][] createRtmFunctions(LookupTable[][] rtmLookupTables) {
+        final RtmFunction[][] rtmFunctions = new RtmFunction[rtmLookupTables.length][];
+        for (int i = 0; i < rtmLookupTables.length; i++) {
+            rtmFunctions[i] = new RtmFunction[rtmLookupTables[i].length];
+            for (int j = 0; j < rtmLookupTables[i].length; j++) {
+                rtmFunctions[i][j] = new LookupTableRtmFunction(rtmLookupTables[i][j]);
+            }
+        }
+        return rtmFunctions;
+    }
+
+    private static class LookupTableRtmFunction implements RtmFunction {
+
+        private static final double DELTA_TSFC = 0.1;
+        private static final double DELTA_EMISSIVITY = 0.01;
+
+        private final LookupTable lut;
+
+        private LookupTableRtmFunction(LookupTable lut) {
+            this.lut = lut;
+        }
+
+        public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn) {
+            return getRtmSingle((float) waterVapourColumn, (float) emissivity, (float) tSfc, (float) viewZenith, lut);
+        }
+
+        public double getValue(double viewZenith, double tSfc, double emissivity, double waterVapourColumn,
+                               double[] gradient) {
+            // LookupTable does not provide the interpolation cell, so take central differences with the
+            // breadboard steps of the Newton iteration
+            final double tSfcUpper = Math.min(tSfc + DELTA_TSFC, SnowRadianceConstants.TSFC_MAX);
+            final double tSfcLower = Math.max(tSfc - DELTA_TSFC, SnowRadianceConstants.TSFC_MIN);
+            final double emisUpper = Math.min(emissivity + DELTA_EMISSIVITY, SnowRadianceConstants.EMISSIVITY_MAX);
+            final double emisLower = Math.max(emissivity - DELTA_EMISSIVITY, SnowRadianceConstants.EMISSIVITY_MIN);
+            gradient[0] = (getValue(viewZenith, tSfcUpper, emissivity, waterVapourColumn) -
+                           getValue(viewZenith, tSfcLower, emissivity, waterVapourColumn)) / (tSfcUpper - tSfcLower);
+            gradient[1] = (getValue(viewZenith, tSfc, emisUpper, waterVapourColumn) -
+                           getValue(viewZenith, tSfc, emisLower, waterVapourColumn)) / (emisUpper - emisLower);
+            return getValue(viewZenith, tSfc, emissivity, waterVapourColumn);
+        }
+    }
 }
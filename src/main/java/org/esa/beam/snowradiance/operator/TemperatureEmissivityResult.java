@@ -0,0 +1,108 @@
+package org.esa.beam.snowradiance.operator;
+
+/**
+ * Result of the combined snow temperature and emissivity retrieval for one pixel.
+ * Instances are mutable, so that one instance can be re-used for all pixels of a tile.
+ */
+public class TemperatureEmissivityResult {
+
+    /**
+     * temperature and emissivity retrieved
+     */
+    public static final int STATUS_OK = 0;
+    /**
+     * temperature retrieved, emissivity not requested
+     */
+    public static final int STATUS_TEMPERATURE_ONLY = 1;
+    /**
+     * temperature retrieval failed, emissivity was not retrieved
+     */
+    public static final int STATUS_TEMPERATURE_FAILED = 2;
+    /**
+     * temperature retrieved, emissivity retrieval failed
+     */
+    public static final int STATUS_EMISSIVITY_FAILED = 3;
+
+    private float temperature;
+    private float emissivity;
+    private int temperatureIterations;
+    private int emissivityIterations;
+    private int status;
+
+    // receives the iteration count of the Newton solvers, re-used for all pixels
+    final int[] iterationCount = new int[1];
+    // receives the LUT gradient in the Newton solvers, re-used for all pixels
+    final double[] gradient = new double[2];
+
+    public TemperatureEmissivityResult() {
+        reset();
+    }
+
+    /**
+     * This method resets the result to 'nothing retrieved'.
+     */
+    public void reset() {
+        temperature = (float) SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE;
+        emissivity = (float) SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE;
+        temperatureIterations = 0;
+        emissivityIterations = 0;
+        status = STATUS_TEMPERATURE_FAILED;
+    }
+
+    void setTemperature(float temperature, int iterations, boolean valid) {
+        this.temperature = valid ? temperature : (float) SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE;
+        this.temperatureIterations = iterations;
+        this.emissivity = (float) SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE;
+        this.emissivityIterations = 0;
+        this.status = valid ? STATUS_TEMPERATURE_ONLY : STATUS_TEMPERATURE_FAILED;
+    }
+
+    void setEmissivity(float emissivity, int iterations, boolean valid) {
+        this.emissivity = valid ? emissivity : (float) SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE;
+        this.emissivityIterations = iterations;
+        this.status = valid ? STATUS_OK : STATUS_EMISSIVITY_FAILED;
+    }
+
+    /**
+     * @return the surface temperature, or the no-data value if the retrieval failed
+     */
+    public float getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * @return the emissivity at 12 microns, or the no-data value if it was not retrieved
+     */
+    public float getEmissivity() {
+        return emissivity;
+    }
+
+    /**
+     * @return the number of Newton iterations of the temperature retrieval (0 for table lookups)
+     */
+    public int getTemperatureIterations() {
+        return temperatureIterations;
+    }
+
+    /**
+     * @return the number of Newton iterations of the emissivity retrieval (0 for table lookups)
+     */
+    public int getEmissivityIterations() {
+        return emissivityIterations;
+    }
+
+    /**
+     * @return the retrieval status, one of the STATUS_* constants
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public boolean isTemperatureValid() {
+        return status != STATUS_TEMPERATURE_FAILED;
+    }
+
+    public boolean isEmissivityValid() {
+        return status == STATUS_OK;
+    }
+}
@@ -0,0 +1,142 @@
+package org.esa.beam.snowradiance.operator;
+
+/**
+ * Coarse grid of nodes over a tile, with bilinear interpolation of node values to all pixels of the tile.
+ * Used by the per-tile precomputations which evaluate smooth quantities at the nodes only
+ * ({@link SnowGeometryGrid}, {@link WaterVapourGrid}).
+ * <p/>
+ * The node offsets are 0, step, 2*step, ... in each direction, always including the last pixel of the tile.
+ * Node values are given row by row, i.e. ordered [y node][x node]. Pixels on a node get the node value as it is.
+ */
+class TileNodeGrid {
+
+    private final int width;
+    private final int height;
+    private final int[] xNodes;
+    private final int[] yNodes;
+
+    /**
+     * @param width  - tile width
+     * @param height - tile height
+     * @param step   - node step in pixels
+     */
+    TileNodeGrid(int width, int height, int step) {
+        this.width = width;
+        this.height = height;
+        xNodes = createNodes(width, step);
+        yNodes = createNodes(height, step);
+    }
+
+    /**
+     * @return the x offsets of the nodes within the tile
+     */
+    int[] getXNodes() {
+        return xNodes;
+    }
+
+    /**
+     * @return the y offsets of the nodes within the tile
+     */
+    int[] getYNodes() {
+        return yNodes;
+    }
+
+    int getNumNodes() {
+        return xNodes.length * yNodes.length;
+    }
+
+    /**
+     * @param nodeValues - the node values [y node][x node]
+     * @param values     - receives the interpolated values of all pixels of the tile
+     */
+    void interpolate(double[] nodeValues, double[] values) {
+        final Cells xCells = new Cells(xNodes, width);
+        final Cells yCells = new Cells(yNodes, height);
+        final int nx = xNodes.length;
+        for (int y = 0; y < height; y++) {
+            final int j = yCells.cells[y];
+            final int j1 = Math.min(j + 1, yNodes.length - 1);
+            final double fy = yCells.fractions[y];
+            for (int x = 0; x < width; x++) {
+                final int i = xCells.cells[x];
+                final int i1 = Math.min(i + 1, nx - 1);
+                values[y * width + x] = interpolate(nodeValues[j * nx + i], nodeValues[j * nx + i1],
+                                                    nodeValues[j1 * nx + i], nodeValues[j1 * nx + i1],
+                                                    xCells.fractions[x], fy);
+            }
+        }
+    }
+
+    /**
+     * @param nodeValues - the node values [y node][x node]
+     * @param values     - receives the interpolated values of all pixels of the tile
+     */
+    void interpolate(float[] nodeValues, float[] values) {
+        final Cells xCells = new Cells(xNodes, width);
+        final Cells yCells = new Cells(yNodes, height);
+        final int nx = xNodes.length;
+        for (int y = 0; y < height; y++) {
+            final int j = yCells.cells[y];
+            final int j1 = Math.min(j + 1, yNodes.length - 1);
+            final double fy = yCells.fractions[y];
+            for (int x = 0; x < width; x++) {
+                final int i = xCells.cells[x];
+                final int i1 = Math.min(i + 1, nx - 1);
+                values[y * width + x] = (float) interpolate(nodeValues[j * nx + i], nodeValues[j * nx + i1],
+                                                            nodeValues[j1 * nx + i], nodeValues[j1 * nx + i1],
+                                                            xCells.fractions[x], fy);
+            }
+        }
+    }
+
+    /**
+     * @param v00 - value at (x0, y0)
+     * @param v01 - value at (x1, y0)
+     * @param v10 - value at (x0, y1)
+     * @param v11 - value at (x1, y1)
+     * @param fx  - fraction in x
+     * @param fy  - fraction in y
+     * @return the bilinearly interpolated value
+     */
+    static double interpolate(double v00, double v01, double v10, double v11, double fx, double fy) {
+        final double v0 = fx == 0.0 ? v00 : v00 + fx * (v01 - v00);
+        final double v1 = fx == 0.0 ? v10 : v10 + fx * (v11 - v10);
+        return fy == 0.0 ? v0 : v0 + fy * (v1 - v0);
+    }
+
+    private static int[] createNodes(int length, int step) {
+        final int count = (length - 1 + step - 1) / step + 1;
+        final int[] nodes = new int[Math.max(count, 1)];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Math.min(i * step, length - 1);
+        }
+        return nodes;
+    }
+
+    // node cell and fraction within the cell of each pixel in one direction
+    private static class Cells {
+
+        private final int[] cells;
+        private final double[] fractions;
+
+        private Cells(int[] nodes, int length) {
+            cells = new int[length];
+            fractions = new double[length];
+            int i = 0;
+            for (int p = 0; p < length; p++) {
+                while (i < nodes.length - 2 && p >= nodes[i + 1]) {
+                    i++;
+                }
+                final int i1 = Math.min(i + 1, nodes.length - 1);
+                if (p == nodes[i1]) {
+                    // take node values as they are
+                    cells[p] = i1;
+                    fractions[p] = 0.0;
+                } else {
+                    cells[p] = i;
+                    fractions[p] = nodes[i1] > nodes[i] ? (double) (p - nodes[i]) / (nodes[i1] - nodes[i]) : 0.0;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.esa.beam.snowradiance.operator;
+
+/**
+ * Batch version of the water vapour retrieval by the FUB neural net
+ * (see {@link SnowTemperatureEmissivityRetrieval#computeWaterVapour}), e.g. for a whole tile row.
+ * <p/>
+ * The neural net inputs of all samples are computed into contiguous arrays (one per net input),
+ * checked against the valid input ranges, and the in-range samples are then evaluated in one call
+ * of the compiled net (see {@link CompiledNeuralNet}). All buffers are allocated once, so the retrieval
+ * does not allocate per sample. Instances keep state while processing and must not be shared between
+ * threads, whereas the net itself may be shared.
+ */
+public class WaterVapourBatchRetrieval {
+
+    private static final int NUM_INPUTS = SnowTemperatureEmissivityRetrieval.WATER_VAPOUR_NN_LIMITS.length;
+
+    private final CompiledNeuralNet neuralNetWv;
+    private final double[][] nnInputs;
+    private final int[] inRangeIndices;
+    private final double[][] nnIn;
+    private final double[][] nnOut;
+    private final double[] nnWorkspace;
+
+    // row buffers for the retrieval from tile sample arrays
+    private final float[] zonalWindRow;
+    private final float[] meridionalWindRow;
+    private final float[] azimuthDifferenceRow;
+    private final float[] viewZenithRow;
+    private final float[] sunZenithRow;
+    private final float[] radiance14Row;
+    private final float[] radiance15Row;
+    private final float[] waterVapourRow;
+
+    /**
+     * @param neuralNetWv - water vapour neural net
+     * @param capacity    - maximum number of samples per call
+     */
+    public WaterVapourBatchRetrieval(CompiledNeuralNet neuralNetWv, int capacity) {
+        this.neuralNetWv = neuralNetWv;
+        nnInputs = new double[NUM_INPUTS][capacity];
+        inRangeIndices = new int[capacity];
+        nnIn = new double[NUM_INPUTS][capacity];
+        nnOut = new double[1][capacity];
+        nnWorkspace = neuralNetWv.createWorkspace(capacity);
+        zonalWindRow = new float[capacity];
+        meridionalWindRow = new float[capacity];
+        azimuthDifferenceRow = new float[capacity];
+        viewZenithRow = new float[capacity];
+        sunZenithRow = new float[capacity];
+        radiance14Row = new float[capacity];
+        radiance15Row = new float[capacity];
+        waterVapourRow = new float[capacity];
+    }
+
+    /**
+     * This method computes the water vapour column for a row segment of tile sample arrays
+     * (see {@link org.esa.beam.framework.gpf.Tile#getSamplesFloat()}).
+     *
+     * @param zonalWind      - zonal wind samples
+     * @param meridionalWind - meridional wind samples
+     * @param sunAzimuth     - MERIS sun azimuth samples
+     * @param sunZenith      - MERIS sun zenith samples
+     * @param viewAzimuth    - MERIS view azimuth samples
+     * @param viewZenith     - MERIS view zenith samples
+     * @param radiance14     - MERIS radiance band14 samples
+     * @param radiance15     - MERIS radiance band15 samples
+     * @param offset         - index of the first sample of the row segment
+     * @param count          - length of the row segment
+     * @param waterVapour    - the water vapour column samples, set from <code>offset</code> (output)
+     */
+    public void computeWaterVapour(float[] zonalWind, float[] meridionalWind,
+                                   float[] sunAzimuth, float[] sunZenith, float[] viewAzimuth, float[] viewZenith,
+                                   float[] radiance14, float[] radiance15,
+                                   int offset, int count, float[] waterVapour) {
+        if (count > inRangeIndices.length) {
+            throw new IllegalArgumentException("Batch size " + count + " exceeds capacity " + inRangeIndices.length);
+        }
+        for (int k = 0; k < count; k++) {
+            final int index = offset + k;
+            zonalWindRow[k] = zonalWind[index];
+            meridionalWindRow[k] = meridionalWind[index];
+            azimuthDifferenceRow[k] = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(
+                    viewAzimuth[index], sunAzimuth[index]);
+            viewZenithRow[k] = viewZenith[index];
+            sunZenithRow[k] = sunZenith[index];
+            radiance14Row[k] = radiance14[index];
+            radiance15Row[k] = radiance15[index];
+        }
+        computeWaterVapour(zonalWindRow, meridionalWindRow, azimuthDifferenceRow, viewZenithRow, sunZenithRow,
+                           radiance14Row, radiance15Row, count, waterVapourRow);
+        System.arraycopy(waterVapourRow, 0, waterVapour, offset, count);
+    }
+
+    /**
+     * This method computes the water vapour column for a batch of samples. Samples with neural net inputs
+     * out of range get the standard value {@link SnowRadianceConstants#WATER_VAPOUR_STANDARD_VALUE}.
+     *
+     * @param zonalWind               - zonal wind
+     * @param meridionalWind          - meridional wind
+     * @param merisAzimuthDifference  - MERIS azimuth difference (degree)
+     * @param merisViewZenith         - MERIS view zenith angle (degree)
+     * @param merisSunZenith          - MERIS sun zenith angle (degree)
+     * @param merisRadiance14         - MERIS radiance band14
+     * @param merisRadiance15         - MERIS radiance band15
+     * @param count                   - number of samples
+     * @param waterVapour             - the water vapour columns (output)
+     */
+    public void computeWaterVapour(float[] zonalWind, float[] meridionalWind, float[] merisAzimuthDifference,
+                                   float[] merisViewZenith, float[] merisSunZenith,
+                                   float[] merisRadiance14, float[] merisRadiance15,
+                                   int count, float[] waterVapour) {
+        computeWaterVapour(zonalWind, meridionalWind, merisAzimuthDifference, merisViewZenith, merisSunZenith,
+                           merisRadiance14, merisRadiance15, count, SnowRadianceConstants.WATER_VAPOUR_STANDARD_VALUE,
+                           waterVapour);
+    }
+
+    /**
+     * This method computes the water vapour column for a batch of samples.
+     *
+     * @param zonalWind               - zonal wind
+     * @param meridionalWind          - meridional wind
+     * @param merisAzimuthDifference  - MERIS azimuth difference (degree)
+     * @param merisViewZenith         - MERIS view zenith angle (degree)
+     * @param merisSunZenith          - MERIS sun zenith angle (degree)
+     * @param merisRadiance14         - MERIS radiance band14
+     * @param merisRadiance15         - MERIS radiance band15
+     * @param count                   - number of samples
+     * @param outOfRangeValue         - value of samples with neural net inputs out of range
+     * @param waterVapour             - the water vapour columns (output)
+     */
+    public void computeWaterVapour(float[] zonalWind, float[] meridionalWind, float[] merisAzimuthDifference,
+                                   float[] merisViewZenith, float[] merisSunZenith,
+                                   float[] merisRadiance14, float[] merisRadiance15,
+                                   int count, float outOfRangeValue, float[] waterVapour) {
+        if (count > inRangeIndices.length) {
+            throw new IllegalArgumentException("Batch size " + count + " exceeds capacity " + inRangeIndices.length);
+        }
+        final double[] windSpeed = nnInputs[0];
+        final double[] viewDirection = nnInputs[1];
+        final double[] muView = nnInputs[2];
+        final double[] muSun = nnInputs[3];
+        final double[] radianceRatio = nnInputs[4];
+        for (int k = 0; k < count; k++) {
+            windSpeed[k] = Math.sqrt(zonalWind[k] * zonalWind[k] + meridionalWind[k] * meridionalWind[k]);
+            viewDirection[k] = Math.cos(Math.toRadians(merisAzimuthDifference[k])) *
+                               Math.sin(Math.toRadians(merisViewZenith[k]));
+            muView[k] = Math.cos(Math.toRadians(merisViewZenith[k]));
+            muSun[k] = Math.cos(Math.toRadians(merisSunZenith[k]));
+            radianceRatio[k] = Math.log(Math.max(merisRadiance15[k], 1.0E-4) / Math.max(merisRadiance14[k], 1.0E-4));
+        }
+
+        final int numInRange = selectInRange(count);
+
+        for (int k = 0; k < count; k++) {
+            waterVapour[k] = outOfRangeValue;
+        }
+        if (numInRange == 0) {
+            return;
+        }
+        for (int i = 0; i < NUM_INPUTS; i++) {
+            final double[] input = nnInputs[i];
+            final double[] nnInput = nnIn[i];
+            for (int n = 0; n < numInRange; n++) {
+                nnInput[n] = input[inRangeIndices[n]];
+            }
+        }
+        neuralNetWv.process(nnIn, numInRange, nnOut, nnWorkspace);
+        final double[] nnWaterVapour = nnOut[0];
+        for (int n = 0; n < numInRange; n++) {
+            waterVapour[inRangeIndices[n]] = (float) nnWaterVapour[n];
+        }
+    }
+
+    // collects the indices of the samples with all inputs in the valid ranges of the net
+    private int selectInRange(int count) {
+        int numInRange = 0;
+        for (int k = 0; k < count; k++) {
+            inRangeIndices[numInRange] = k;
+            boolean valid = true;
+            for (int i = 0; i < NUM_INPUTS && valid; i++) {
+                final float[] limits = SnowTemperatureEmissivityRetrieval.WATER_VAPOUR_NN_LIMITS[i];
+                final double value = nnInputs[i][k];
+                valid = !(value < limits[0] || value > limits[1]);
+            }
+            if (valid) {
+                numInRange++;
+            }
+        }
+        return numInRange;
+    }
+}
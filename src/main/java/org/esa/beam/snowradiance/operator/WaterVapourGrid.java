@@ -0,0 +1,219 @@
+package org.esa.beam.snowradiance.operator;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Water vapour column field of one tile for the temperature/emissivity retrieval.
+ * <p/>
+ * The water vapour is retrieved by the FUB neural net (see {@link WaterVapourBatchRetrieval}) on a coarse
+ * grid of nodes only: winds and geometry are taken from the (smooth) tie-point grids at the nodes, the MERIS
+ * radiances of bands 14 and 15 are averaged over the block of pixels around each node. The node values are
+ * bilinearly interpolated in between. Nodes without valid radiances or with neural net inputs out of range
+ * are filled from the valid nodes around them, so that no artificial gradients are interpolated towards
+ * clouds or invalid pixels. Only if no node of the tile is valid, the whole tile gets the given default value.
+ * <p/>
+ * The values are given in the units of the RTM LUTs (see
+ * {@link SnowRadianceConstants#WATER_VAPOUR_NN_TO_RTM_FACTOR}).
+ */
+public class WaterVapourGrid {
+
+    static final int ZONAL_WIND = 0;
+    static final int MERIDIONAL_WIND = 1;
+    static final int SUN_AZIMUTH = 2;
+    static final int SUN_ZENITH = 3;
+    static final int VIEW_AZIMUTH = 4;
+    static final int VIEW_ZENITH = 5;
+    static final int RADIANCE_14 = 6;
+    static final int RADIANCE_15 = 7;
+
+    private final Rectangle rectangle;
+    private final int gridStep;
+    private final float[] waterVapour;
+
+    private WaterVapourGrid(Rectangle rectangle, int gridStep, float[] waterVapour) {
+        this.rectangle = rectangle;
+        this.gridStep = gridStep;
+        this.waterVapour = waterVapour;
+    }
+
+    /**
+     * This method creates the water vapour field for a tile from the tile sample arrays
+     * (see {@link org.esa.beam.framework.gpf.Tile#getSamplesFloat()}).
+     *
+     * @param zonalWind      - zonal wind samples
+     * @param meridionalWind - meridional wind samples
+     * @param sunAzimuth     - MERIS sun azimuth samples
+     * @param sunZenith      - MERIS sun zenith samples
+     * @param viewAzimuth    - MERIS view azimuth samples
+     * @param viewZenith     - MERIS view zenith samples
+     * @param radiance14     - MERIS radiance band14 samples
+     * @param radiance15     - MERIS radiance band15 samples
+     * @param rectangle      - the tile rectangle
+     * @param gridStep       - step of the node grid in pixels
+     * @param neuralNetWv    - water vapour neural net
+     * @param defaultValue   - water vapour column (RTM LUT units) of the whole tile if the neural net
+     *                       cannot be applied at any node
+     * @return WaterVapourGrid
+     */
+    public static WaterVapourGrid create(float[] zonalWind, float[] meridionalWind,
+                                         float[] sunAzimuth, float[] sunZenith,
+                                         float[] viewAzimuth, float[] viewZenith,
+                                         float[] radiance14, float[] radiance15,
+                                         final Rectangle rectangle, int gridStep, CompiledNeuralNet neuralNetWv,
+                                         float defaultValue) {
+        final float[][] samples = new float[][]{
+                zonalWind, meridionalWind, sunAzimuth, sunZenith, viewAzimuth, viewZenith, radiance14, radiance15
+        };
+        return create(new InputSource() {
+            public float getSample(int input, int x, int y) {
+                return samples[input][(y - rectangle.y) * rectangle.width + (x - rectangle.x)];
+            }
+        }, rectangle, gridStep, neuralNetWv, defaultValue);
+    }
+
+    static WaterVapourGrid create(InputSource inputSource, Rectangle rectangle, int gridStep,
+                                  CompiledNeuralNet neuralNetWv, float defaultValue) {
+        final int step = Math.max(gridStep, 1);
+        final TileNodeGrid nodeGrid = new TileNodeGrid(rectangle.width, rectangle.height, step);
+        final float[] nodeValues = computeNodeValues(inputSource, rectangle, step, nodeGrid.getXNodes(),
+                                                     nodeGrid.getYNodes(), neuralNetWv, defaultValue);
+        final float[] waterVapour = new float[rectangle.width * rectangle.height];
+        nodeGrid.interpolate(nodeValues, waterVapour);
+        return new WaterVapourGrid(rectangle, step, waterVapour);
+    }
+
+    public int getGridStep() {
+        return gridStep;
+    }
+
+    /**
+     * @param x - pixel x
+     * @param y - pixel y
+     * @return the water vapour column (RTM LUT units)
+     */
+    public float getWaterVapour(int x, int y) {
+        return waterVapour[(y - rectangle.y) * rectangle.width + (x - rectangle.x)];
+    }
+
+    /**
+     * Access to the retrieval inputs of a pixel (see the input constants).
+     */
+    interface InputSource {
+
+        float getSample(int input, int x, int y);
+    }
+
+    private static float[] computeNodeValues(InputSource inputSource, Rectangle rectangle, int step,
+                                             int[] xNodes, int[] yNodes,
+                                             CompiledNeuralNet neuralNetWv, float defaultValue) {
+        final int numNodes = xNodes.length * yNodes.length;
+        final float[] zonalWind = new float[numNodes];
+        final float[] meridionalWind = new float[numNodes];
+        final float[] azimuthDifference = new float[numNodes];
+        final float[] viewZenith = new float[numNodes];
+        final float[] sunZenith = new float[numNodes];
+        final float[] radiance14 = new float[numNodes];
+        final float[] radiance15 = new float[numNodes];
+        final boolean[] valid = new boolean[numNodes];
+
+        final int halfStep = step / 2;
+        int index = 0;
+        for (int yNode : yNodes) {
+            final int y = rectangle.y + yNode;
+            final int yStart = Math.max(y - halfStep, rectangle.y);
+            final int yEnd = Math.min(y + halfStep, rectangle.y + rectangle.height - 1);
+            for (int xNode : xNodes) {
+                final int x = rectangle.x + xNode;
+                final int xStart = Math.max(x - halfStep, rectangle.x);
+                final int xEnd = Math.min(x + halfStep, rectangle.x + rectangle.width - 1);
+                zonalWind[index] = inputSource.getSample(ZONAL_WIND, x, y);
+                meridionalWind[index] = inputSource.getSample(MERIDIONAL_WIND, x, y);
+                azimuthDifference[index] = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(
+                        inputSource.getSample(VIEW_AZIMUTH, x, y), inputSource.getSample(SUN_AZIMUTH, x, y));
+                viewZenith[index] = inputSource.getSample(VIEW_ZENITH, x, y);
+                sunZenith[index] = inputSource.getSample(SUN_ZENITH, x, y);
+
+                // block average of the radiances, over the pixels where both are valid
+                double sum14 = 0.0;
+                double sum15 = 0.0;
+                int count = 0;
+                for (int yb = yStart; yb <= yEnd; yb++) {
+                    for (int xb = xStart; xb <= xEnd; xb++) {
+                        final float rad14 = inputSource.getSample(RADIANCE_14, xb, yb);
+                        final float rad15 = inputSource.getSample(RADIANCE_15, xb, yb);
+                        if (rad14 > 0.0f && rad15 > 0.0f) {
+                            sum14 += rad14;
+                            sum15 += rad15;
+                            count++;
+                        }
+                    }
+                }
+                valid[index] = count > 0;
+                radiance14[index] = count > 0 ? (float) (sum14 / count) : 1.0f;
+                radiance15[index] = count > 0 ? (float) (sum15 / count) : 1.0f;
+                index++;
+            }
+        }
+
+        final float[] nodeValues = new float[numNodes];
+        final WaterVapourBatchRetrieval retrieval = new WaterVapourBatchRetrieval(neuralNetWv, numNodes);
+        retrieval.computeWaterVapour(zonalWind, meridionalWind, azimuthDifference, viewZenith, sunZenith,
+                                     radiance14, radiance15, numNodes, Float.NaN, nodeValues);
+        int numValid = 0;
+        for (int i = 0; i < numNodes; i++) {
+            valid[i] &= !Float.isNaN(nodeValues[i]);
+            if (valid[i]) {
+                nodeValues[i] *= SnowRadianceConstants.WATER_VAPOUR_NN_TO_RTM_FACTOR;
+                numValid++;
+            }
+        }
+        if (numValid == 0) {
+            Arrays.fill(nodeValues, defaultValue);
+        } else if (numValid < numNodes) {
+            fillInvalidNodes(nodeValues, valid, xNodes.length, yNodes.length);
+        }
+        return nodeValues;
+    }
+
+    // sets each invalid node to the mean of its valid neighbours, growing from the valid nodes
+    // until all nodes are set (requires at least one valid node)
+    static void fillInvalidNodes(float[] nodeValues, boolean[] valid, int nx, int ny) {
+        final boolean[] filled = new boolean[valid.length];
+        boolean complete = false;
+        while (!complete) {
+            complete = true;
+            for (int j = 0; j < ny; j++) {
+                for (int i = 0; i < nx; i++) {
+                    final int index = j * nx + i;
+                    if (valid[index]) {
+                        continue;
+                    }
+                    double sum = 0.0;
+                    int count = 0;
+                    for (int jn = Math.max(j - 1, 0); jn <= Math.min(j + 1, ny - 1); jn++) {
+                        for (int in = Math.max(i - 1, 0); in <= Math.min(i + 1, nx - 1); in++) {
+                            if (valid[jn * nx + in]) {
+                                sum += nodeValues[jn * nx + in];
+                                count++;
+                            }
+                        }
+                    }
+                    if (count > 0) {
+                        nodeValues[index] = (float) (sum / count);
+                        filled[index] = true;
+                    } else {
+                        complete = false;
+                    }
+                }
+            }
+            // nodes filled in this pass serve as neighbours in the next one only
+            for (int index = 0; index < valid.length; index++) {
+                if (filled[index]) {
+                    valid[index] = true;
+                    filled[index] = false;
+                }
+            }
+        }
+    }
+}
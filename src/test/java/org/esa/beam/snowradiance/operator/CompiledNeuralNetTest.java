@@ -0,0 +1,92 @@
+package org.esa.beam.snowradiance.operator;
+
+import com.bc.jnn.JnnNet;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Test class for the compiled neural net
+ */
+public class CompiledNeuralNetTest extends TestCase {
+
+    private static final String SMALL_NET =
+            "[Net]\n NumLayers = 3\n InpLayer = 1\n OutLayer = 3\n" +
+            "[Layer(1)]\n NumUnits = 2\n InpFunc = Sum_1\n ActFunc = Identity\n OutFunc = Linear\n" +
+            "[Layer(2)]\n NumUnits = 2\n InpFunc = Sum_1\n ActFunc = Sigmoid_1\n ActSlope = 0.5\n OutFunc = Linear\n" +
+            "[Layer(3)]\n NumUnits = 1\n InpFunc = Sum_1\n ActFunc = Identity\n OutFunc = Linear\n" +
+            "[Unit(1,1)]\n NumConns = 0\n OutScale = 2.\n OutBias = 1.\n" +
+            "[Unit(1,2)]\n NumConns = 0\n" +
+            "[Unit(2,1)]\n NumConns = 2\n InpBias = 0.5\n C(1) = 1 , 1 , 1.\n C(2) = 1 , 2 , -1.\n" +
+            "[Unit(2,2)]\n NumConns = 1\n C(1) = 1 , 2 , 2.\n" +
+            "[Unit(3,1)]\n NumConns = 2\n OutScale = 3.\n OutBias = -1.\n C(1) = 2 , 1 , 1.\n C(2) = 2 , 2 , 1.\n";
+
+    public void testSmallNet() throws IOException {
+        final CompiledNeuralNet net = CompiledNeuralNet.read(new StringReader(SMALL_NET));
+        assertEquals(2, net.getNumInputs());
+        assertEquals(1, net.getNumOutputs());
+
+        final double x1 = 0.3;
+        final double x2 = -0.7;
+        final double h1 = 1.0 / (1.0 + Math.exp(-0.5 * (0.5 + (2.0 * x1 + 1.0) - x2)));
+        final double h2 = 1.0 / (1.0 + Math.exp(-0.5 * (2.0 * x2)));
+        final double expected = 3.0 * (h1 + h2) - 1.0;
+
+        final double[] output = new double[1];
+        net.process(new double[]{x1, x2}, output, net.createWorkspace(1));
+        assertEquals(expected, output[0], 1.0E-12);
+    }
+
+    public void testWaterVapourNetAgainstJnn() throws Exception {
+        final String filename = SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME;
+        final JnnNet jnnNet = SnowRadianceAuxData.loadNeuralNet(filename);
+        final CompiledNeuralNet net = SnowRadianceAuxData.getCompiledNeuralNet(filename);
+        assertSame(net, SnowRadianceAuxData.getCompiledNeuralNet(filename));
+        assertEquals(5, net.getNumInputs());
+        assertEquals(1, net.getNumOutputs());
+
+        final int count = 100;
+        final double[][] inputs = new double[5][count];
+        final Random random = new Random(12345);
+        for (int n = 0; n < count; n++) {
+            for (int i = 0; i < 5; i++) {
+                final float[] limits = SnowTemperatureEmissivityRetrieval.WATER_VAPOUR_NN_LIMITS[i];
+                inputs[i][n] = limits[0] + (limits[1] - limits[0]) * random.nextDouble();
+            }
+        }
+
+        final double[][] outputs = new double[1][count];
+        net.process(inputs, count, outputs, net.createWorkspace(count));
+
+        final double[] in = new double[5];
+        final double[] jnnOut = new double[1];
+        final double[] out = new double[1];
+        final double[] workspace = net.createWorkspace(1);
+        for (int n = 0; n < count; n++) {
+            for (int i = 0; i < 5; i++) {
+                in[i] = inputs[i][n];
+            }
+            jnnNet.process(in, jnnOut);
+            net.process(in, out, workspace);
+            assertEquals(jnnOut[0], out[0], 1.0E-6);
+            assertEquals(out[0], outputs[0][n], 1.0E-12);
+        }
+    }
+
+    public void testUnsupportedNet() {
+        try {
+            CompiledNeuralNet.read(new StringReader(SMALL_NET.replace("Sigmoid_1", "Sigmoid_2")));
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // ok
+        }
+        try {
+            CompiledNeuralNet.read(new StringReader(SMALL_NET.replace("C(1) = 1 , 2 , 2.", "C(1) = 3 , 1 , 2.")));
+            fail("IOException expected");
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+}
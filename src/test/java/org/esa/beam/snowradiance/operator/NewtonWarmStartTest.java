@@ -0,0 +1,87 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test class for the warm start of the temperature/emissivity Newton iterations
+ */
+public class NewtonWarmStartTest extends TestCase {
+
+    private static final float WATER_VAPOUR = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+
+    // loaded once for all tests
+    private static RtmLookupTables rtmLuts;
+
+    private RtmInterpolator[][] rtmInterpolators;
+    private double[] tLowestLayer;
+
+    protected void setUp() throws IOException {
+        if (rtmLuts == null) {
+            rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+        }
+        rtmInterpolators = rtmLuts.getRtmInterpolators();
+        tLowestLayer = rtmLuts.getTLowestLayer();
+    }
+
+    public void testHomogeneousRows() {
+        assertHomogeneousRows(rtmInterpolators);
+    }
+
+    public void testHomogeneousRowsBlended() {
+        assertHomogeneousRows(rtmLuts.getBlendedRtmInterpolators());
+    }
+
+    private void assertHomogeneousRows(RtmInterpolator[][] rtmInterpolators) {
+        final NewtonWarmStart warmStart = new NewtonWarmStart();
+        final Random random = new Random(5);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 100; x++) {
+                // slowly varying scene, as over an ice sheet
+                final float viewZenith = 15.0f + 0.01f * x;
+                final float bt11 = 255.0f + 0.02f * x + 0.05f * (float) random.nextGaussian();
+                final float bt12 = bt11 - 0.8f + 0.05f * (float) random.nextGaussian();
+
+                final float tSfc = warmStart.retrieveTemperature(x, y, 0.99, WATER_VAPOUR, viewZenith, bt11,
+                                                                 rtmInterpolators, tLowestLayer, true);
+                final float expectedTsfc = SnowTemperatureEmissivityRetrieval.
+                        minimizeNewtonForTemperature(0.99, WATER_VAPOUR, viewZenith, bt11,
+                                                     rtmInterpolators, tLowestLayer, true);
+                assertEquals(expectedTsfc, tSfc, 0.2);
+
+                final float emissivity = warmStart.retrieveEmissivity(x, y, WATER_VAPOUR, viewZenith, tSfc, bt12,
+                                                                      rtmInterpolators, tLowestLayer, true);
+                final float expectedEmissivity = SnowTemperatureEmissivityRetrieval.
+                        minimizeNewtonForEmissivity(WATER_VAPOUR, viewZenith, tSfc, bt12,
+                                                    rtmInterpolators, tLowestLayer, true);
+                assertEquals(expectedEmissivity, emissivity, 1.E-3);
+            }
+        }
+
+        // only the first pixel of each row is cold-started
+        assertEquals(0.99, warmStart.getTemperatureWarmStartFraction(), 1.E-6);
+        assertTrue(warmStart.getTemperatureIterationsSaved() > 0.0);
+        assertTrue(warmStart.getEmissivityWarmStartFraction() > 0.9);
+    }
+
+    public void testNoWarmStartAcrossGaps() {
+        final NewtonWarmStart warmStart = new NewtonWarmStart();
+        warmStart.retrieveTemperature(0, 0, 0.99, WATER_VAPOUR, 15.0f, 255.0f, rtmInterpolators, tLowestLayer, true);
+        // pixel not adjacent
+        warmStart.retrieveTemperature(2, 0, 0.99, WATER_VAPOUR, 15.0f, 255.0f, rtmInterpolators, tLowestLayer, true);
+        // next row
+        warmStart.retrieveTemperature(3, 1, 0.99, WATER_VAPOUR, 15.0f, 255.0f, rtmInterpolators, tLowestLayer, true);
+        // brightness temperature too different
+        warmStart.retrieveTemperature(4, 1, 0.99, WATER_VAPOUR, 15.0f, 260.0f, rtmInterpolators, tLowestLayer, true);
+        assertEquals(0.0, warmStart.getTemperatureWarmStartFraction(), 1.E-6);
+
+        warmStart.retrieveTemperature(5, 1, 0.99, WATER_VAPOUR, 15.0f, 260.2f, rtmInterpolators, tLowestLayer, true);
+        assertEquals(0.2, warmStart.getTemperatureWarmStartFraction(), 1.E-6);
+
+        final NewtonWarmStart statistics = new NewtonWarmStart();
+        statistics.addStatistics(warmStart);
+        assertEquals(0.2, statistics.getTemperatureWarmStartFraction(), 1.E-6);
+    }
+}
@@ -0,0 +1,98 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Test class for the reflection function backed by the reflection LUT
+ */
+public class ReflectionLutFunctionTest extends TestCase {
+
+    public void testRead() throws IOException {
+        final ReflectionLutFunction lut = SnowRadianceAuxData.getReflectionLutFunction();
+        assertSame(lut, SnowReflectionFunction.getInstance(SnowReflectionFunction.LUT));
+
+        assertEquals(100, lut.getNumGaussNodes());
+        assertEquals(0.22483846E-03, lut.getGaussMu(0), 1.E-12);
+        assertEquals(0.99999997, lut.getGaussMu(99), 1.E-12);
+        assertEquals(0.51465698E+04, lut.getR0(0, 0), 1.E-4);
+        assertEquals(0.21236472E+04, lut.getR0(1, 1), 1.E-4);
+        assertEquals(0.99126874E+03, lut.getR0(2, 1), 1.E-4);
+        assertEquals(lut.getR0(2, 1), lut.getR0(1, 2), 0.0);
+        // nadir reflection function, close to the asymptotic approximation
+        assertEquals(1.102, lut.getR0(99, 99), 1.E-3);
+        assertEquals(1.108, SnowGrainSizePollutionRetrieval.computeReflLutApprox(0.0, 0.0, 0.0, 0.0), 1.E-3);
+    }
+
+    public void testReadInvalid() {
+        try {
+            ReflectionLutFunction.read(new ByteArrayInputStream("1\n 100\n 0.1D+00 0.2D+00".getBytes()));
+            fail();
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+
+    public void testAzimuthalAverage() throws IOException {
+        final ReflectionLutFunction lut = SnowRadianceAuxData.getReflectionLutFunction();
+        final SnowReflectionFunction approximation =
+                SnowReflectionFunction.getInstance(SnowReflectionFunction.APPROXIMATION);
+        final int numAzimuths = 180;
+        // max. relative deviations of the azimuthally averaged approximation from the LUT, for all directions
+        // and for sun and view zenith angles up to 60 deg
+        double maxDeviationApprox = 0.0;
+        double maxDeviationApproxBelow60 = 0.0;
+        for (int i = 0; i < lut.getNumGaussNodes(); i++) {
+            final double mus = lut.getGaussMu(i);
+            for (int j = 0; j < lut.getNumGaussNodes(); j++) {
+                final double muv = lut.getGaussMu(j);
+                // sun zenith below 85 deg, not both directions close to nadir
+                if (mus < 0.09 || muv < 0.09 || (mus > 0.99 && muv > 0.99)) {
+                    continue;
+                }
+                final double sza = Math.acos(mus) * 180.0 / Math.PI;
+                final double vza = Math.acos(muv) * 180.0 / Math.PI;
+                double sumLut = 0.0;
+                double sumApprox = 0.0;
+                for (int k = 0; k < numAzimuths; k++) {
+                    final double vaa = 30.0 + (k + 0.5) * 180.0 / numAzimuths;
+                    sumLut += lut.getReflectance(30.0, sza, vaa, vza);
+                    sumApprox += approximation.getReflectance(30.0, sza, vaa, vza);
+                }
+                final double r0 = lut.getR0(i, j);
+                // the azimuthal average of the LUT reflection function reproduces the LUT (the largest
+                // resampling errors occur in the last grid cell below mu = 1, which holds many LUT nodes)
+                assertEquals(r0, sumLut / numAzimuths, 3.E-3 * r0);
+                final double deviationApprox = Math.abs(sumApprox / numAzimuths - r0) / r0;
+                maxDeviationApprox = Math.max(maxDeviationApprox, deviationApprox);
+                if (mus >= 0.5 && muv >= 0.5) {
+                    maxDeviationApproxBelow60 = Math.max(maxDeviationApproxBelow60, deviationApprox);
+                }
+            }
+        }
+        // the asymptotic approximation is off by up to 67% (relative) for grazing sun and view directions
+        // (both about 85 deg), but stays within 5% for zenith angles up to 60 deg
+        assertTrue("max. deviation " + maxDeviationApprox, maxDeviationApprox < 0.7);
+        assertTrue("max. deviation " + maxDeviationApproxBelow60, maxDeviationApproxBelow60 < 0.05);
+    }
+
+    public void testAzimuthDependence() throws IOException {
+        final ReflectionLutFunction lut = SnowRadianceAuxData.getReflectionLutFunction();
+        final SnowReflectionFunction approximation =
+                SnowReflectionFunction.getInstance(SnowReflectionFunction.APPROXIMATION);
+        // MERIS-like geometries: the LUT corrects the approximation by a term independent of the azimuth
+        for (double sza = 30.0; sza <= 75.0; sza += 15.0) {
+            for (double vza = 0.0; vza <= 40.0; vza += 10.0) {
+                final double correction = lut.getReflectance(0.0, sza, 0.0, vza) -
+                                          approximation.getReflectance(0.0, sza, 0.0, vza);
+                assertTrue(Math.abs(correction) < 0.1);
+                for (double vaa = 0.0; vaa <= 180.0; vaa += 45.0) {
+                    assertEquals(correction, lut.getReflectance(0.0, sza, vaa, vza) -
+                                             approximation.getReflectance(0.0, sza, vaa, vza), 1.E-12);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test class for the memo cache of the temperature/emissivity retrieval
+ */
+public class RetrievalMemoCacheTest extends TestCase {
+
+    private static final float WATER_VAPOUR = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+
+    // loaded once for all tests
+    private static RtmLookupTables rtmLuts;
+
+    private RtmInterpolator[][] rtmInterpolators;
+    private double[] tLowestLayer;
+
+    protected void setUp() throws IOException {
+        if (rtmLuts == null) {
+            rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+        }
+        rtmInterpolators = rtmLuts.getRtmInterpolators();
+        tLowestLayer = rtmLuts.getTLowestLayer();
+    }
+
+    public void testAccuracyAndHitRate() {
+        assertAccuracyAndHitRate(rtmInterpolators);
+    }
+
+    public void testAccuracyAndHitRateBlended() {
+        assertAccuracyAndHitRate(rtmLuts.getBlendedRtmInterpolators());
+    }
+
+    private void assertAccuracyAndHitRate(RtmInterpolator[][] rtmInterpolators) {
+        final float quantum = 0.05f;
+
+        final RetrievalMemoCache cache = new RetrievalMemoCache(4096, quantum, 0.99, true);
+        final Random random = new Random(99);
+        for (int k = 0; k < 2000; k++) {
+            // narrow input ranges, as over a homogeneous area
+            final float viewZenith = 20.0f + 0.2f * random.nextFloat();
+            final float bt11 = 255.0f + 0.5f * random.nextFloat();
+            final float bt12 = bt11 - 0.8f;
+
+            final float tSfc = cache.getSurfaceTemperature(WATER_VAPOUR, viewZenith, bt11,
+                                                           rtmInterpolators, tLowestLayer);
+            final float expectedTsfc = SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForTemperature(0.99, WATER_VAPOUR, viewZenith, bt11,
+                                                 rtmInterpolators, tLowestLayer, true);
+            // half a quantum, plus the tolerance of the Newton iteration
+            assertEquals(expectedTsfc, tSfc, 0.5 * quantum + 0.2);
+
+            final float emissivity = cache.getEmissivity(WATER_VAPOUR, viewZenith, tSfc, bt12,
+                                                         rtmInterpolators, tLowestLayer);
+            final float expectedEmissivity = SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForEmissivity(WATER_VAPOUR, viewZenith, tSfc, bt12,
+                                                rtmInterpolators, tLowestLayer, true);
+            assertEquals(expectedEmissivity, emissivity, 2.E-3);
+        }
+        assertEquals(4000, cache.getLookupCount());
+        assertTrue(cache.getHitRate() > 0.5);
+    }
+
+    public void testSameQuantizedInputsHit() {
+        final RetrievalMemoCache cache = new RetrievalMemoCache(16, 0.01f, 0.99, false);
+        final float tSfc1 = cache.getSurfaceTemperature(0.3f, 20.0f, 255.001f, rtmInterpolators, tLowestLayer);
+        final float tSfc2 = cache.getSurfaceTemperature(0.3f, 20.0f, 254.999f, rtmInterpolators, tLowestLayer);
+        assertEquals(tSfc1, tSfc2, 0.0);
+        assertEquals(1, cache.getHitCount());
+
+        // not quantizable input is not cached
+        cache.getSurfaceTemperature(0.3f, Float.NaN, 255.0f, rtmInterpolators, tLowestLayer);
+        assertEquals(2, cache.getLookupCount());
+    }
+}
@@ -0,0 +1,207 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+import org.esa.beam.util.math.LookupTable;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test class for the specialized RTM LUT interpolator
+ */
+public class RtmInterpolatorTest extends TestCase {
+
+    public void testSameResultsAsLookupTable() throws IOException {
+        final RtmInterpolator[][] rtmInterpolators = SnowRadianceAuxData.loadRtmLookupTables().getRtmInterpolators();
+
+        final Random random = new Random(42);
+        for (int i = 0; i < SnowRadianceConstants.NUMBER_ATMOSPHERIC_PROFILES; i++) {
+            for (int j = 0; j < SnowRadianceConstants.NUMBER_AATSR_WVL; j++) {
+                final LookupTable rtmLookupTable =
+                        SnowRadianceAuxData.readRtmLutFile(SnowRadianceAuxData.getRtmLutName(i, j)).createLookupTable();
+                for (int k = 0; k < 1000; k++) {
+                    // include coordinates slightly outside the LUT ranges
+                    final float viewZenith = (float) (-2.0 + 58.0 * random.nextDouble());
+                    final float tSfc = (float) (240.0 + 37.0 * random.nextDouble());
+                    final float emissivity = (float) (0.94 + 0.07 * random.nextDouble());
+                    final float waterVapour = (float) (31.0 * random.nextDouble());
+                    final float expected = SnowTemperatureEmissivityRetrieval.
+                            getRtmSingle(waterVapour, emissivity, tSfc, viewZenith, rtmLookupTable);
+                    final float actual = SnowTemperatureEmissivityRetrieval.
+                            getRtmSingle(waterVapour, emissivity, tSfc, viewZenith, rtmInterpolators[i][j]);
+                    assertEquals(expected, actual, 1.E-4);
+                }
+            }
+        }
+    }
+
+    public void testGridPoints() throws IOException {
+        final RtmInterpolator rtmInterpolator = SnowRadianceAuxData.loadRtmLookupTables().getRtmInterpolators()[0][0];
+        final LookupTable rtmLookupTable =
+                SnowRadianceAuxData.readRtmLutFile(SnowRadianceAuxData.getRtmLutName(0, 0)).createLookupTable();
+        final double[] vie = rtmLookupTable.getDimension(0).getSequence();
+        final double[] tem = rtmLookupTable.getDimension(1).getSequence();
+        final double[] emi = rtmLookupTable.getDimension(2).getSequence();
+        final double[] wva = rtmLookupTable.getDimension(3).getSequence();
+        for (double aVie : vie) {
+            for (double aTem : tem) {
+                for (int k = 0; k < emi.length; k += 5) {
+                    for (int l = 0; l < wva.length; l += 5) {
+                        assertEquals(rtmLookupTable.getValue(aVie, aTem, emi[k], wva[l]),
+                                     rtmInterpolator.getValue(-aVie, aTem, emi[k], wva[l]), 1.E-4);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testCreateLookupTable() throws IOException {
+        final RtmInterpolator[][] rtmInterpolators = SnowRadianceAuxData.loadRtmLookupTables().getRtmInterpolators();
+        final LookupTable expectedLut =
+                SnowRadianceAuxData.readRtmLutFile(SnowRadianceAuxData.getRtmLutName(1, 1)).createLookupTable();
+        final LookupTable lut = rtmInterpolators[1][1].createLookupTable();
+        assertEquals(4, lut.getDimensionCount());
+        for (int i = 0; i < 4; i++) {
+            final double[] expectedSequence = expectedLut.getDimension(i).getSequence();
+            final double[] sequence = lut.getDimension(i).getSequence();
+            assertEquals(expectedSequence.length, sequence.length);
+            for (int j = 0; j < sequence.length; j++) {
+                assertEquals(expectedSequence[j], sequence[j], 0.0);
+            }
+        }
+        assertEquals(expectedLut.getValue(-20.0, 260.0, 0.99, 5.0), lut.getValue(-20.0, 260.0, 0.99, 5.0), 0.0);
+        assertEquals(expectedLut.getValue(-43.7, 271.3, 0.975, 17.2), lut.getValue(-43.7, 271.3, 0.975, 17.2), 0.0);
+    }
+
+    public void testGradient() throws IOException {
+        final RtmInterpolator[][] rtmInterpolators = SnowRadianceAuxData.loadRtmLookupTables().getRtmInterpolators();
+        final double[] tLowestLayer = SnowRadianceAuxData.loadRtmLookupTables().getTLowestLayer();
+        final double[] gradient = new double[2];
+
+        final Random random = new Random(4711);
+        for (int k = 0; k < 1000; k++) {
+            final float viewZenith = (float) (50.0 * random.nextDouble());
+            final float tSfc = (float) (244.0 + 29.0 * random.nextDouble());
+            final float emissivity = (float) (0.955 + 0.03 * random.nextDouble());
+            final float waterVapour = (float) (0.2 + 29.0 * random.nextDouble());
+            if (isNearKink(tSfc, tLowestLayer) || isNearNode(tSfc, 243.15, 0.96875, 0.02) ||
+                isNearNode(emissivity, 0.95, 0.005, 0.0012)) {
+                // the profile weighting and the multilinear interpolation are not differentiable there
+                continue;
+            }
+            for (int iwvl = 0; iwvl < SnowRadianceConstants.NUMBER_AATSR_WVL; iwvl++) {
+                final float bt = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer, gradient);
+                assertEquals(SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer), bt, 1.E-4);
+
+                // compare with central differences, within the LUT cell of each interpolator
+                final float deltaTsfc = 1.E-2f;
+                final float deltaEmi = 1.E-3f;
+                final double dBtdTsfc = (SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc + deltaTsfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer) -
+                                         SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc - deltaTsfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer)) /
+                                        (2.0 * deltaTsfc);
+                final double dBtdEmi = (SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity + deltaEmi, tSfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer) -
+                                        SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity - deltaEmi, tSfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer)) /
+                                       (2.0 * deltaEmi);
+                assertEquals(dBtdTsfc, gradient[0], 0.05);
+                assertEquals(dBtdEmi, gradient[1], 0.1);
+            }
+        }
+    }
+
+    public void testBlendedProfiles() throws IOException {
+        final RtmLookupTables rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+        final RtmInterpolator[][] rtmInterpolators = rtmLuts.getRtmInterpolators();
+        final RtmInterpolator[][] blendedRtmInterpolators = rtmLuts.getBlendedRtmInterpolators();
+        final double[] tLowestLayer = rtmLuts.getTLowestLayer();
+        assertEquals(1, blendedRtmInterpolators.length);
+
+        final Random random = new Random(17);
+        double maxDeviation = 0.0;
+        for (int k = 0; k < 20000; k++) {
+            final float viewZenith = (float) (55.0 * random.nextDouble());
+            final float tSfc = (float) (243.15 + 31.0 * random.nextDouble());
+            final float emissivity = (float) (0.95 + 0.05 * random.nextDouble());
+            final float waterVapour = (float) (30.0 * random.nextDouble());
+            for (int iwvl = 0; iwvl < SnowRadianceConstants.NUMBER_AATSR_WVL; iwvl++) {
+                final float expected = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc, viewZenith, iwvl, rtmInterpolators, tLowestLayer);
+                final float actual = SnowTemperatureEmissivityRetrieval.getToaBTFromRtm(
+                        waterVapour, emissivity, tSfc, viewZenith, iwvl, blendedRtmInterpolators, tLowestLayer);
+                maxDeviation = Math.max(maxDeviation, Math.abs(actual - expected));
+            }
+        }
+        assertTrue("max. deviation " + maxDeviation, maxDeviation < RtmLookupTables.BLENDED_MAX_DEVIATION);
+    }
+
+    public void testSlice() throws IOException {
+        final RtmLookupTables rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+        assertSameAsSlices(rtmLuts.getRtmInterpolators());
+        assertSameAsSlices(rtmLuts.getBlendedRtmInterpolators());
+    }
+
+    public void testSliceOtherWaterVapour() throws IOException {
+        final RtmInterpolator rtmInterpolator = SnowRadianceAuxData.loadRtmLookupTables().getRtmInterpolators()[0][0];
+        final float waterVapour = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+        final RtmSlice slice = rtmInterpolator.createSlice(12.3, 19.8, waterVapour);
+        assertEquals(waterVapour, slice.getWaterVapourColumn(), 0.0);
+        try {
+            slice.getValue(15.0, 260.0, 0.98, waterVapour + 1.0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+        try {
+            slice.getValue(15.0, 260.0, 0.98, waterVapour + 1.0, new double[2]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+
+    private static void assertSameAsSlices(RtmInterpolator[][] rtmInterpolators) {
+        final float waterVapour = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+        final double minViewZenith = 12.3;
+        final double maxViewZenith = 19.8;
+
+        final Random random = new Random(23);
+        final double[] expectedGradient = new double[2];
+        final double[] actualGradient = new double[2];
+        for (RtmInterpolator[] profileInterpolators : rtmInterpolators) {
+            for (RtmInterpolator rtmInterpolator : profileInterpolators) {
+                final RtmSlice slice = rtmInterpolator.createSlice(minViewZenith, maxViewZenith, waterVapour);
+                for (int k = 0; k < 1000; k++) {
+                    final double viewZenith = minViewZenith + (maxViewZenith - minViewZenith) * random.nextDouble();
+                    final double tSfc = 240.0 + 37.0 * random.nextDouble();
+                    final double emissivity = 0.94 + 0.07 * random.nextDouble();
+                    final double expected = rtmInterpolator.getValue(viewZenith, tSfc, emissivity, waterVapour,
+                                                                     expectedGradient);
+                    assertEquals(expected, slice.getValue(viewZenith, tSfc, emissivity, waterVapour), 1.E-9);
+                    assertEquals(expected, slice.getValue(viewZenith, tSfc, emissivity, waterVapour, actualGradient),
+                                 1.E-9);
+                    assertEquals(expectedGradient[0], actualGradient[0], 1.E-6);
+                    assertEquals(expectedGradient[1], actualGradient[1], 1.E-6);
+                }
+            }
+        }
+    }
+
+    private static boolean isNearKink(float tSfc, double[] tLowestLayer) {
+        for (double t : tLowestLayer) {
+            if (Math.abs(tSfc - t) < 0.05) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNearNode(float x, double start, double step, double distance) {
+        final double position = (x - start) / step;
+        return Math.abs(position - Math.rint(position)) * step < distance;
+    }
+}
@@ -0,0 +1,118 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Test class for the inverse RTM tables
+ */
+public class RtmInverseTablesTest extends TestCase {
+
+    private static final double EMISSIVITY_11 = 0.99;
+    private static final float WATER_VAPOUR = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+
+    private RtmLookupTables rtmLuts;
+    private RtmInterpolator[][] rtmInterpolators;
+    private double[] tLowestLayer;
+    private RtmInverseTables inverseTables;
+
+    protected void setUp() throws IOException {
+        rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+        rtmInterpolators = rtmLuts.getRtmInterpolators();
+        tLowestLayer = rtmLuts.getTLowestLayer();
+        inverseTables = RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer, EMISSIVITY_11, WATER_VAPOUR,
+                                                     true, null);
+    }
+
+    public void testSameResultsAsNewton() {
+        final Random random = new Random(123);
+        for (int k = 0; k < 2000; k++) {
+            final float viewZenith = (float) (25.0 * random.nextDouble());
+            final float bt11 = (float) (235.0 + 40.0 * random.nextDouble());
+            final float bt12 = bt11 - (float) (2.0 * random.nextDouble());
+
+            final float expectedTsfc = SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForTemperature(EMISSIVITY_11, WATER_VAPOUR, viewZenith, bt11,
+                                                 rtmInterpolators, tLowestLayer, true);
+            final float tSfc = inverseTables.getSurfaceTemperature(viewZenith, bt11);
+            if (expectedTsfc < 0.0f) {
+                // failed Newton iterations give failures or values in the same range
+                continue;
+            }
+            // the table grids reproduce the Newton solution within its convergence threshold of 0.1K in BT
+            assertEquals(expectedTsfc, tSfc, 0.1);
+
+            final float expectedEmissivity = SnowTemperatureEmissivityRetrieval.
+                    minimizeNewtonForEmissivity(WATER_VAPOUR, viewZenith, expectedTsfc, bt12,
+                                                rtmInterpolators, tLowestLayer, true);
+            final float emissivity = inverseTables.getEmissivity(viewZenith, expectedTsfc, bt12);
+            if (expectedEmissivity >= 0.0f && emissivity >= 0.0f) {
+                assertEquals(expectedEmissivity, emissivity, 0.001);
+            }
+        }
+    }
+
+    public void testFallbackOutsideGrid() {
+        final float bt11 = 310.0f;
+        assertEquals(SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForTemperature(EMISSIVITY_11, WATER_VAPOUR, 10.0f, bt11,
+                                             rtmInterpolators, tLowestLayer, true),
+                     inverseTables.getSurfaceTemperature(10.0f, bt11), 0.0);
+    }
+
+    public void testKeyDependsOnBlending() {
+        final RtmInterpolator[][] blendedRtmInterpolators = rtmLuts.getBlendedRtmInterpolators();
+        assertEquals(RtmInverseTables.createKey(rtmInterpolators, EMISSIVITY_11, WATER_VAPOUR, true),
+                     RtmInverseTables.createKey(rtmLuts.getRtmInterpolators(), EMISSIVITY_11, WATER_VAPOUR, true));
+        assertFalse(RtmInverseTables.createKey(rtmInterpolators, EMISSIVITY_11, WATER_VAPOUR, true).equals(
+                RtmInverseTables.createKey(blendedRtmInterpolators, EMISSIVITY_11, WATER_VAPOUR, true)));
+    }
+
+    public void testWriteFailure() throws IOException {
+        final File parent = File.createTempFile("rtmInverseTables", ".dat");
+        try {
+            // the file cannot be created below a regular file
+            final File file = new File(parent, "rtmInverseTables.dat");
+            final RtmInverseTables inverseTables = RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer, 0.98,
+                                                                                WATER_VAPOUR, true, file);
+            assertNotNull(inverseTables);
+            assertFalse(file.exists());
+            assertSame(inverseTables, RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer, 0.98,
+                                                                   WATER_VAPOUR, true, file));
+        } finally {
+            parent.delete();
+        }
+    }
+
+    public void testPersistence() throws IOException {
+        final File file = File.createTempFile("rtmInverseTables", ".dat");
+        try {
+            assertTrue(file.delete());
+            final RtmInverseTables createdTables = RtmInverseTables.create(rtmInterpolators, tLowestLayer, 0.97,
+                                                                                 WATER_VAPOUR, true);
+            final RtmInverseTables writtenTables = RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer,
+                                                                                  0.97, WATER_VAPOUR, true, file);
+            assertTrue(file.length() > 0);
+
+            RtmInverseTables.clearInstances();
+            final long lastModified = file.lastModified();
+            final RtmInverseTables readTables = RtmInverseTables.getInstance(rtmInterpolators, tLowestLayer,
+                                                                               0.97, WATER_VAPOUR, true, file);
+            assertNotSame(writtenTables, readTables);
+            assertEquals(lastModified, file.lastModified());
+            for (int i = 0; i < 100; i++) {
+                final float viewZenith = 0.5f * i;
+                final float bt = 240.0f + 0.33f * i;
+                assertEquals(createdTables.getSurfaceTemperature(viewZenith, bt),
+                             readTables.getSurfaceTemperature(viewZenith, bt), 0.0);
+                assertEquals(createdTables.getEmissivity(viewZenith, bt + 5.0f, bt),
+                             readTables.getEmissivity(viewZenith, bt + 5.0f, bt), 0.0);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
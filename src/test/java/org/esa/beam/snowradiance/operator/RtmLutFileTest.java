@@ -0,0 +1,91 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+import org.esa.beam.util.math.LookupTable;
+import ucar.nc2.NetcdfFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+
+/**
+ * Test class for the binary RTM LUT format
+ */
+public class RtmLutFileTest extends TestCase {
+
+    private RtmLutFile netcdfLutFile;
+
+    protected void setUp() throws IOException {
+        final URL url = SnowRadianceAuxData.class.getResource("pr3_10.8.nc");
+        final NetcdfFile netcdfFile = NetcdfFile.open(URLDecoder.decode(url.getPath(), "UTF-8"));
+        try {
+            netcdfLutFile = RtmLutFile.readNetcdf(netcdfFile);
+        } finally {
+            netcdfFile.close();
+        }
+    }
+
+    public void testBinaryRoundTrip() throws IOException {
+        final RtmLutFile binaryLutFile = RtmLutFile.readBinary(toBinary(netcdfLutFile));
+
+        final LookupTable expectedLut = netcdfLutFile.createLookupTable();
+        final LookupTable lut = binaryLutFile.createLookupTable();
+        assertEquals(4, lut.getDimensionCount());
+        for (int i = 0; i < 4; i++) {
+            final double[] expectedSequence = expectedLut.getDimension(i).getSequence();
+            final double[] sequence = lut.getDimension(i).getSequence();
+            assertEquals(expectedSequence.length, sequence.length);
+            for (int j = 0; j < sequence.length; j++) {
+                assertEquals(expectedSequence[j], sequence[j], 0.0);
+            }
+        }
+        assertEquals(expectedLut.getValue(-20.0, 260.0, 0.99, 5.0), lut.getValue(-20.0, 260.0, 0.99, 5.0), 0.0);
+
+        final double[] expectedTsfc = netcdfLutFile.getTsfc();
+        final double[] tsfc = binaryLutFile.getTsfc();
+        assertEquals(SnowRadianceConstants.NUMBER_TSFC_LUT, tsfc.length);
+        for (int i = 0; i < tsfc.length; i++) {
+            assertEquals(expectedTsfc[i], tsfc[i], 0.0);
+        }
+    }
+
+    public void testCorruptedBinaryIsRejected() throws IOException {
+        final byte[] data = toBinary(netcdfLutFile);
+        data[100] ^= 0x01;
+        try {
+            RtmLutFile.readBinary(data);
+            fail("IOException expected");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("checksum"));
+        }
+    }
+
+    public void testConverter() throws IOException {
+        final URL url = SnowRadianceAuxData.class.getResource("pr3_10.8.nc");
+        final File sourceFile = new File(URLDecoder.decode(url.getPath(), "UTF-8"));
+        final File targetFile = File.createTempFile("pr3_10.8", RtmLutFile.BINARY_FILE_EXTENSION);
+        try {
+            RtmLutConverter.convert(sourceFile, targetFile);
+            assertEquals(toBinary(netcdfLutFile).length, targetFile.length());
+        } finally {
+            targetFile.delete();
+        }
+    }
+
+    public void testConverterUsage() throws IOException {
+        try {
+            RtmLutConverter.main(new String[]{"onlyOneArgument"});
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().startsWith("Usage"));
+        }
+    }
+
+    private static byte[] toBinary(RtmLutFile rtmLutFile) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        rtmLutFile.writeBinary(outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,79 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test class for the integrated snow albedo
+ */
+public class SnowBroadbandAlbedoTest extends TestCase {
+
+    public void testWeights() {
+        for (int range = SnowBroadbandAlbedo.BROADBAND; range <= SnowBroadbandAlbedo.NIR; range++) {
+            final double[] weights = SnowBroadbandAlbedo.getWeights(range);
+            double sum = 0.0;
+            for (double weight : weights) {
+                assertTrue(weight >= 0.0);
+                sum += weight;
+            }
+            assertEquals(1.0, sum, 1.E-12);
+            // absorption bands are not used
+            assertEquals(0.0, weights[10], 0.0);
+            assertEquals(0.0, weights[14], 0.0);
+        }
+
+        final double[] vis = SnowBroadbandAlbedo.getWeights(SnowBroadbandAlbedo.VIS);
+        final double[] nir = SnowBroadbandAlbedo.getWeights(SnowBroadbandAlbedo.NIR);
+        for (int i = 0; i < 15; i++) {
+            if (i < 8) {
+                assertTrue(vis[i] > 0.0);
+                assertEquals(0.0, nir[i], 0.0);
+            } else if (i > 8 && i != 10 && i != 14) {
+                assertEquals(0.0, vis[i], 0.0);
+                assertTrue(nir[i] > 0.0);
+            }
+        }
+        // band 9 (708.75nm) represents 695-731.25nm, so it contributes to both ranges
+        assertTrue(vis[8] > 0.0);
+        assertTrue(nir[8] > 0.0);
+    }
+
+    public void testCreateWeights() {
+        final float[] wavelengths = new float[]{450.0f, 550.0f, 600.0f, 650.0f};
+        final double[] fluxes = new double[]{2.0, 1.0, 100.0, 1.0};
+        final boolean[] used = new boolean[]{true, true, false, true};
+        final double[] weights = SnowBroadbandAlbedo.createWeights(wavelengths, fluxes, used, 400.0, 700.0);
+        // intervals: 400-500, 500-600, 600-700
+        assertEquals(0.5, weights[0], 1.E-12);
+        assertEquals(0.25, weights[1], 1.E-12);
+        assertEquals(0.0, weights[2], 0.0);
+        assertEquals(0.25, weights[3], 1.E-12);
+    }
+
+    public void testGetAlbedo() {
+        final double[] albedoSpectrum = new double[15];
+        for (int i = 0; i < albedoSpectrum.length; i++) {
+            albedoSpectrum[i] = 0.8;
+        }
+        // the absorption bands are not needed
+        albedoSpectrum[10] = SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE;
+        albedoSpectrum[14] = Double.NaN;
+        for (int range = SnowBroadbandAlbedo.BROADBAND; range <= SnowBroadbandAlbedo.NIR; range++) {
+            assertEquals(0.8, SnowBroadbandAlbedo.getAlbedo(albedoSpectrum, range), 1.E-12);
+        }
+
+        albedoSpectrum[12] = 0.5;
+        final double nir = SnowBroadbandAlbedo.getAlbedo(albedoSpectrum, SnowBroadbandAlbedo.NIR);
+        assertTrue(nir < 0.8 && nir > 0.5);
+        assertEquals(0.8, SnowBroadbandAlbedo.getAlbedo(albedoSpectrum, SnowBroadbandAlbedo.VIS), 1.E-12);
+
+        albedoSpectrum[3] = Double.NaN;
+        assertEquals(SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE,
+                     SnowBroadbandAlbedo.getAlbedo(albedoSpectrum, SnowBroadbandAlbedo.BROADBAND), 0.0);
+        assertEquals(nir, SnowBroadbandAlbedo.getAlbedo(albedoSpectrum, SnowBroadbandAlbedo.NIR), 0.0);
+
+        final boolean[] usedBands = SnowBroadbandAlbedo.getUsedBands();
+        assertFalse(usedBands[10]);
+        assertFalse(usedBands[14]);
+        assertTrue(usedBands[12]);
+    }
+}
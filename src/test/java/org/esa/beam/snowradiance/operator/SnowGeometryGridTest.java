@@ -0,0 +1,83 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+
+/**
+ * Test class for the coarse-grid geometry terms of the snow retrieval
+ */
+public class SnowGeometryGridTest extends TestCase {
+
+    private static final Rectangle RECTANGLE = new Rectangle(100, 200, 128, 96);
+
+    // smooth MERIS-like geometry
+    private static final SnowGeometryGrid.AngleSource SMOOTH_GEOMETRY = new SnowGeometryGrid.AngleSource() {
+        public void getAngles(int x, int y, double[] angles) {
+            angles[0] = 130.0 + 0.005 * x - 0.002 * y;
+            angles[1] = 55.0 + 0.01 * x + 0.02 * y;
+            angles[2] = 100.0 + 0.001 * x;
+            angles[3] = 5.0 + 0.03 * x;
+        }
+    };
+
+    private SnowReflectionFunction approximation;
+
+    @Override
+    protected void setUp() throws Exception {
+        approximation = SnowReflectionFunction.getInstance(SnowReflectionFunction.APPROXIMATION);
+    }
+
+    public void testExactAtGridStepOne() {
+        final SnowGeometryGrid grid = SnowGeometryGrid.create(SMOOTH_GEOMETRY, RECTANGLE, 1, 1.E-4, approximation);
+        assertEquals(1, grid.getGridStep());
+        final double[] values = new double[3];
+        final double[] angles = new double[4];
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y += 7) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x += 5) {
+                SnowGeometryGrid.computeExact(SMOOTH_GEOMETRY, approximation, x, y, angles, values);
+                assertEquals(values[0], grid.getReflFunction(x, y), 0.0);
+                assertEquals(values[1], grid.getEscapeFunctionSun(x, y), 0.0);
+                assertEquals(values[2], grid.getEscapeFunctionView(x, y), 0.0);
+            }
+        }
+    }
+
+    public void testInterpolationErrorBound() {
+        final double maxError = 1.E-4;
+        final SnowGeometryGrid grid = SnowGeometryGrid.create(SMOOTH_GEOMETRY, RECTANGLE, 16, maxError, approximation);
+        assertEquals(16, grid.getGridStep());
+        assertTrue(grid.getInterpolationError() <= maxError);
+
+        // the error bound is checked at the cell centres, so allow some margin for the other pixels
+        final double[] values = new double[3];
+        final double[] angles = new double[4];
+        double maxDeviation = 0.0;
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                SnowGeometryGrid.computeExact(SMOOTH_GEOMETRY, approximation, x, y, angles, values);
+                maxDeviation = Math.max(maxDeviation, Math.abs(values[0] - grid.getReflFunction(x, y)));
+                maxDeviation = Math.max(maxDeviation, Math.abs(values[1] - grid.getEscapeFunctionSun(x, y)));
+                maxDeviation = Math.max(maxDeviation, Math.abs(values[2] - grid.getEscapeFunctionView(x, y)));
+                final double exactProduct = values[1] * values[2];
+                assertEquals(exactProduct, grid.getEscapeFunctionProduct(x, y), 4.0 * maxError);
+            }
+        }
+        assertTrue("max. deviation " + maxDeviation, maxDeviation <= 2.0 * maxError);
+    }
+
+    public void testRefinementAtDiscontinuity() {
+        // the MERIS view azimuth jumps by 180 degree at nadir
+        final SnowGeometryGrid.AngleSource nadirCrossing = new SnowGeometryGrid.AngleSource() {
+            public void getAngles(int x, int y, double[] angles) {
+                SMOOTH_GEOMETRY.getAngles(x, y, angles);
+                final int nadirX = RECTANGLE.x + 37;
+                angles[2] = x < nadirX ? 100.0 : 280.0;
+                angles[3] = 0.03 * Math.abs(x - nadirX) + 1.0;
+            }
+        };
+        final SnowGeometryGrid grid = SnowGeometryGrid.create(nadirCrossing, RECTANGLE, 32, 1.E-4, approximation);
+        assertTrue(grid.getGridStep() < 32);
+        assertTrue(grid.getInterpolationError() <= 1.E-4);
+    }
+}
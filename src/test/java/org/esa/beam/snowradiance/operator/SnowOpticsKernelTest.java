@@ -0,0 +1,183 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test class for the snow grain size / soot / albedo kernels
+ */
+public class SnowOpticsKernelTest extends TestCase {
+
+    // test scene as in SnowGrainSizePollutionTest
+    private static final double[] MERIS_REFLECTANCES = new double[]{
+            0.958, 0.9597, 0.9611, 0.9614, 0.9615, 0.9597, 0.9562, 0.9552, 0.9507, 0.9419, 0.9336, 0.9113, 0.8957
+    };
+
+    public void testTestScene() {
+        final double reflLut = SnowGrainSizePollutionRetrieval.computeReflLutApprox(0.0, 54.0, 0.0, 0.0);
+        final double escapeFunctionProduct = SnowGrainSizePollutionRetrieval.getEscapeFunction(54.0) *
+                                             SnowGrainSizePollutionRetrieval.getEscapeFunction(0.0);
+        for (String name : new String[]{SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH}) {
+            final SnowOpticsKernel kernel = SnowOpticsKernel.getInstance(name);
+            final double pal = kernel.getParticleAbsorptionLength(MERIS_REFLECTANCES[1], MERIS_REFLECTANCES[11],
+                                                                  reflLut, escapeFunctionProduct);
+            assertEquals(name, 0.1526, pal, 1.E-3);
+            final double grainSize = SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
+            assertEquals(name, 0.058, grainSize, 1.E-3);
+            final double conc = kernel.getSootConcentrationInPollutedSnow(MERIS_REFLECTANCES[1], reflLut,
+                                                                          escapeFunctionProduct, grainSize);
+            assertEquals(name, 127.665, conc, 1.E-3);
+        }
+    }
+
+    public void testMaximumDeviationFromReference() {
+        final SnowOpticsKernel reference = SnowOpticsKernel.getInstance(SnowOpticsKernel.REFERENCE);
+        final SnowOpticsKernel optimized = SnowOpticsKernel.getInstance(SnowOpticsKernel.OPTIMIZED);
+        final SnowOpticsKernel fastMath = SnowOpticsKernel.getInstance(SnowOpticsKernel.FAST_MATH);
+
+        final double[] maxOptimized = new double[3];
+        final double[] maxFastMath = new double[3];
+        final Random random = new Random(31);
+        for (int k = 0; k < 100000; k++) {
+            final double sza = 40.0 + 40.0 * random.nextDouble();
+            final double vza = 40.0 * random.nextDouble();
+            final double saa = 360.0 * random.nextDouble();
+            final double vaa = 360.0 * random.nextDouble();
+            final double reflLut = SnowGrainSizePollutionRetrieval.computeReflLutApprox(saa, sza, vaa, vza);
+            final double escapeFunctionProduct = SnowGrainSizePollutionRetrieval.getEscapeFunction(sza) *
+                                                 SnowGrainSizePollutionRetrieval.getEscapeFunction(vza);
+            // perturbed test scene
+            final double scale = 0.8 + 0.25 * random.nextDouble();
+            final double refl2 = scale * MERIS_REFLECTANCES[1];
+            final double refl13 = scale * MERIS_REFLECTANCES[11] * (0.9 + 0.1 * random.nextDouble());
+
+            final double pal = reference.getParticleAbsorptionLength(refl2, refl13, reflLut, escapeFunctionProduct);
+            updateDeviation(maxOptimized, 0, pal,
+                            optimized.getParticleAbsorptionLength(refl2, refl13, reflLut, escapeFunctionProduct));
+            updateDeviation(maxFastMath, 0, pal,
+                            fastMath.getParticleAbsorptionLength(refl2, refl13, reflLut, escapeFunctionProduct));
+
+            final double grainSize = 0.05 + 0.5 * random.nextDouble();
+            final double conc = reference.getSootConcentrationInPollutedSnow(refl2, reflLut, escapeFunctionProduct, grainSize);
+            updateDeviation(maxOptimized, 1, conc,
+                            optimized.getSootConcentrationInPollutedSnow(refl2, reflLut, escapeFunctionProduct, grainSize));
+            updateDeviation(maxFastMath, 1, conc,
+                            fastMath.getSootConcentrationInPollutedSnow(refl2, reflLut, escapeFunctionProduct, grainSize));
+
+            final double albedo = reference.getSnowAlbedo(refl13, reflLut, escapeFunctionProduct);
+            updateDeviation(maxOptimized, 2, albedo, optimized.getSnowAlbedo(refl13, reflLut, escapeFunctionProduct));
+            updateDeviation(maxFastMath, 2, albedo, fastMath.getSnowAlbedo(refl13, reflLut, escapeFunctionProduct));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(maxOptimized[i] < 1.E-9);
+            assertTrue(maxFastMath[i] < 1.E-9);
+        }
+    }
+
+    public void testComputeSnowOptics() {
+        final double reflLut = SnowGrainSizePollutionRetrieval.computeReflLutApprox(0.0, 54.0, 0.0, 0.0);
+        final double escapeFunctionProduct = SnowGrainSizePollutionRetrieval.getEscapeFunction(54.0) *
+                                             SnowGrainSizePollutionRetrieval.getEscapeFunction(0.0);
+        final double[] merisReflectances = new double[15];
+        System.arraycopy(MERIS_REFLECTANCES, 0, merisReflectances, 0, MERIS_REFLECTANCES.length);
+        final SnowOpticsResult result = new SnowOpticsResult();
+        for (String name : new String[]{SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH}) {
+            final SnowOpticsKernel kernel = SnowOpticsKernel.getInstance(name);
+            final double pal = kernel.getParticleAbsorptionLength(merisReflectances[1], merisReflectances[12],
+                                                                  reflLut, escapeFunctionProduct);
+            final double grainSize = SnowGrainSizePollutionRetrieval.getUnpollutedSnowGrainSize(pal);
+            final double conc = kernel.getSootConcentrationInPollutedSnow(merisReflectances[12], reflLut,
+                                                                          escapeFunctionProduct, grainSize);
+
+            // grain size and soot only, no albedo
+            final boolean[] albedoBands = new boolean[15];
+            kernel.computeSnowOptics(merisReflectances, reflLut, escapeFunctionProduct, true, true, albedoBands, result);
+            assertEquals(name, pal, result.getParticleAbsorptionLength(), 0.0);
+            assertEquals(name, grainSize, result.getGrainSize(), 0.0);
+            assertEquals(name, conc, result.getSootConcentration(), 0.0);
+            for (int i = 0; i < albedoBands.length; i++) {
+                assertEquals(name, SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE, result.getAlbedo(i), 0.0);
+            }
+
+            // with albedo at 865nm, which is shared with the particle absorption length
+            albedoBands[2] = true;
+            albedoBands[12] = true;
+            kernel.computeSnowOptics(merisReflectances, reflLut, escapeFunctionProduct, true, false, albedoBands, result);
+            assertEquals(name, pal, result.getParticleAbsorptionLength(), 1.E-12 * pal);
+            assertEquals(name, grainSize, result.getGrainSize(), 1.E-12 * grainSize);
+            assertEquals(name, SnowRadianceConstants.SOOT_CONCENTRATION_BAND_NODATAVALUE,
+                         result.getSootConcentration(), 0.0);
+            assertEquals(name, kernel.getSnowAlbedo(merisReflectances[2], reflLut, escapeFunctionProduct),
+                         result.getAlbedo(2), 1.E-12);
+            assertEquals(name, kernel.getSnowAlbedo(merisReflectances[12], reflLut, escapeFunctionProduct),
+                         result.getAlbedo(12), 1.E-12);
+            assertEquals(name, SnowRadianceConstants.SNOW_ALBEDO_BAND_NODATAVALUE, result.getAlbedo(3), 0.0);
+
+            // albedo only
+            kernel.computeSnowOptics(merisReflectances, reflLut, escapeFunctionProduct, false, false, albedoBands, result);
+            assertEquals(name, SnowRadianceConstants.UNPOLLUTED_SNOW_GRAIN_SIZE_BAND_NODATAVALUE,
+                         result.getGrainSize(), 0.0);
+            assertEquals(name, kernel.getSnowAlbedo(merisReflectances[2], reflLut, escapeFunctionProduct),
+                         result.getAlbedo(2), 1.E-12);
+        }
+    }
+
+    public void testSnowAlbedoSpectrum() {
+        final SnowOpticsKernel reference = SnowOpticsKernel.getInstance(SnowOpticsKernel.REFERENCE);
+        final boolean[] albedoBands = new boolean[15];
+        for (int i = 0; i < albedoBands.length; i++) {
+            albedoBands[i] = i != 10;
+        }
+        final double[] merisReflectances = new double[15];
+        final double[] albedo = new double[15];
+        final Random random = new Random(5);
+        for (String name : new String[]{SnowOpticsKernel.REFERENCE, SnowOpticsKernel.OPTIMIZED, SnowOpticsKernel.FAST_MATH}) {
+            final SnowOpticsKernel kernel = SnowOpticsKernel.getInstance(name);
+            for (int k = 0; k < 1000; k++) {
+                final double sza = 40.0 + 40.0 * random.nextDouble();
+                final double vza = 40.0 * random.nextDouble();
+                final double reflLut = SnowGrainSizePollutionRetrieval.computeReflLutApprox(0.0, sza, 90.0, vza);
+                final double escapeFunctionProduct = SnowGrainSizePollutionRetrieval.getEscapeFunction(sza) *
+                                                     SnowGrainSizePollutionRetrieval.getEscapeFunction(vza);
+                for (int i = 0; i < merisReflectances.length; i++) {
+                    merisReflectances[i] = 0.3 + 0.7 * random.nextDouble();
+                }
+                albedo[10] = -1.0;
+                kernel.getSnowAlbedoSpectrum(merisReflectances, reflLut, escapeFunctionProduct, albedoBands, albedo);
+                for (int i = 0; i < albedo.length; i++) {
+                    if (albedoBands[i]) {
+                        final double expected = reference.getSnowAlbedo(merisReflectances[i], reflLut,
+                                                                        escapeFunctionProduct);
+                        assertEquals(name, expected, albedo[i], 1.E-9 * expected);
+                    } else {
+                        assertEquals(name, -1.0, albedo[i], 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testFastLogExp() {
+        final Random random = new Random(3);
+        for (int k = 0; k < 100000; k++) {
+            final double x = Math.exp(40.0 * (random.nextDouble() - 0.5));
+            assertEquals(Math.log(x), SnowOpticsKernel.fastLog(x), 1.E-9 * Math.max(1.0, Math.abs(Math.log(x))));
+            final double y = 40.0 * (random.nextDouble() - 0.5);
+            assertEquals(Math.exp(y), SnowOpticsKernel.fastExp(y), 1.E-9 * Math.exp(y));
+        }
+        assertTrue(Double.isNaN(SnowOpticsKernel.fastLog(-1.0)));
+        assertEquals(Double.NEGATIVE_INFINITY, SnowOpticsKernel.fastLog(0.0), 0.0);
+        assertEquals(0.0, SnowOpticsKernel.fastLog(1.0), 0.0);
+    }
+
+    private static void updateDeviation(double[] maxDeviation, int i, double expected, double actual) {
+        if (Double.isNaN(expected) || Double.isInfinite(expected)) {
+            assertTrue(Double.isNaN(actual) || Double.isInfinite(actual));
+            return;
+        }
+        final double deviation = Math.abs(actual - expected) / Math.max(Math.abs(expected), 1.E-12);
+        maxDeviation[i] = Math.max(maxDeviation[i], deviation);
+    }
+}
@@ -0,0 +1,91 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.beam.framework.gpf.Tile;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test class for the target band plan
+ */
+public class SnowRadianceBandPlanTest extends TestCase {
+
+    public void testGetTile() {
+        final Band ndviBand = new Band("ndvi", ProductData.TYPE_FLOAT32, 10, 10);
+        final Band mdsiBand = new Band("mdsi", ProductData.TYPE_FLOAT32, 10, 10);
+        final SnowRadianceBandPlan bandPlan = new SnowRadianceBandPlan();
+        bandPlan.setBand(SnowRadianceBandPlan.NDVI, ndviBand);
+        bandPlan.setBand(SnowRadianceBandPlan.MDSI, mdsiBand);
+
+        final Tile ndviTile = createTile();
+        final Map<Band, Tile> targetTiles = new HashMap<Band, Tile>();
+        targetTiles.put(ndviBand, ndviTile);
+
+        assertSame(ndviTile, bandPlan.getTile(targetTiles, SnowRadianceBandPlan.NDVI));
+        // band exists but is not requested
+        assertNull(bandPlan.getTile(targetTiles, SnowRadianceBandPlan.MDSI));
+        // band does not exist
+        assertNull(bandPlan.getTile(targetTiles, SnowRadianceBandPlan.NDSI));
+    }
+
+    public void testGetTilesAndRequestedIndices() {
+        final SnowRadianceBandPlan bandPlan = new SnowRadianceBandPlan();
+        final Map<Band, Tile> targetTiles = new HashMap<Band, Tile>();
+        for (int i = 0; i < 4; i++) {
+            final Band albedoBand = new Band("snow_albedo_" + i, ProductData.TYPE_FLOAT32, 10, 10);
+            bandPlan.setBand(SnowRadianceBandPlan.SNOW_ALBEDO + i, albedoBand);
+            if (i % 2 == 1) {
+                targetTiles.put(albedoBand, createTile());
+            }
+        }
+
+        final Tile[] tiles = bandPlan.getTiles(targetTiles, SnowRadianceBandPlan.SNOW_ALBEDO, 6);
+        assertEquals(6, tiles.length);
+        final int[] indices = SnowRadianceBandPlan.getRequestedIndices(tiles);
+        assertEquals(2, indices.length);
+        assertEquals(1, indices[0]);
+        assertEquals(3, indices[1]);
+    }
+
+    public void testCopiedBands() {
+        final Band targetBand = new Band("l1_flags", ProductData.TYPE_INT16, 10, 10);
+        final Band sourceBand = new Band("l1_flags", ProductData.TYPE_INT16, 10, 10);
+        final SnowRadianceBandPlan bandPlan = new SnowRadianceBandPlan();
+        assertEquals(0, bandPlan.getNumCopiedBands());
+        bandPlan.addCopiedBand(targetBand, sourceBand);
+        assertEquals(1, bandPlan.getNumCopiedBands());
+        assertSame(targetBand, bandPlan.getCopiedTargetBand(0));
+        assertSame(sourceBand, bandPlan.getCopiedSourceBand(0));
+    }
+
+    public void testGetRequestedSamples() {
+        final float[] a = new float[3];
+        final float[] b = new float[3];
+        final float[][] requested = SnowRadianceBandPlan.getRequestedSamples(null, a, null, b);
+        assertEquals(2, requested.length);
+        assertSame(a, requested[0]);
+        assertSame(b, requested[1]);
+        assertEquals(0, SnowRadianceBandPlan.getRequestedSamples(null, null).length);
+    }
+
+    private static Tile createTile() {
+        return (Tile) Proxy.newProxyInstance(Tile.class.getClassLoader(), new Class[]{Tile.class},
+                                             new InvocationHandler() {
+                                                 public Object invoke(Object proxy, Method method, Object[] args) {
+                                                     if (method.getName().equals("equals")) {
+                                                         return proxy == args[0];
+                                                     }
+                                                     if (method.getName().equals("hashCode")) {
+                                                         return System.identityHashCode(proxy);
+                                                     }
+                                                     return null;
+                                                 }
+                                             });
+    }
+}
@@ -18,13 +18,30 @@ import org.esa.beam.snowradiance.util.SnowRadianceUtils;
  */
 public class SnowTemperatureFubOpTest extends TestCase {
 
+    // the pixel of the Newton iteration tests
+    private static final float VIEW_ANGLE = 20.9755f;
+    private static final float WATER_VAPOUR = 3.6498f;
+    private static final float BT11 = 250.42f;
+    private static final float BT12 = 250.010f;
+    private static final float TSFC = 250.945f;
+
+    // loaded once for all tests
+    private static RtmLookupTables rtmLuts;
+
     private String lutPath;
+    private RtmInterpolator[][] rtmInterpolators;
+    private double[] tLowestLayer;
 
     protected void setUp() {
 
         try {
             final URL url = getClass().getResource("");
             lutPath = URLDecoder.decode(url.getPath(), "UTF-8");
+            if (rtmLuts == null) {
+                rtmLuts = SnowRadianceAuxData.loadRtmLookupTables();
+            }
+            rtmInterpolators = rtmLuts.getRtmInterpolators();
+            tLowestLayer = rtmLuts.getTLowestLayer();
         } catch (IOException e) {
             fail("Auxdata cloud not be loaded: " + e.getMessage());
         }
@@ -56,6 +73,22 @@ public class SnowTemperatureFubOpTest extends TestCase {
         }
     }
 
+    public void testSharedRtmLutCache() throws IOException {
+        final int referenceCount = SnowRadianceAuxData.getRtmLookupTablesReferenceCount();
+        final RtmLookupTables rtmLuts1 = SnowRadianceAuxData.acquireRtmLookupTables();
+        final RtmLookupTables rtmLuts2 = SnowRadianceAuxData.acquireRtmLookupTables();
+        try {
+            assertSame(rtmLuts1, rtmLuts2);
+            assertEquals(referenceCount + 2, SnowRadianceAuxData.getRtmLookupTablesReferenceCount());
+            assertEquals(4, rtmLuts1.getTLowestLayer().length);
+            assertEquals(rtmLuts1.getTsfcLut()[0][0][24], rtmLuts1.getTLowestLayer()[0], 1.E-6);
+        } finally {
+            SnowRadianceAuxData.releaseRtmLookupTables(rtmLuts1);
+            SnowRadianceAuxData.releaseRtmLookupTables(rtmLuts2);
+        }
+        assertEquals(referenceCount, SnowRadianceAuxData.getRtmLookupTablesReferenceCount());
+    }
+
     public void testGetNearestValueIndices() {
         double[] array = new double[]{1.0, 2.0, 3.0, 4.0, 5.0};
 
@@ -226,4 +259,89 @@ public class SnowTemperatureFubOpTest extends TestCase {
             fail(e.getMessage());
         }
     }
+
+    public void testMinimizeNewtonWithRtmInterpolators() {
+        float temp = SnowTemperatureEmissivityRetrieval.minimizeNewtonForTemperature(0.99, WATER_VAPOUR, VIEW_ANGLE,
+                                                                                     BT11, rtmInterpolators,
+                                                                                     tLowestLayer);
+        assertEquals(TSFC, temp, 1.E-3);
+        temp = SnowTemperatureEmissivityRetrieval.minimizeNewtonForTemperature(0.99, WATER_VAPOUR, VIEW_ANGLE, BT11,
+                                                                               rtmLuts.getBlendedRtmInterpolators(),
+                                                                               tLowestLayer);
+        assertEquals(TSFC, temp, 1.E-3);
+
+        float emis = SnowTemperatureEmissivityRetrieval.minimizeNewtonForEmissivity(WATER_VAPOUR, VIEW_ANGLE, TSFC,
+                                                                                    BT12, rtmInterpolators,
+                                                                                    tLowestLayer);
+        assertEquals(0.9837, emis, 1.E-3);
+    }
+
+    public void testMinimizeNewtonWithAnalyticalDerivatives() {
+        // the analytical derivatives are piecewise constant within the LUT cells, so the Newton iteration
+        // stops at a slightly different point within the convergence threshold
+        final float temp = SnowTemperatureEmissivityRetrieval.minimizeNewtonForTemperature(0.99, WATER_VAPOUR,
+                                                                                           VIEW_ANGLE, BT11,
+                                                                                           rtmInterpolators,
+                                                                                           tLowestLayer, true);
+        assertEquals(TSFC, temp, 1.E-2);
+
+        final float emis = SnowTemperatureEmissivityRetrieval.minimizeNewtonForEmissivity(WATER_VAPOUR, VIEW_ANGLE,
+                                                                                          TSFC, BT12,
+                                                                                          rtmInterpolators,
+                                                                                          tLowestLayer, true);
+        assertEquals(0.9837, emis, 1.E-3);
+    }
+
+    public void testLookupTableGradient() {
+        final RtmFunction[][] rtmFunctions =
+                SnowTemperatureEmissivityRetrieval.createRtmFunctions(rtmLuts.getRtmLookupTables());
+        final double[] expectedGradient = new double[2];
+        final double[] gradient = new double[2];
+        for (int j = 0; j < SnowRadianceConstants.NUMBER_AATSR_WVL; j++) {
+            final double expected = rtmInterpolators[0][j].getValue(VIEW_ANGLE, TSFC, 0.97, WATER_VAPOUR,
+                                                                    expectedGradient);
+            assertEquals(expected, rtmFunctions[0][j].getValue(VIEW_ANGLE, TSFC, 0.97, WATER_VAPOUR, gradient),
+                         1.E-3);
+            // central differences across LUT nodes, so close to the cell derivatives only
+            assertEquals(expectedGradient[0], gradient[0], 1.E-2 * expectedGradient[0]);
+            assertEquals(expectedGradient[1], gradient[1], 1.E-2 * expectedGradient[1]);
+        }
+    }
+
+    public void testRetrieveTemperatureAndEmissivity() {
+        final TemperatureEmissivityResult result = new TemperatureEmissivityResult();
+        SnowTemperatureEmissivityRetrieval.retrieveTemperatureAndEmissivity(0.99, WATER_VAPOUR, VIEW_ANGLE, BT11, BT12,
+                                                                            rtmInterpolators, tLowestLayer,
+                                                                            false, true, result);
+        assertEquals(TemperatureEmissivityResult.STATUS_OK, result.getStatus());
+        assertTrue(result.isTemperatureValid());
+        assertTrue(result.isEmissivityValid());
+        final float expectedTsfc = SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForTemperature(0.99, WATER_VAPOUR, VIEW_ANGLE, BT11, rtmInterpolators, tLowestLayer);
+        assertEquals(expectedTsfc, result.getTemperature(), 1.E-6);
+        assertEquals(SnowTemperatureEmissivityRetrieval.
+                minimizeNewtonForEmissivity(WATER_VAPOUR, VIEW_ANGLE, expectedTsfc, BT12,
+                                            rtmInterpolators, tLowestLayer),
+                     result.getEmissivity(), 1.E-6);
+        assertTrue(result.getTemperatureIterations() > 0);
+        assertTrue(result.getEmissivityIterations() > 0);
+
+        // temperature only
+        SnowTemperatureEmissivityRetrieval.retrieveTemperatureAndEmissivity(0.99, WATER_VAPOUR, VIEW_ANGLE, BT11, BT12,
+                                                                            rtmInterpolators, tLowestLayer,
+                                                                            false, false, result);
+        assertEquals(TemperatureEmissivityResult.STATUS_TEMPERATURE_ONLY, result.getStatus());
+        assertEquals(expectedTsfc, result.getTemperature(), 1.E-6);
+        assertFalse(result.isEmissivityValid());
+        assertEquals(0, result.getEmissivityIterations());
+
+        // failing temperature retrieval
+        SnowTemperatureEmissivityRetrieval.retrieveTemperatureAndEmissivity(0.99, WATER_VAPOUR, VIEW_ANGLE, 100.0f,
+                                                                            BT12, rtmInterpolators, tLowestLayer,
+                                                                            false, true, result);
+        assertEquals(TemperatureEmissivityResult.STATUS_TEMPERATURE_FAILED, result.getStatus());
+        assertFalse(result.isTemperatureValid());
+        assertEquals(SnowRadianceConstants.SNOW_TEMPERATURE_BAND_NODATAVALUE, result.getTemperature(), 1.E-6);
+        assertEquals(SnowRadianceConstants.EMISSIVITY_BAND_NODATAVALUE, result.getEmissivity(), 1.E-6);
+    }
 }
@@ -0,0 +1,44 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+/**
+ * Test class for the node grid of the per-tile precomputations
+ */
+public class TileNodeGridTest extends TestCase {
+
+    public void testNodes() {
+        final TileNodeGrid nodeGrid = new TileNodeGrid(10, 1, 4);
+        final int[] xNodes = nodeGrid.getXNodes();
+        assertEquals(4, xNodes.length);
+        assertEquals(0, xNodes[0]);
+        assertEquals(4, xNodes[1]);
+        assertEquals(8, xNodes[2]);
+        // always including the last pixel
+        assertEquals(9, xNodes[3]);
+        assertEquals(1, nodeGrid.getYNodes().length);
+        assertEquals(4, nodeGrid.getNumNodes());
+    }
+
+    public void testInterpolate() {
+        final TileNodeGrid nodeGrid = new TileNodeGrid(5, 3, 4);
+        final double[] nodeValues = new double[]{
+                1.0, 3.0,
+                5.0, 11.0
+        };
+        final double[] values = new double[15];
+        nodeGrid.interpolate(nodeValues, values);
+        assertEquals(1.0, values[0], 0.0);
+        assertEquals(3.0, values[4], 0.0);
+        assertEquals(5.0, values[10], 0.0);
+        assertEquals(11.0, values[14], 0.0);
+        assertEquals(2.0, values[2], 1.0E-12);
+        assertEquals(5.0, values[7], 1.0E-12);
+
+        final float[] floatValues = new float[15];
+        nodeGrid.interpolate(new float[]{1.0f, 3.0f, 5.0f, 11.0f}, floatValues);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], floatValues[i], 1.0E-6);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.esa.beam.snowradiance.operator;
+
+import com.bc.jnn.JnnNet;
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Test class for the batch water vapour retrieval
+ */
+public class WaterVapourBatchRetrievalTest extends TestCase {
+
+    private JnnNet neuralNetWv;
+    private CompiledNeuralNet compiledNeuralNetWv;
+
+    @Override
+    protected void setUp() throws Exception {
+        neuralNetWv = SnowRadianceAuxData.loadNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
+        compiledNeuralNetWv = SnowRadianceAuxData.getCompiledNeuralNet(
+                SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
+    }
+
+    public void testBatchEqualsSinglePixelRetrieval() {
+        final int count = 200;
+        final float[] zonalWind = new float[count];
+        final float[] meridionalWind = new float[count];
+        final float[] azimuthDifference = new float[count];
+        final float[] viewZenith = new float[count];
+        final float[] sunZenith = new float[count];
+        final float[] radiance14 = new float[count];
+        final float[] radiance15 = new float[count];
+        final Random random = new Random(4711);
+        for (int k = 0; k < count; k++) {
+            // ranges partly exceed the valid net inputs
+            zonalWind[k] = 30.0f * (random.nextFloat() - 0.5f);
+            meridionalWind[k] = 30.0f * (random.nextFloat() - 0.5f);
+            azimuthDifference[k] = 180.0f * random.nextFloat();
+            viewZenith[k] = 45.0f * random.nextFloat();
+            sunZenith[k] = 20.0f + 70.0f * random.nextFloat();
+            radiance14[k] = 50.0f + 50.0f * random.nextFloat();
+            radiance15[k] = 30.0f + 50.0f * random.nextFloat();
+        }
+
+        final float[] waterVapour = new float[count];
+        final WaterVapourBatchRetrieval retrieval = new WaterVapourBatchRetrieval(compiledNeuralNetWv, count);
+        retrieval.computeWaterVapour(zonalWind, meridionalWind, azimuthDifference, viewZenith, sunZenith,
+                                     radiance14, radiance15, count, waterVapour);
+
+        int numStandardValues = 0;
+        for (int k = 0; k < count; k++) {
+            final float expected = SnowTemperatureEmissivityRetrieval.computeWaterVapour(neuralNetWv,
+                                                                                         zonalWind[k], meridionalWind[k],
+                                                                                         azimuthDifference[k],
+                                                                                         viewZenith[k], sunZenith[k],
+                                                                                         radiance14[k], radiance15[k]);
+            assertEquals(expected, waterVapour[k], 1.0E-5f);
+            if (expected == SnowRadianceConstants.WATER_VAPOUR_STANDARD_VALUE) {
+                numStandardValues++;
+            }
+        }
+        // both branches must have been exercised
+        assertTrue(numStandardValues > 0);
+        assertTrue(numStandardValues < count);
+    }
+
+    public void testRowOfTileSamples() {
+        final int width = 7;
+        final int height = 3;
+        final int size = width * height;
+        final float[] zonalWind = new float[size];
+        final float[] meridionalWind = new float[size];
+        final float[] sunAzimuth = new float[size];
+        final float[] sunZenith = new float[size];
+        final float[] viewAzimuth = new float[size];
+        final float[] viewZenith = new float[size];
+        final float[] radiance14 = new float[size];
+        final float[] radiance15 = new float[size];
+        for (int k = 0; k < size; k++) {
+            zonalWind[k] = 3.0f;
+            meridionalWind[k] = 4.0f - 0.2f * k;
+            sunAzimuth[k] = 140.0f + k;
+            sunZenith[k] = 50.0f;
+            viewAzimuth[k] = 100.0f;
+            viewZenith[k] = 1.5f * k;
+            radiance14[k] = 60.0f;
+            radiance15[k] = 40.0f + k;
+        }
+
+        final float[] waterVapour = new float[size];
+        final WaterVapourBatchRetrieval retrieval = new WaterVapourBatchRetrieval(compiledNeuralNetWv, width);
+        retrieval.computeWaterVapour(zonalWind, meridionalWind, sunAzimuth, sunZenith, viewAzimuth, viewZenith,
+                                     radiance14, radiance15, width, width, waterVapour);
+
+        for (int k = 0; k < size; k++) {
+            if (k < width || k >= 2 * width) {
+                assertEquals(0.0f, waterVapour[k], 0.0f);
+            } else {
+                final float azimuthDifference = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(
+                        viewAzimuth[k], sunAzimuth[k]);
+                final float expected = SnowTemperatureEmissivityRetrieval.computeWaterVapour(neuralNetWv,
+                                                                                             zonalWind[k], meridionalWind[k],
+                                                                                             azimuthDifference,
+                                                                                             viewZenith[k], sunZenith[k],
+                                                                                             radiance14[k], radiance15[k]);
+                assertEquals(expected, waterVapour[k], 1.0E-5f);
+            }
+        }
+    }
+
+    public void testBatchSizeExceedsCapacity() {
+        final WaterVapourBatchRetrieval retrieval = new WaterVapourBatchRetrieval(compiledNeuralNetWv, 2);
+        final float[] values = new float[3];
+        try {
+            retrieval.computeWaterVapour(values, values, values, values, values, values, values, 3, values);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.esa.beam.snowradiance.operator;
+
+import junit.framework.TestCase;
+
+import java.awt.Rectangle;
+
+/**
+ * Test class for the water vapour field of the temperature retrieval
+ */
+public class WaterVapourGridTest extends TestCase {
+
+    private static final float DEFAULT_VALUE = SnowRadianceConstants.WATER_VAPOUR_TEMPERATURE_RETRIEVAL;
+
+    private CompiledNeuralNet neuralNetWv;
+
+    @Override
+    protected void setUp() throws Exception {
+        neuralNetWv = SnowRadianceAuxData.getCompiledNeuralNet(SnowRadianceAuxData.NEURAL_NET_WV_OCEAN_MERIS_FILE_NAME);
+    }
+
+    public void testUniformInputs() {
+        final Rectangle rectangle = new Rectangle(10, 20, 37, 29);
+        final WaterVapourGrid grid = WaterVapourGrid.create(new TestInputSource(0.0f), rectangle, 8,
+                                                            neuralNetWv, DEFAULT_VALUE);
+        assertEquals(8, grid.getGridStep());
+
+        final float expected = computePixelWaterVapour(new TestInputSource(0.0f), 0, 0);
+        assertTrue(expected != DEFAULT_VALUE);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                assertEquals(expected, grid.getWaterVapour(x, y), 1.0E-5f);
+            }
+        }
+    }
+
+    public void testRtmUnits() {
+        final TestInputSource inputSource = new TestInputSource(0.0f);
+        // the neural net gives g/cm^2 for these inputs...
+        final float[] neuralNetOutput = new float[1];
+        new WaterVapourBatchRetrieval(neuralNetWv, 1).computeWaterVapour(
+                new float[]{3.0f}, new float[]{4.0f}, new float[]{40.0f}, new float[]{20.0f}, new float[]{50.0f},
+                new float[]{60.0f}, new float[]{45.0f}, 1, Float.NaN, neuralNetOutput);
+        assertEquals(1.2448f, neuralNetOutput[0], 1.0E-4f);
+        // ...and the grid gives kg/m^2, on the water vapour axis of the RTM LUTs
+        final WaterVapourGrid grid = WaterVapourGrid.create(inputSource, new Rectangle(0, 0, 5, 5), 4,
+                                                            neuralNetWv, DEFAULT_VALUE);
+        assertEquals(12.448f, grid.getWaterVapour(2, 2), 1.0E-3f);
+    }
+
+    public void testStepOneIsPixelRetrieval() {
+        final Rectangle rectangle = new Rectangle(0, 0, 12, 7);
+        final TestInputSource inputSource = new TestInputSource(0.3f);
+        final WaterVapourGrid grid = WaterVapourGrid.create(inputSource, rectangle, 1, neuralNetWv, DEFAULT_VALUE);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                assertEquals(computePixelWaterVapour(inputSource, x, y), grid.getWaterVapour(x, y), 1.0E-5f);
+            }
+        }
+    }
+
+    public void testInterpolationBetweenNodes() {
+        final Rectangle rectangle = new Rectangle(0, 0, 17, 1);
+        final TestInputSource inputSource = new TestInputSource(0.3f);
+        final WaterVapourGrid grid = WaterVapourGrid.create(inputSource, rectangle, 16, neuralNetWv, DEFAULT_VALUE);
+        final float v0 = grid.getWaterVapour(0, 0);
+        final float v1 = grid.getWaterVapour(16, 0);
+        assertTrue(v0 != v1);
+        for (int x = 1; x < 16; x++) {
+            assertEquals(v0 + x / 16.0f * (v1 - v0), grid.getWaterVapour(x, 0), 1.0E-5f);
+        }
+    }
+
+    public void testInvalidRadiances() {
+        final Rectangle rectangle = new Rectangle(0, 0, 20, 20);
+        final TestInputSource inputSource = new TestInputSource(0.0f);
+        inputSource.radiance14 = Float.NaN;
+        final WaterVapourGrid grid = WaterVapourGrid.create(inputSource, rectangle, 4, neuralNetWv, DEFAULT_VALUE);
+        assertEquals(DEFAULT_VALUE, grid.getWaterVapour(0, 0), 0.0f);
+        assertEquals(DEFAULT_VALUE, grid.getWaterVapour(13, 7), 0.0f);
+    }
+
+    public void testInvalidNodesFilledFromValidNodes() {
+        final Rectangle rectangle = new Rectangle(0, 0, 20, 20);
+        final TestInputSource inputSource = new TestInputSource(0.0f);
+        // no valid radiances left of x = 6, so the nodes at x = 0 and x = 4 are invalid
+        inputSource.invalidRadianceXLimit = 6;
+        final WaterVapourGrid grid = WaterVapourGrid.create(inputSource, rectangle, 4, neuralNetWv, DEFAULT_VALUE);
+
+        final float expected = computePixelWaterVapour(new TestInputSource(0.0f), 10, 10);
+        assertTrue(Math.abs(expected - DEFAULT_VALUE) > 1.0f);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                assertEquals(expected, grid.getWaterVapour(x, y), 1.0E-4f);
+            }
+        }
+    }
+
+    public void testFillInvalidNodes() {
+        final float[] nodeValues = new float[]{
+                10.0f, 0.0f, 20.0f,
+                0.0f, 0.0f, 0.0f,
+                0.0f, 0.0f, 0.0f
+        };
+        final boolean[] valid = new boolean[]{
+                true, false, true,
+                false, false, false,
+                false, false, false
+        };
+        WaterVapourGrid.fillInvalidNodes(nodeValues, valid, 3, 3);
+        assertEquals(15.0f, nodeValues[1], 1.0E-5f);
+        assertEquals(10.0f, nodeValues[3], 1.0E-5f);
+        assertEquals(15.0f, nodeValues[4], 1.0E-5f);
+        assertEquals(20.0f, nodeValues[5], 1.0E-5f);
+        // second ring, from the nodes filled before
+        assertEquals(12.5f, nodeValues[6], 1.0E-5f);
+        assertEquals(15.0f, nodeValues[7], 1.0E-5f);
+        assertEquals(17.5f, nodeValues[8], 1.0E-5f);
+        for (boolean nodeValid : valid) {
+            assertTrue(nodeValid);
+        }
+    }
+
+    private float computePixelWaterVapour(WaterVapourGrid.InputSource inputSource, int x, int y) {
+        final float[] waterVapour = new float[1];
+        final WaterVapourBatchRetrieval retrieval = new WaterVapourBatchRetrieval(neuralNetWv, 1);
+        final float azimuthDifference = SnowTemperatureEmissivityRetrieval.removeAzimuthDifferenceAmbiguity(
+                inputSource.getSample(WaterVapourGrid.VIEW_AZIMUTH, x, y),
+                inputSource.getSample(WaterVapourGrid.SUN_AZIMUTH, x, y));
+        retrieval.computeWaterVapour(new float[]{inputSource.getSample(WaterVapourGrid.ZONAL_WIND, x, y)},
+                                     new float[]{inputSource.getSample(WaterVapourGrid.MERIDIONAL_WIND, x, y)},
+                                     new float[]{azimuthDifference},
+                                     new float[]{inputSource.getSample(WaterVapourGrid.VIEW_ZENITH, x, y)},
+                                     new float[]{inputSource.getSample(WaterVapourGrid.SUN_ZENITH, x, y)},
+                                     new float[]{inputSource.getSample(WaterVapourGrid.RADIANCE_14, x, y)},
+                                     new float[]{inputSource.getSample(WaterVapourGrid.RADIANCE_15, x, y)},
+                                     1, Float.NaN, waterVapour);
+        return Float.isNaN(waterVapour[0]) ?
+                DEFAULT_VALUE : waterVapour[0] * SnowRadianceConstants.WATER_VAPOUR_NN_TO_RTM_FACTOR;
+    }
+
+    // inputs within the valid neural net ranges, band 15 radiance varying with x by the given gradient
+    private static class TestInputSource implements WaterVapourGrid.InputSource {
+
+        private final float radiance15Gradient;
+        private float radiance14 = 60.0f;
+        private int invalidRadianceXLimit = 0;
+
+        private TestInputSource(float radiance15Gradient) {
+            this.radiance15Gradient = radiance15Gradient;
+        }
+
+        public float getSample(int input, int x, int y) {
+            switch (input) {
+                case WaterVapourGrid.ZONAL_WIND:
+                    return 3.0f;
+                case WaterVapourGrid.MERIDIONAL_WIND:
+                    return 4.0f;
+                case WaterVapourGrid.SUN_AZIMUTH:
+                    return 140.0f;
+                case WaterVapourGrid.SUN_ZENITH:
+                    return 50.0f;
+                case WaterVapourGrid.VIEW_AZIMUTH:
+                    return 100.0f;
+                case WaterVapourGrid.VIEW_ZENITH:
+                    return 20.0f;
+                case WaterVapourGrid.RADIANCE_14:
+                    return x < invalidRadianceXLimit ? 0.0f : radiance14;
+                default:
+                    return 45.0f + radiance15Gradient * x;
+            }
+        }
+    }
+}